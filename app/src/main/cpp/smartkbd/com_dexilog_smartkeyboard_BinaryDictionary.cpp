@@ -26,6 +26,7 @@
 #include <assert.h>
 #include <unistd.h>
 #include <fcntl.h>
+#include <sys/mman.h>
 
 #include "dictionary.h"
 #include "expandable_dic.h"
@@ -75,6 +76,31 @@ static jlong smartkbd_BinaryDictionary_open
     return reinterpret_cast<jlong>(dictionary);
 }
 
+static jlong smartkbd_BinaryDictionary_openMapped
+        (JNIEnv *env, jobject object, jobject fileDescriptor,
+         jlong offset, jlong length,
+         jint typedLetterMultiplier, jint fullWordMultiplier)
+{
+    jint fd = env->GetIntField(fileDescriptor, sDescriptorField);
+
+    // The mapping must start on a page boundary, which the asset offset usually isn't
+    long pageSize = sysconf(_SC_PAGESIZE);
+    off_t alignedOffset = offset - offset % pageSize;
+    size_t delta = offset - alignedOffset;
+    size_t mappedLength = length + delta;
+    void *mapped = mmap(NULL, mappedLength, PROT_READ, MAP_PRIVATE, fd, alignedOffset);
+    if (mapped == MAP_FAILED) {
+        fprintf(stderr, "DICT: Failed to map dictionary\n");
+        return 0;
+    }
+
+    Dictionary *dictionary = new Dictionary((unsigned char*) mapped + delta,
+            typedLetterMultiplier, fullWordMultiplier);
+    dictionary->setMapping(mapped, mappedLength);
+
+    return reinterpret_cast<jlong>(dictionary);
+}
+
 static int smartkbd_BinaryDictionary_getSuggestions(
         JNIEnv *env, jobject object, jlong dict, jintArray inputArray, jint arraySize,
         jcharArray outputArray, jintArray frequencyArray, jint maxWordLength, jint maxWords,
@@ -104,6 +130,30 @@ static int smartkbd_BinaryDictionary_getSuggestions(
     return count;
 }
 
+static int smartkbd_BinaryDictionary_getWildcardSuggestions(
+        JNIEnv *env, jobject object, jlong dict, jintArray inputArray, jint arraySize,
+        jcharArray outputArray, jintArray frequencyArray, jint maxWordLength, jint maxWords,
+        jint maxAlternatives, jboolean modeT9)
+{
+    Dictionary *dictionary = (Dictionary*) dict;
+    if (dictionary == NULL)
+        return 0;
+
+    int *frequencies = env->GetIntArrayElements(frequencyArray, NULL);
+    int *inputCodes = env->GetIntArrayElements(inputArray, NULL);
+    jchar *outputChars = env->GetCharArrayElements(outputArray, NULL);
+
+    int count = dictionary->getWildcardSuggestions(inputCodes, arraySize,
+            (unsigned short*) outputChars, frequencies, maxWordLength, maxWords, maxAlternatives,
+            modeT9);
+
+    env->ReleaseIntArrayElements(frequencyArray, frequencies, 0);
+    env->ReleaseIntArrayElements(inputArray, inputCodes, JNI_ABORT);
+    env->ReleaseCharArrayElements(outputArray, outputChars, 0);
+
+    return count;
+}
+
 static jboolean smartkbd_BinaryDictionary_isValidWord
         (JNIEnv *env, jobject object, jlong dict, jcharArray wordArray, jint wordLength)
 {
@@ -121,8 +171,12 @@ static void smartkbd_BinaryDictionary_close
         (JNIEnv *env, jobject object, jlong dict)
 {
     Dictionary *dictionary = (Dictionary*) dict;
-    delete dictionary->getDictBuffer();
-    delete (Dictionary*) dict;
+    if (dictionary->getMappedBase() != NULL) {
+        munmap(dictionary->getMappedBase(), dictionary->getMappedLength());
+    } else {
+        delete[] dictionary->getDictBuffer();
+    }
+    delete dictionary;
 }
 
 
@@ -137,6 +191,7 @@ static void smartkbd_BinaryDictionary_addWordExpandable
         (JNIEnv *env, jobject object, jlong dict, jstring word, jint freq)
 {
     ExpandableDictionary *dictionary = (ExpandableDictionary*)dict;
+    if (dictionary == NULL) return;
 	const jchar *wordString = env->GetStringChars(word, 0);
 	int len = env->GetStringLength(word);
 	dictionary->addWord(wordString, len, freq);
@@ -147,6 +202,7 @@ static void smartkbd_BinaryDictionary_addCharArrayExpandable
         (JNIEnv *env, jobject object, jlong dict, jcharArray word, jint size, jint freq)
 {
     ExpandableDictionary *dictionary = (ExpandableDictionary*)dict;
+    if (dictionary == NULL) return;
     jchar *wordString = env->GetCharArrayElements(word, NULL);
 	dictionary->addWord(wordString, size, freq);
 	env->ReleaseCharArrayElements(word, wordString, JNI_ABORT);
@@ -156,6 +212,7 @@ static jint smartkbd_BinaryDictionary_getWordFrequencyExpandable
         (JNIEnv *env, jobject object, jlong dict, jstring word)
 {
     ExpandableDictionary *dictionary = (ExpandableDictionary*)dict;
+    if (dictionary == NULL) return -1;
 	const jchar *wordString = env->GetStringChars(word, 0);
 	int len = env->GetStringLength(word);
 	int ret = dictionary->getWordFrequency(wordString, len);
@@ -163,10 +220,34 @@ static jint smartkbd_BinaryDictionary_getWordFrequencyExpandable
 	return ret;
 }
 
+static jint smartkbd_BinaryDictionary_getCharArrayFrequencyExpandable
+        (JNIEnv *env, jobject object, jlong dict, jcharArray word, jint size)
+{
+    ExpandableDictionary *dictionary = (ExpandableDictionary*)dict;
+    if (dictionary == NULL) return -1;
+    jchar *wordString = env->GetCharArrayElements(word, NULL);
+    int ret = dictionary->getWordFrequency(wordString, size);
+    env->ReleaseCharArrayElements(word, wordString, JNI_ABORT);
+    return ret;
+}
+
+static jboolean smartkbd_BinaryDictionary_removeWordExpandable
+        (JNIEnv *env, jobject object, jlong dict, jstring word)
+{
+    ExpandableDictionary *dictionary = (ExpandableDictionary*)dict;
+    if (dictionary == NULL) return (jboolean) false;
+    const jchar *wordString = env->GetStringChars(word, 0);
+    int len = env->GetStringLength(word);
+    bool ret = dictionary->removeWord(wordString, len);
+    env->ReleaseStringChars(word, wordString);
+    return ret;
+}
+
 static jint smartkbd_BinaryDictionary_increaseWordFrequencyExpandable
         (JNIEnv *env, jobject object, jlong dict, jstring word)
 {
     ExpandableDictionary *dictionary = (ExpandableDictionary*)dict;
+    if (dictionary == NULL) return -1;
 	const jchar *wordString = env->GetStringChars(word, 0);
 	int len = env->GetStringLength(word);
 	int ret = dictionary->increaseWordFrequency(wordString, len);
@@ -181,6 +262,7 @@ static int smartkbd_BinaryDictionary_getSuggestionsExpandable(
 		jintArray nextLettersArray, jint nextLettersSize)
 {
     ExpandableDictionary *dictionary = (ExpandableDictionary*) dict;
+    if (dictionary == NULL) return 0;
 
     int *frequencies = env->GetIntArrayElements(frequencyArray, NULL);
     int *inputCodes = env->GetIntArrayElements(inputArray, NULL);
@@ -201,6 +283,59 @@ static int smartkbd_BinaryDictionary_getSuggestionsExpandable(
     return count;
 }
 
+static int smartkbd_BinaryDictionary_getWildcardSuggestionsExpandable(
+        JNIEnv *env, jobject object, jlong dict, jintArray inputArray, jint arraySize,
+        jcharArray outputArray, jintArray frequencyArray, jint maxWordLength, jint maxWords,
+        jint maxAlternatives, jboolean modeT9)
+{
+    ExpandableDictionary *dictionary = (ExpandableDictionary*) dict;
+    if (dictionary == NULL) return 0;
+
+    int *frequencies = env->GetIntArrayElements(frequencyArray, NULL);
+    int *inputCodes = env->GetIntArrayElements(inputArray, NULL);
+    jchar *outputChars = env->GetCharArrayElements(outputArray, NULL);
+
+    int count = dictionary->getWildcardSuggestions(inputCodes, arraySize,
+            (unsigned short*) outputChars, frequencies, maxWordLength, maxWords, maxAlternatives,
+            modeT9);
+
+    env->ReleaseIntArrayElements(frequencyArray, frequencies, 0);
+    env->ReleaseIntArrayElements(inputArray, inputCodes, JNI_ABORT);
+    env->ReleaseCharArrayElements(outputArray, outputChars, 0);
+
+    return count;
+}
+
+static void smartkbd_BinaryDictionary_compactExpandable
+        (JNIEnv *env, jobject object, jlong dict)
+{
+    ExpandableDictionary *dictionary = (ExpandableDictionary*) dict;
+    if (dictionary == NULL) return;
+    dictionary->compact();
+}
+
+static jboolean smartkbd_BinaryDictionary_saveExpandable
+        (JNIEnv *env, jobject object, jlong dict, jstring path, jlong stamp)
+{
+    ExpandableDictionary *dictionary = (ExpandableDictionary*) dict;
+    if (dictionary == NULL) return (jboolean) false;
+    const char *pathString = env->GetStringUTFChars(path, 0);
+    bool ret = dictionary->save(pathString, stamp);
+    env->ReleaseStringUTFChars(path, pathString);
+    return ret;
+}
+
+static jboolean smartkbd_BinaryDictionary_loadExpandable
+        (JNIEnv *env, jobject object, jlong dict, jstring path, jlong stamp)
+{
+    ExpandableDictionary *dictionary = (ExpandableDictionary*) dict;
+    if (dictionary == NULL) return (jboolean) false;
+    const char *pathString = env->GetStringUTFChars(path, 0);
+    bool ret = dictionary->load(pathString, stamp);
+    env->ReleaseStringUTFChars(path, pathString);
+    return ret;
+}
+
 static void smartkbd_BinaryDictionary_closeExpandable
         (JNIEnv *env, jobject object, jlong dict)
 {
@@ -214,16 +349,25 @@ static void smartkbd_BinaryDictionary_closeExpandable
 static JNINativeMethod gMethods[] = {
     {"openNative",           "(Ljava/io/FileDescriptor;JJII)J",
                                                 (void*)smartkbd_BinaryDictionary_open},
+    {"openMappedNative",     "(Ljava/io/FileDescriptor;JJII)J",
+                                                (void*)smartkbd_BinaryDictionary_openMapped},
     {"closeNative",          "(J)V",            (void*)smartkbd_BinaryDictionary_close},
     {"getSuggestionsNative", "(J[II[C[IIIIIZ[II)I", (void*)smartkbd_BinaryDictionary_getSuggestions},
+    {"getWildcardSuggestionsNative", "(J[II[C[IIIIZ)I", (void*)smartkbd_BinaryDictionary_getWildcardSuggestions},
     {"isValidWordNative",    "(J[CI)Z",         (void*)smartkbd_BinaryDictionary_isValidWord},
 
     {"openExpandableNative",        "()J",                        (void*)smartkbd_BinaryDictionary_openExpandable},
     {"addWordExpandableNative",     "(JLjava/lang/String;I)V",    (void*)smartkbd_BinaryDictionary_addWordExpandable},
     {"addCharArrayExpandableNative",     "(J[CII)V",               (void*)smartkbd_BinaryDictionary_addCharArrayExpandable},
     {"getWordFrequencyExpandableNative", "(JLjava/lang/String;)I",    	(int*)smartkbd_BinaryDictionary_getWordFrequencyExpandable},
+    {"getCharArrayFrequencyExpandableNative", "(J[CI)I",          (void*)smartkbd_BinaryDictionary_getCharArrayFrequencyExpandable},
     {"increaseWordFrequencyExpandableNative", "(JLjava/lang/String;)I",(int*)smartkbd_BinaryDictionary_increaseWordFrequencyExpandable},
+    {"removeWordExpandableNative",  "(JLjava/lang/String;)Z",    (void*)smartkbd_BinaryDictionary_removeWordExpandable},
     {"getSuggestionsExpandableNative", "(J[II[C[IIIIIZ[II)I",     (void*)smartkbd_BinaryDictionary_getSuggestionsExpandable},
+    {"getWildcardSuggestionsExpandableNative", "(J[II[C[IIIIZ)I", (void*)smartkbd_BinaryDictionary_getWildcardSuggestionsExpandable},
+    {"compactExpandableNative",     "(J)V",                       (void*)smartkbd_BinaryDictionary_compactExpandable},
+    {"saveExpandableNative",        "(JLjava/lang/String;J)Z",   (void*)smartkbd_BinaryDictionary_saveExpandable},
+    {"loadExpandableNative",        "(JLjava/lang/String;J)Z",   (void*)smartkbd_BinaryDictionary_loadExpandable},
     {"closeExpandableNative",       "(J)V",                       (void*)smartkbd_BinaryDictionary_closeExpandable},
 };
 
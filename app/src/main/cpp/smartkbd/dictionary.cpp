@@ -42,6 +42,9 @@ namespace smartkbd {
 Dictionary::Dictionary(unsigned char *dict, int typedLetterMultiplier, int fullWordMultiplier)
 {
     mDict = dict;
+    mMappedBase = NULL;
+    mMappedLength = 0;
+    mNodesVisited = 0;
     mTypedLetterMultiplier = typedLetterMultiplier;
     mFullWordMultiplier = fullWordMultiplier;
 }
@@ -53,8 +56,24 @@ Dictionary::~Dictionary()
 int Dictionary::getSuggestions(int *codes, int codesSize, unsigned short *outWords, int *frequencies,
         int maxWordLength, int maxWords, int maxAlternatives, int skipPos, bool modeT9,
         int *nextLetters, int nextLettersSize)
+{
+    return search(codes, codesSize, outWords, frequencies, maxWordLength, maxWords,
+            maxAlternatives, skipPos, false, modeT9, nextLetters, nextLettersSize);
+}
+
+int Dictionary::getWildcardSuggestions(int *codes, int codesSize, unsigned short *outWords,
+        int *frequencies, int maxWordLength, int maxWords, int maxAlternatives, bool modeT9)
+{
+    return search(codes, codesSize, outWords, frequencies, maxWordLength, maxWords,
+            maxAlternatives, -1, true, modeT9, NULL, 0);
+}
+
+int Dictionary::search(int *codes, int codesSize, unsigned short *outWords, int *frequencies,
+        int maxWordLength, int maxWords, int maxAlternatives, int skipPos, bool wildcard,
+        bool modeT9, int *nextLetters, int nextLettersSize)
 {
     int suggWords = 0;
+    mNodesVisited = 0;
     mFrequencies = frequencies;
     mOutputChars = outWords;
     mInputCodes = codes;
@@ -63,12 +82,28 @@ int Dictionary::getSuggestions(int *codes, int codesSize, unsigned short *outWor
     mMaxWordLength = maxWordLength;
     mMaxWords = maxWords;
     mSkipPos = skipPos;
+    mWildcard = wildcard;
+    mSkipMode = wildcard || skipPos >= 0;
     mMaxEditDistance = mInputLength < 5 ? 2 : mInputLength / 2;
     mT9 = modeT9;
     mNextLettersFrequencies = nextLetters;
     mNextLettersSize = nextLettersSize;
 
-    getWordsRec(0, 0, mInputLength * 3, false, 1, 0, 0);
+    int maxDepth = mInputLength * 3;
+    if (!mSkipMode && mFrontier.sync(codes, codesSize, maxAlternatives, modeT9,
+            mMaxEditDistance) && extendFrontier()) {
+        // Only match the last code, starting from the states that matched the previous ones
+        int level = mInputLength - 1;
+        int end = mFrontier.levelEnd(level);
+        for (int i = mFrontier.levelStart(level); i < end; i++) {
+            const Frontier::State *state = mFrontier.getState(i);
+            mFrontier.restoreWord(i, mWord);
+            getWordsRec(state->pos, state->depth, maxDepth, false, state->snr, level,
+                    state->diffs, false);
+        }
+    } else {
+        getWordsRec(0, 0, maxDepth, false, 1, 0, 0, false);
+    }
 
     // Get the word count
     while (suggWords < mMaxWords && mFrequencies[suggWords] > 0) suggWords++;
@@ -123,7 +158,14 @@ Dictionary::wideStrLen(unsigned short *str)
 bool
 Dictionary::addWord(unsigned short *word, int length, int frequency)
 {
+    // Doesn't fit in an output slot with its terminating 0
+    if (length >= mMaxWordLength) {
+        return false;
+    }
     word[length] = 0;
+    if (mWildcard && replaceDuplicate(word, length, frequency)) {
+        return false;
+    }
     if (DEBUG_DICT) {
         char s[length + 1];
         for (int i = 0; i <= length; i++) s[i] = word[i];
@@ -159,6 +201,32 @@ Dictionary::addWord(unsigned short *word, int length, int frequency)
     return false;
 }
 
+// The wildcard walk can reach the same word through several skip positions: only keep the
+// best scoring copy so that duplicates don't push other words out of the list.
+// Returns true if a copy at least as good is already there.
+bool
+Dictionary::replaceDuplicate(unsigned short *word, int length, int frequency)
+{
+    for (int i = 0; i < mMaxWords && mFrequencies[i] > 0; i++) {
+        unsigned short *other = mOutputChars + i * mMaxWordLength;
+        if (wideStrLen(other) != length || memcmp(other, word, length * sizeof(short)) != 0) {
+            continue;
+        }
+        if (mFrequencies[i] >= frequency) {
+            return true;
+        }
+        // Remove the weaker copy, addWord will insert the new one at the right place
+        memmove(mFrequencies + i, mFrequencies + i + 1,
+                (mMaxWords - i - 1) * sizeof(mFrequencies[0]));
+        mFrequencies[mMaxWords - 1] = 0;
+        memmove(other, other + mMaxWordLength,
+                (mMaxWords - i - 1) * mMaxWordLength * sizeof(short));
+        mOutputChars[(mMaxWords - 1) * mMaxWordLength] = 0;
+        return false;
+    }
+    return false;
+}
+
 unsigned short
 Dictionary::toLowerCase(unsigned short c) {
     if (c < sizeof(BASE_CHARS) / sizeof(BASE_CHARS[0])) {
@@ -193,10 +261,12 @@ static char QUOTE = '\'';
 
 void
 Dictionary::getWordsRec(int pos, int depth, int maxDepth, bool completion, int snr, int inputIndex,
-                        int diffs)
+                        int diffs, bool skipped)
 {
+    mNodesVisited++;
     // Optimization: Prune out words that are too long compared to how much was typed.
-    if (depth > maxDepth) {
+    // Also keep room in mWord for the terminating 0.
+    if (depth > maxDepth || depth >= MAX_WORD_BUFFER - 1) {
         return;
     }
     if (!mT9 && diffs > mMaxEditDistance) {
@@ -222,21 +292,29 @@ Dictionary::getWordsRec(int pos, int depth, int maxDepth, bool completion, int s
             mWord[depth] = c;
             if (terminal) {
                 addWord(mWord, depth + 1, freq * snr);
-                if (depth >= mInputLength && mSkipPos < 0) {
+                if (depth >= mInputLength && !mSkipMode) {
                     registerNextLetter(mWord[mInputLength]);
                 }
             }
             if (childrenAddress != 0) {
                 getWordsRec(childrenAddress, depth + 1, maxDepth,
-                            completion, snr, inputIndex, diffs);
+                            completion, snr, inputIndex, diffs, skipped);
             }
         } else if (c == QUOTE && currentChars[0] != QUOTE || mSkipPos == depth) {
             // Skip the ' or other letter and continue deeper
             mWord[depth] = c;
             if (childrenAddress != 0) {
-                getWordsRec(childrenAddress, depth + 1, maxDepth, false, snr, inputIndex, diffs);
+                getWordsRec(childrenAddress, depth + 1, maxDepth, false, snr, inputIndex, diffs,
+                        skipped);
             }
         } else {
+            // In wildcard mode, also try this letter as the skipped one, as long as no other
+            // letter has been skipped yet on this path
+            if (mWildcard && !skipped && depth < mInputLength && childrenAddress != 0) {
+                mWord[depth] = c;
+                getWordsRec(childrenAddress, depth + 1, maxDepth, false, snr, inputIndex, diffs,
+                        true);
+            }
             int j = 0;
             while (currentChars[j] > 0) {
                 if (currentChars[j] == lowerC || currentChars[j] == c) {
@@ -248,25 +326,97 @@ Dictionary::getWordsRec(int pos, int depth, int maxDepth, bool completion, int s
                             if (INCLUDE_TYPED_WORD_IF_VALID ||
                                 !sameAsTyped(mWord, depth + 1)) {
                                 int finalFreq = freq * snr * addedWeight;
-                                if (mSkipPos < 0) finalFreq *= mFullWordMultiplier;
+                                if (!mSkipMode) finalFreq *= mFullWordMultiplier;
                                 addWord(mWord, depth + 1, finalFreq);
                             }
                         }
                         if (childrenAddress != 0) {
                             getWordsRec(childrenAddress, depth + 1,
                                     maxDepth, true, snr * addedWeight, inputIndex + 1,
-                                    diffs + (j > 0));
+                                    diffs + (j > 0), skipped);
                         }
                     } else if (childrenAddress != 0) {
                         getWordsRec(childrenAddress, depth + 1, maxDepth,
-                                false, snr * addedWeight, inputIndex + 1, diffs + (j > 0));
+                                false, snr * addedWeight, inputIndex + 1, diffs + (j > 0),
+                                skipped);
                     }
                 }
                 j++;
-                if (mSkipPos >= 0) break;
+                if (mSkipMode) break;
+            }
+        }
+    }
+}
+
+// Builds the missing frontier levels, up to the one that precedes the last typed code.
+// Returns false if the frontier got too big, in which case the search starts from the root.
+bool
+Dictionary::extendFrontier()
+{
+    while (mFrontier.getLevelCount() < mInputLength) {
+        int level = mFrontier.getLevelCount();
+        int *currentChars = mInputCodes + (level - 1) * mMaxAlternatives;
+        int end = mFrontier.levelEnd(level - 1);
+        mFrontier.beginLevel(currentChars);
+        for (int i = mFrontier.levelStart(level - 1); i < end; i++) {
+            const Frontier::State *state = mFrontier.getState(i);
+            mFrontier.restoreWord(i, mWord);
+            if (!extendFrontierRec(state->pos, state->depth, state->snr, state->diffs, i,
+                    currentChars)) {
+                mFrontier.abortLevel();
+                return false;
+            }
+        }
+        mFrontier.endLevel();
+    }
+    return true;
+}
+
+// Same walk as getWordsRec for a code that is not the last one, except that the positions
+// reached after matching it are recorded instead of being searched further
+bool
+Dictionary::extendFrontierRec(int pos, int depth, int snr, int diffs, int parent,
+                              int *currentChars)
+{
+    mNodesVisited++;
+    if (depth >= MAX_WORD_BUFFER - 1) {
+        // Too deep for mWord: let the caller fall back to a full walk
+        return false;
+    }
+    int count = getCount(&pos);
+    for (int i = 0; i < count; i++) {
+        unsigned short c = getChar(&pos);
+        unsigned short lowerC = toLowerCase(c);
+        bool terminal = getTerminal(&pos);
+        int childrenAddress = getAddress(&pos);
+        if (terminal) getFreq(&pos);
+        if (childrenAddress == 0) {
+            continue;
+        }
+        mWord[depth] = c;
+        if (c == QUOTE && currentChars[0] != QUOTE) {
+            if (!extendFrontierRec(childrenAddress, depth + 1, snr, diffs, parent,
+                    currentChars)) {
+                return false;
+            }
+        } else {
+            for (int j = 0; currentChars[j] > 0; j++) {
+                if (currentChars[j] == lowerC || currentChars[j] == c) {
+                    int addedWeight = 1;
+                    if (!mT9 && j == 0) addedWeight = mTypedLetterMultiplier;
+                    int newDiffs = diffs + (j > 0);
+                    if (!mT9 && newDiffs > mMaxEditDistance) {
+                        continue;
+                    }
+                    if (!mFrontier.addState(childrenAddress, parent, depth + 1,
+                            snr * addedWeight, newDiffs, mWord)) {
+                        return false;
+                    }
+                }
             }
         }
     }
+    return true;
 }
 
 bool
@@ -17,6 +17,10 @@
 #ifndef smartkbd_DICTIONARY_H
 #define smartkbd_DICTIONARY_H
 
+#include <stddef.h>
+
+#include "frontier.h"
+
 namespace smartkbd {
 
 // 22-bit address = ~4MB dictionary size limit, which on average would be about 200k-300k words
@@ -34,10 +38,19 @@ public:
     int getSuggestions(int *codes, int codesSize, unsigned short *outWords, int *frequencies,
         int maxWordLength, int maxWords, int maxAlternatives, int skipPos, bool modeT9,
         int *nextLetters, int nextLettersSize);
+    // Single walk that lets any one typed position be skipped, replacing one call per skipPos
+    int getWildcardSuggestions(int *codes, int codesSize, unsigned short *outWords,
+        int *frequencies, int maxWordLength, int maxWords, int maxAlternatives, bool modeT9);
     bool isValidWord(unsigned short *word, int length);
     void setAsset(void *asset) { mAsset = asset; }
     void *getAsset() { return mAsset; }
     unsigned char *getDictBuffer() { return mDict; }
+    // Set when mDict points into a read-only mapping of the dictionary file instead of a copy
+    void setMapping(void *base, size_t length) { mMappedBase = base; mMappedLength = length; }
+    void *getMappedBase() { return mMappedBase; }
+    size_t getMappedLength() { return mMappedLength; }
+    // Number of trie nodes walked by the last search, for the host benchmark
+    unsigned long getNodesVisited() { return mNodesVisited; }
     ~Dictionary();
 
     static int wideStrLen(unsigned short *str);
@@ -53,13 +66,22 @@ private:
 
     bool sameAsTyped(unsigned short *word, int length);
     bool addWord(unsigned short *word, int length, int frequency);
+    bool replaceDuplicate(unsigned short *word, int length, int frequency);
+    int search(int *codes, int codesSize, unsigned short *outWords, int *frequencies,
+        int maxWordLength, int maxWords, int maxAlternatives, int skipPos, bool wildcard,
+        bool modeT9, int *nextLetters, int nextLettersSize);
     void getWordsRec(int pos, int depth, int maxDepth, bool completion, int frequency,
-            int inputIndex, int diffs);
+            int inputIndex, int diffs, bool skipped);
+    bool extendFrontier();
+    bool extendFrontierRec(int pos, int depth, int snr, int diffs, int parent, int *currentChars);
     bool isValidWordRec(int pos, unsigned short *word, int offset, int length);
     void registerNextLetter(unsigned short c);
 
     unsigned char *mDict;
     void *mAsset;
+    void *mMappedBase;
+    size_t mMappedLength;
+    unsigned long mNodesVisited;
 
     int *mFrequencies;
     int mMaxWords;
@@ -68,8 +90,12 @@ private:
     int *mInputCodes;
     int mInputLength;
     int mMaxAlternatives;
-    unsigned short mWord[128];
+    // Word being walked: deeper nodes are not searched, and longer words are not returned
+    static const int MAX_WORD_BUFFER = 128;
+    unsigned short mWord[MAX_WORD_BUFFER];
     int mSkipPos;
+    bool mWildcard;
+    bool mSkipMode;
     int mMaxEditDistance;
 
     int mFullWordMultiplier;
@@ -77,6 +103,7 @@ private:
     bool mT9;
     int *mNextLettersFrequencies;
     int mNextLettersSize;
+    Frontier mFrontier;
 };
 
 // ----------------------------------------------------------------------------
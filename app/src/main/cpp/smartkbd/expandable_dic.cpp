@@ -1,6 +1,9 @@
 #include "expandable_dic.h"
 #include "dictionary.h"
+#include <stdio.h>
+#include <stdlib.h>
 #include <string.h>
+#include <unistd.h>
 
 #include <android/log.h> 
 
@@ -9,71 +12,338 @@
 using namespace smartkbd;
 
 
-ExpandableDictionary::Node::Node(): code(0), frequency(0), terminal(false), children(0), length(0) 
+ExpandableDictionary::ExpandableDictionary()
 {
+    mCapacity = INITIAL_ARENA_SIZE;
+    mNodes = (Node*) malloc(mCapacity * sizeof(Node));
+    memset(mNodes, 0, sizeof(Node));
+    mSize = 1;
+    mLiveNodes = 1;
+    mNodesVisited = 0;
 }
 
-ExpandableDictionary::Node::~Node()
+ExpandableDictionary::~ExpandableDictionary()
 {
-	for (int i = 0; i < length; ++i)
-	{
-		delete children[i];
-	}
-	delete[] children;
+    free(mNodes);
 }
 
-void ExpandableDictionary::Node::add(Node *n) 
+void ExpandableDictionary::addWord(const unsigned short *word, int len, int freq)
 {
-	if (children == 0)
-	{
-		children = new Node*[INCREMENT];
-	}
-	else if (length + 1 > sizeof(children) / sizeof(Node*)) 
-	{
-		// Resize children array if needed
-    	Node **tempData = new Node*[length + INCREMENT];
-        if (length > 0) 
-		{
-			for (int i = 0; i < length; ++i)
-			{
-				tempData[i] = children[i];
-			}
+    if (len <= 0) {
+        return;
+    }
+    unsigned int node = 0;
+    for (int depth = 0; depth < len; depth++) {
+        int pos;
+        unsigned int child = findChild(node, word[depth], &pos);
+        if (child == 0) {
+            // Inserting may move nodes around
+            mFrontier.reset();
+            child = insertChild(node, pos, word[depth]);
+            if (child == 0) {
+                // Out of memory
+                return;
+            }
         }
-		delete[] children;
-        children = tempData;
+        node = child;
     }
-    children[length++] = n;
+    // Terminate this word
+    Node *n = mNodes + node;
+    n->terminal = true;
+    n->frequency = freq > n->frequency ? freq : n->frequency;
+    if (n->frequency > 255) n->frequency = 255;
 }
 
-ExpandableDictionary::ExpandableDictionary()
+int ExpandableDictionary::getWordFrequency(const unsigned short *word, int len)
 {
+    Node *node = findWord(word, len);
+    return node != 0 ? node->frequency : -1;
 }
 
-ExpandableDictionary::~ExpandableDictionary()
+int ExpandableDictionary::increaseWordFrequency(const unsigned short *word, int len)
 {
+    Node *node = findWord(word, len);
+    return node != 0 ? ++node->frequency : -1;
 }
 
-void ExpandableDictionary::addWord(const unsigned short *word, int len, int freq)
+bool ExpandableDictionary::removeWord(const unsigned short *word, int len)
 {
-	addWordRec(&mRoots, word, 0, len, freq);
+    if (len <= 0 || len > MAX_WORD_BUFFER) {
+        return false;
+    }
+    // Path from the root, to prune the branch on the way back
+    unsigned int path[MAX_WORD_BUFFER + 1];
+    path[0] = 0;
+    for (int depth = 0; depth < len; depth++) {
+        int pos;
+        path[depth + 1] = findChild(path[depth], word[depth], &pos);
+        if (path[depth + 1] == 0) {
+            return false;
+        }
+    }
+    Node *n = mNodes + path[len];
+    if (!n->terminal) {
+        return false;
+    }
+    n->terminal = false;
+    n->frequency = 0;
+    // Removing children shifts their siblings
+    mFrontier.reset();
+    for (int depth = len; depth > 0; depth--) {
+        n = mNodes + path[depth];
+        if (n->terminal || n->length > 0) {
+            break;
+        }
+        // The range of a childless node is left as a hole until the next compact()
+        Node *p = mNodes + path[depth - 1];
+        int pos = path[depth] - p->children;
+        Node *children = mNodes + p->children;
+        memmove(children + pos, children + pos + 1, (p->length - pos - 1) * sizeof(Node));
+        p->length--;
+        mLiveNodes--;
+    }
+    return true;
 }
 
-int ExpandableDictionary::getWordFrequency(const unsigned short *word, int len)
+void ExpandableDictionary::compact()
 {
-	return getWordFrequencyRec(&mRoots, word, 0, len);
+    if (mLiveNodes == mSize) {
+        return;
+    }
+    Node *nodes = (Node*) malloc(mLiveNodes * sizeof(Node));
+    if (nodes == 0) {
+        return;
+    }
+    // Breadth-first copy: the new arena doubles as the queue of nodes whose children are
+    // still in the old arena
+    nodes[0] = mNodes[0];
+    unsigned int size = 1;
+    for (unsigned int i = 0; i < size; i++) {
+        Node *node = nodes + i;
+        if (node->length > 0) {
+            memcpy(nodes + size, mNodes + node->children, node->length * sizeof(Node));
+            node->children = size;
+            size += node->length;
+        } else {
+            node->children = 0;
+        }
+        node->capacity = node->length;
+    }
+    free(mNodes);
+    mNodes = nodes;
+    mSize = size;
+    mFrontier.reset();
+    mCapacity = size;
 }
 
-int ExpandableDictionary::increaseWordFrequency(const unsigned short *word, int len)
+bool ExpandableDictionary::save(const char *path, long long stamp)
+{
+    compact();
+    if (mLiveNodes != mSize) {
+        // Out of memory while compacting
+        return false;
+    }
+    SnapshotHeader header;
+    memset(&header, 0, sizeof(header));
+    header.magic = SNAPSHOT_MAGIC;
+    header.version = SNAPSHOT_VERSION;
+    header.nodeSize = sizeof(Node);
+    header.nodeCount = mSize;
+    header.stamp = stamp;
+    header.checksum = checksum(mNodes, mSize * sizeof(Node));
+
+    // Write to a temporary file and rename it, so that a crash never leaves a partial snapshot
+    const size_t pathLength = strlen(path);
+    char *tmpPath = (char*) malloc(pathLength + 5);
+    if (tmpPath == 0) {
+        return false;
+    }
+    memcpy(tmpPath, path, pathLength);
+    memcpy(tmpPath + pathLength, ".tmp", 5);
+    bool ok = false;
+    FILE *file = fopen(tmpPath, "wb");
+    if (file != 0) {
+        ok = fwrite(&header, sizeof(header), 1, file) == 1
+                && fwrite(mNodes, sizeof(Node), mSize, file) == mSize
+                && fflush(file) == 0 && fsync(fileno(file)) == 0;
+        ok = fclose(file) == 0 && ok;
+        ok = ok && rename(tmpPath, path) == 0;
+        if (!ok) {
+            unlink(tmpPath);
+        }
+    }
+    free(tmpPath);
+    return ok;
+}
+
+bool ExpandableDictionary::load(const char *path, long long stamp)
+{
+    FILE *file = fopen(path, "rb");
+    if (file == 0) {
+        return false;
+    }
+    SnapshotHeader header;
+    Node *nodes = 0;
+    bool ok = fread(&header, sizeof(header), 1, file) == 1
+            && header.magic == SNAPSHOT_MAGIC && header.version == SNAPSHOT_VERSION
+            && header.nodeSize == sizeof(Node) && header.stamp == stamp
+            && header.nodeCount > 0 && header.nodeCount <= MAX_SNAPSHOT_NODES;
+    if (ok) {
+        nodes = (Node*) malloc(header.nodeCount * sizeof(Node));
+        ok = nodes != 0 && fread(nodes, sizeof(Node), header.nodeCount, file) == header.nodeCount
+                && checksum(nodes, header.nodeCount * sizeof(Node)) == header.checksum
+                && isValidArena(nodes, header.nodeCount);
+    }
+    fclose(file);
+    if (!ok) {
+        free(nodes);
+        return false;
+    }
+    free(mNodes);
+    mNodes = nodes;
+    mSize = header.nodeCount;
+    mCapacity = header.nodeCount;
+    mLiveNodes = header.nodeCount;
+    mFrontier.reset();
+    return true;
+}
+
+// FNV-1a
+unsigned int ExpandableDictionary::checksum(const void *data, size_t size)
+{
+    const unsigned char *bytes = (const unsigned char*) data;
+    unsigned int hash = 2166136261u;
+    for (size_t i = 0; i < size; i++) {
+        hash = (hash ^ bytes[i]) * 16777619u;
+    }
+    return hash;
+}
+
+// Checks that the children of every node are within the arena and after it, as compact()
+// lays them out, so that a damaged snapshot can't make the searches loop or read past the end
+bool ExpandableDictionary::isValidArena(const Node *nodes, unsigned int count)
+{
+    for (unsigned int i = 0; i < count; i++) {
+        const Node *node = nodes + i;
+        if (node->length > node->capacity) {
+            return false;
+        }
+        if (node->length > 0 && (node->children <= i
+                || node->children + node->length > count)) {
+            return false;
+        }
+    }
+    return true;
+}
+
+unsigned int ExpandableDictionary::allocate(unsigned int count)
+{
+    if (mSize + count > mCapacity) {
+        unsigned int capacity = mCapacity * 2;
+        while (capacity < mSize + count) capacity *= 2;
+        Node *nodes = (Node*) realloc(mNodes, capacity * sizeof(Node));
+        if (nodes == 0) {
+            return 0;
+        }
+        mNodes = nodes;
+        mCapacity = capacity;
+    }
+    unsigned int index = mSize;
+    mSize += count;
+    return index;
+}
+
+// Returns the index of the child of parent with the given code, or 0 if there is none, in which
+// case insertAt is set to the position where it should be inserted
+unsigned int ExpandableDictionary::findChild(unsigned int parent, unsigned short code, int *insertAt)
+{
+    const Node *p = mNodes + parent;
+    const Node *children = mNodes + p->children;
+    int low = 0;
+    int high = p->length - 1;
+    while (low <= high) {
+        int mid = (low + high) >> 1;
+        unsigned short midCode = children[mid].code;
+        if (midCode < code) {
+            low = mid + 1;
+        } else if (midCode > code) {
+            high = mid - 1;
+        } else {
+            return p->children + mid;
+        }
+    }
+    *insertAt = low;
+    return 0;
+}
+
+unsigned int ExpandableDictionary::insertChild(unsigned int parent, int pos, unsigned short code)
 {
-	return increaseWordFrequencyRec(&mRoots, word, 0, len);
+    if (mNodes[parent].length == mNodes[parent].capacity) {
+        // Move the children to a bigger range at the end of the arena. The old range becomes a
+        // hole until the next compact().
+        unsigned short oldCapacity = mNodes[parent].capacity;
+        unsigned int capacity = oldCapacity == 0 ? INITIAL_CHILDREN : oldCapacity * 2;
+        if (capacity > 0xFFFF) capacity = 0xFFFF;
+        unsigned int range = allocate(capacity);
+        if (range == 0) {
+            return 0;
+        }
+        Node *p = mNodes + parent;
+        if (p->length > 0) {
+            memcpy(mNodes + range, mNodes + p->children, p->length * sizeof(Node));
+        }
+        p->children = range;
+        p->capacity = capacity;
+    }
+    Node *p = mNodes + parent;
+    Node *children = mNodes + p->children;
+    memmove(children + pos + 1, children + pos, (p->length - pos) * sizeof(Node));
+    Node *child = children + pos;
+    memset(child, 0, sizeof(Node));
+    child->code = code;
+    p->length++;
+    mLiveNodes++;
+    return p->children + pos;
+}
+
+ExpandableDictionary::Node *ExpandableDictionary::findWord(const unsigned short *word, int len)
+{
+    if (len <= 0) {
+        return 0;
+    }
+    unsigned int node = 0;
+    for (int depth = 0; depth < len; depth++) {
+        int pos;
+        node = findChild(node, word[depth], &pos);
+        if (node == 0) {
+            return 0;
+        }
+    }
+    return mNodes[node].terminal ? mNodes + node : 0;
 }
 
 
 int ExpandableDictionary::getSuggestions(int *codes, int codesSize, unsigned short *outWords, int *frequencies,
         int maxWordLength, int maxWords, int maxAlternatives, int skipPos, bool modeT9,
         int *nextLetters, int nextLettersSize)
+{
+    return search(codes, codesSize, outWords, frequencies, maxWordLength, maxWords,
+            maxAlternatives, skipPos, false, modeT9, nextLetters, nextLettersSize);
+}
+
+int ExpandableDictionary::getWildcardSuggestions(int *codes, int codesSize, unsigned short *outWords,
+        int *frequencies, int maxWordLength, int maxWords, int maxAlternatives, bool modeT9)
+{
+    return search(codes, codesSize, outWords, frequencies, maxWordLength, maxWords,
+            maxAlternatives, -1, true, modeT9, 0, 0);
+}
+
+int ExpandableDictionary::search(int *codes, int codesSize, unsigned short *outWords, int *frequencies,
+        int maxWordLength, int maxWords, int maxAlternatives, int skipPos, bool wildcard,
+        bool modeT9, int *nextLetters, int nextLettersSize)
 {
     int suggWords = 0;
+    mNodesVisited = 0;
     mFrequencies = frequencies;
     mOutputChars = outWords;
     mInputCodes = codes;
@@ -82,12 +352,28 @@ int ExpandableDictionary::getSuggestions(int *codes, int codesSize, unsigned sho
     mMaxWordLength = maxWordLength;
     mMaxWords = maxWords;
     mSkipPos = skipPos;
+    mWildcard = wildcard;
+    mSkipMode = wildcard || skipPos >= 0;
     mMaxEditDistance = mInputLength < 5 ? 2 : mInputLength / 2;
     mT9 = modeT9;
     mNextLettersFrequencies = nextLetters;
     mNextLettersSize = nextLettersSize;
 
-    getWordsRec(&mRoots, 0, mInputLength * 3, false, 1, 0);
+    int maxDepth = mInputLength * 3;
+    // There is no edit budget in this trie, so the frontier doesn't depend on it
+    if (!mSkipMode && mFrontier.sync(codes, codesSize, maxAlternatives, modeT9, 0)
+            && extendFrontier()) {
+        // Only match the last code, starting from the states that matched the previous ones
+        int level = mInputLength - 1;
+        int end = mFrontier.levelEnd(level);
+        for (int i = mFrontier.levelStart(level); i < end; i++) {
+            const Frontier::State *state = mFrontier.getState(i);
+            mFrontier.restoreWord(i, mWord);
+            getWordsRec(state->pos, state->depth, maxDepth, false, state->snr, level, false);
+        }
+    } else {
+        getWordsRec(0, 0, maxDepth, false, 1, 0, false);
+    }
 
     // Get the word count
     while (suggWords < mMaxWords && mFrequencies[suggWords] > 0) suggWords++;
@@ -95,82 +381,65 @@ int ExpandableDictionary::getSuggestions(int *codes, int codesSize, unsigned sho
 }
 
 
-void ExpandableDictionary::addWordRec(Node *node, const unsigned short *word, int depth, int len, int freq)
-{
-        if (depth >= len) {
-			// Should not happen!!!
-        	return;
-        }
-        unsigned short c = word[depth];
-        // Does children have the current character?
-        Node *childNode = 0;
-        bool found = false;
-        for (int i = 0; i < node->length; i++) {
-            childNode = node->children[i];
-            if (childNode->code == c) {
-                found = true;
-                break;
-            }
-        }
-        if (!found) {
-            childNode = new Node();
-            childNode->code = c;
-            node->add(childNode);
-        }
-        if (len == depth + 1) {
-            // Terminate this word
-            childNode->terminal = true;
-            childNode->frequency = freq > childNode->frequency ? freq : childNode->frequency;
-            if (childNode->frequency > 255) childNode->frequency = 255;
-            return;
-        }
-        addWordRec(childNode, word, depth + 1, len, freq);
-}
-
-
-int ExpandableDictionary::getWordFrequencyRec(Node *parent, const unsigned short *word, int offset, int length)
+// Same as Dictionary::extendFrontier
+bool
+ExpandableDictionary::extendFrontier()
 {
-	int count = parent->length;
-    unsigned short currentChar = word[offset];
-	for (int j = 0; j < count; j++) {
-		Node *node = parent->children[j];
-        if (node->code == currentChar) {
-        	if (offset == length - 1) {
-            	if (node->terminal) {
-                	return node->frequency;
-                }
-            } else {
-            	if (node->children != 0) {
-                	int freq = getWordFrequencyRec(node, word, offset + 1, length);
-                    if (freq > -1) return freq;
-                }
+    while (mFrontier.getLevelCount() < mInputLength) {
+        int level = mFrontier.getLevelCount();
+        int *currentChars = mInputCodes + (level - 1) * mMaxAlternatives;
+        int end = mFrontier.levelEnd(level - 1);
+        mFrontier.beginLevel(currentChars);
+        for (int i = mFrontier.levelStart(level - 1); i < end; i++) {
+            const Frontier::State *state = mFrontier.getState(i);
+            mFrontier.restoreWord(i, mWord);
+            if (!extendFrontierRec(state->pos, state->depth, state->snr, i, currentChars)) {
+                mFrontier.abortLevel();
+                return false;
             }
         }
+        mFrontier.endLevel();
     }
-    return -1;
+    return true;
 }
 
-
-int ExpandableDictionary::increaseWordFrequencyRec(Node *parent, const unsigned short *word, int offset, int length)
+bool
+ExpandableDictionary::extendFrontierRec(unsigned int parent, int depth, int snr,
+        int parentState, int *currentChars)
 {
-	int count = parent->length;
-    unsigned short currentChar = word[offset];
-	for (int j = 0; j < count; j++) {
-		Node *node = parent->children[j];
-        if (node->code == currentChar) {
-        	if (offset == length - 1) {
-            	if (node->terminal) {
-                	return ++node->frequency;
-                }
-            } else {
-            	if (node->children != 0) {
-                	int freq = increaseWordFrequencyRec(node, word, offset + 1, length);
-                    if (freq > -1) return freq;
+    mNodesVisited++;
+    if (depth >= MAX_WORD_BUFFER - 1) {
+        // Too deep for mWord: let the caller fall back to a full walk
+        return false;
+    }
+    int count = mNodes[parent].length;
+    unsigned int first = mNodes[parent].children;
+    for (int i = 0; i < count; i++) {
+        const Node *node = mNodes + first + i;
+        unsigned short c = node->code;
+        unsigned short lowerC = Dictionary::toLowerCase(c);
+        if (node->length == 0) {
+            continue;
+        }
+        mWord[depth] = c;
+        if (c == '\'' && currentChars[0] != '\'') {
+            if (!extendFrontierRec(first + i, depth + 1, snr, parentState, currentChars)) {
+                return false;
+            }
+        } else {
+            for (int j = 0; currentChars[j] > 0; j++) {
+                if (currentChars[j] == lowerC || currentChars[j] == c) {
+                    int addedWeight = 1;
+                    if (!mT9 && j == 0) addedWeight = 2;
+                    if (!mFrontier.addState(first + i, parentState, depth + 1,
+                            snr * addedWeight, 0, mWord)) {
+                        return false;
+                    }
                 }
             }
         }
     }
-    return -1;
+    return true;
 }
 
 void
@@ -184,7 +453,14 @@ ExpandableDictionary::registerNextLetter(unsigned short c)
 bool
 ExpandableDictionary::addSuggestion(unsigned short *word, int length, int frequency)
 {
+    // Doesn't fit in an output slot with its terminating 0
+    if (length >= mMaxWordLength) {
+        return false;
+    }
     word[length] = 0;
+    if (mWildcard && replaceDuplicate(word, length, frequency)) {
+        return false;
+    }
 
     // Find the right insertion point
     int insertAt = 0;
@@ -215,13 +491,42 @@ ExpandableDictionary::addSuggestion(unsigned short *word, int length, int freque
 }
 
 
+// Same as Dictionary::replaceDuplicate: keep a single copy of words found by the wildcard walk
+bool
+ExpandableDictionary::replaceDuplicate(unsigned short *word, int length, int frequency)
+{
+    for (int i = 0; i < mMaxWords && mFrequencies[i] > 0; i++) {
+        unsigned short *other = mOutputChars + i * mMaxWordLength;
+        if (Dictionary::wideStrLen(other) != length
+                || memcmp(other, word, length * sizeof(short)) != 0) {
+            continue;
+        }
+        if (mFrequencies[i] >= frequency) {
+            return true;
+        }
+        memmove(mFrequencies + i, mFrequencies + i + 1,
+                (mMaxWords - i - 1) * sizeof(mFrequencies[0]));
+        mFrequencies[mMaxWords - 1] = 0;
+        memmove(other, other + mMaxWordLength,
+                (mMaxWords - i - 1) * mMaxWordLength * sizeof(short));
+        mOutputChars[(mMaxWords - 1) * mMaxWordLength] = 0;
+        return false;
+    }
+    return false;
+}
+
+
 void
-ExpandableDictionary::getWordsRec(Node *parent, int depth, int maxDepth, bool completion, int snr, int inputIndex)
+ExpandableDictionary::getWordsRec(unsigned int parent, int depth, int maxDepth, bool completion, int snr, int inputIndex,
+        bool skipped)
 {
-    if (!mT9 && depth > maxDepth) {
+    mNodesVisited++;
+    // Keep room in mWord for the terminating 0, also in T9 where the depth is not limited
+    if ((!mT9 && depth > maxDepth) || depth >= MAX_WORD_BUFFER - 1) {
         return;
     }
-    int count = parent->length;
+    int count = mNodes[parent].length;
+    unsigned int first = mNodes[parent].children;
     int *currentChars = 0;
     if (mInputLength <= inputIndex) {
         completion = true;
@@ -230,7 +535,7 @@ ExpandableDictionary::getWordsRec(Node *parent, int depth, int maxDepth, bool co
     }
 
     for (int i = 0; i < count; i++) {
-		Node *node = parent->children[i];
+        const Node *node = mNodes + first + i;
         unsigned short c = node->code;
         unsigned short lowerC = Dictionary::toLowerCase(c);
         bool terminal = node->terminal;
@@ -241,20 +546,25 @@ ExpandableDictionary::getWordsRec(Node *parent, int depth, int maxDepth, bool co
             mWord[depth] = c;
             if (terminal) {
                 addSuggestion(mWord, depth + 1, freq * snr);
-                if (depth >= mInputLength && mSkipPos < 0) {
+                if (depth >= mInputLength && !mSkipMode) {
                     registerNextLetter(mWord[mInputLength]);
                 }
             }
-            if (node->children != 0) {
-                getWordsRec(node, depth + 1, maxDepth, completion, snr, inputIndex);
+            if (node->length != 0) {
+                getWordsRec(first + i, depth + 1, maxDepth, completion, snr, inputIndex, skipped);
             }
         } else if (c == '\'' && currentChars[0] != '\'' || mSkipPos == depth) {
             // Skip the ' or other letter and continue deeper
             mWord[depth] = c;
-            if (node->children != 0) {
-                getWordsRec(node, depth + 1, maxDepth, false, snr, inputIndex);
+            if (node->length != 0) {
+                getWordsRec(first + i, depth + 1, maxDepth, false, snr, inputIndex, skipped);
             }
         } else {
+            // In wildcard mode, also try this letter as the skipped one
+            if (mWildcard && !skipped && depth < mInputLength && node->length != 0) {
+                mWord[depth] = c;
+                getWordsRec(first + i, depth + 1, maxDepth, false, snr, inputIndex, true);
+            }
             int j = 0;
             while (currentChars[j] > 0) {
                 if (currentChars[j] == lowerC || currentChars[j] == c) {
@@ -266,21 +576,21 @@ ExpandableDictionary::getWordsRec(Node *parent, int depth, int maxDepth, bool co
                             /*if (INCLUDE_TYPED_WORD_IF_VALID ||
                                 !sameAsTyped(mWord, depth + 1)) {*/
                                 int finalFreq = freq * snr * addedWeight;
-                                if (mSkipPos < 0) finalFreq *= 2; //mFullWordMultiplier
+                                if (!mSkipMode) finalFreq *= 2; //mFullWordMultiplier
                                 addSuggestion(mWord, depth + 1, finalFreq);
                             //}
                         }
-                        if (node->children != 0) {
-                            getWordsRec(node, depth + 1,
-                                    maxDepth, true, snr * addedWeight, inputIndex + 1);
+                        if (node->length != 0) {
+                            getWordsRec(first + i, depth + 1,
+                                    maxDepth, true, snr * addedWeight, inputIndex + 1, skipped);
                         }
-                    } else if (node->children != 0) {
-                        getWordsRec(node, depth + 1, maxDepth,
-                                false, snr * addedWeight, inputIndex + 1);
+                    } else if (node->length != 0) {
+                        getWordsRec(first + i, depth + 1, maxDepth,
+                                false, snr * addedWeight, inputIndex + 1, skipped);
                     }
                 }
                 j++;
-                if (mSkipPos >= 0) break;
+                if (mSkipMode) break;
             }
         }
     }
@@ -1,6 +1,10 @@
 #ifndef smartkbd_EXPANDABLE_DIC_H
 #define smartkbd_EXPANDABLE_DIC_H
 
+#include <stddef.h>
+
+#include "frontier.h"
+
 namespace smartkbd {
 
 class ExpandableDictionary {
@@ -11,28 +15,60 @@ public:
 	void addWord(const unsigned short *word, int len, int freq);
 	int getWordFrequency(const unsigned short *word, int len);
 	int increaseWordFrequency(const unsigned short *word, int len);
+    // Unmarks the word and prunes the nodes left without words. Returns false if it wasn't found.
+    bool removeWord(const unsigned short *word, int len);
     int getSuggestions(int *codes, int codesSize, unsigned short *outWords, int *frequencies,
         int maxWordLength, int maxWords, int maxAlternatives, int skipPos, bool modeT9,
         int *nextLetters, int nextLettersSize);
+    int getWildcardSuggestions(int *codes, int codesSize, unsigned short *outWords,
+        int *frequencies, int maxWordLength, int maxWords, int maxAlternatives, bool modeT9);
+    // Rebuilds the arena without holes or spare child slots, e.g. once a bulk load is done
+    void compact();
+    // Writes the compacted arena to a snapshot file, tagged with the version of its source
+    bool save(const char *path, long long stamp);
+    // Replaces the trie with a snapshot, if it is intact and has the given stamp
+    bool load(const char *path, long long stamp);
+    // Number of trie nodes walked by the last search, for the host benchmark
+    unsigned long getNodesVisited() { return mNodesVisited; }
 
 private:
 
-    class Node {
-	public:
+    // Nodes live in a single arena and refer to their children by 32-bit index. The children of
+    // a node are stored contiguously, sorted by code. A full range is moved to the end of the
+    // arena with twice the capacity, and compact() squeezes out the holes left behind.
+    struct Node {
         unsigned short code;
+        unsigned char terminal;
         int frequency;
-        bool terminal;
-
-        Node **children;
-        int length;
-        static const int INCREMENT = 2;
+        unsigned int children;      // index of the first child, 0 if none (0 is the root)
+        unsigned short length;
+        unsigned short capacity;
+    };
 
-        Node();
-        ~Node();
-        void add(Node *n);
+    // Snapshot file: this header followed by the nodes of a compacted arena
+    struct SnapshotHeader {
+        unsigned int magic;
+        unsigned int version;
+        unsigned int nodeSize;
+        unsigned int nodeCount;
+        long long stamp;
+        unsigned int checksum;
+        unsigned int reserved;
     };
 
-	Node mRoots;
+    static const unsigned int SNAPSHOT_MAGIC = 0x54584b53;  // "SKXT"
+    static const unsigned int SNAPSHOT_VERSION = 1;
+    static const unsigned int MAX_SNAPSHOT_NODES = 1 << 24;
+
+    static const unsigned int INITIAL_ARENA_SIZE = 256;
+    static const unsigned short INITIAL_CHILDREN = 2;
+
+    Node *mNodes;
+    unsigned int mSize;
+    unsigned int mCapacity;
+    unsigned int mLiveNodes;
+    unsigned long mNodesVisited;
+
     int *mFrequencies;
     int mMaxWords;
     int mMaxWordLength;
@@ -40,20 +76,36 @@ private:
     int *mInputCodes;
     int mInputLength;
     int mMaxAlternatives;
-    unsigned short mWord[128];
+    // Word being walked: deeper nodes are not searched, and longer words are not returned
+    static const int MAX_WORD_BUFFER = 128;
+    unsigned short mWord[MAX_WORD_BUFFER];
     int mSkipPos;
+    bool mWildcard;
+    bool mSkipMode;
     int mMaxEditDistance;
     int mTypedLetterMultiplier;
     bool mT9;
     int *mNextLettersFrequencies;
     int mNextLettersSize;
+    Frontier mFrontier;
 
-	void addWordRec(Node *node, const unsigned short *word, int depth, int len, int freq);
-	int getWordFrequencyRec(Node *parent, const unsigned short *word, int offset, int len);
-	int increaseWordFrequencyRec(Node *parent, const unsigned short *word, int offset, int len);
-    void getWordsRec(Node *parent, int depth, int maxDepth, bool completion, int snr, int inputIndex);
+    static unsigned int checksum(const void *data, size_t size);
+    static bool isValidArena(const Node *nodes, unsigned int count);
+    unsigned int allocate(unsigned int count);
+    unsigned int findChild(unsigned int parent, unsigned short code, int *insertAt);
+    unsigned int insertChild(unsigned int parent, int pos, unsigned short code);
+    Node *findWord(const unsigned short *word, int len);
+    int search(int *codes, int codesSize, unsigned short *outWords, int *frequencies,
+        int maxWordLength, int maxWords, int maxAlternatives, int skipPos, bool wildcard,
+        bool modeT9, int *nextLetters, int nextLettersSize);
+    void getWordsRec(unsigned int parent, int depth, int maxDepth, bool completion, int snr, int inputIndex,
+        bool skipped);
+    bool extendFrontier();
+    bool extendFrontierRec(unsigned int parent, int depth, int snr, int parentState,
+        int *currentChars);
     void registerNextLetter(unsigned short c);
     bool addSuggestion(unsigned short *word, int length, int frequency);
+    bool replaceDuplicate(unsigned short *word, int length, int frequency);
 };
 
 }; // namespace smartkbd
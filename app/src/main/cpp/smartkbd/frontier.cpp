@@ -0,0 +1,136 @@
+/*
+** Copyright (C) 2010-2017 Cyril Deguet
+**
+** Licensed under the Apache License, Version 2.0 (the "License");
+** you may not use this file except in compliance with the License.
+** You may obtain a copy of the License at
+**
+**     http://www.apache.org/licenses/LICENSE-2.0
+**
+** Unless required by applicable law or agreed to in writing, software
+** distributed under the License is distributed on an "AS IS" BASIS,
+** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+** See the License for the specific language governing permissions and
+** limitations under the License.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+
+#include "frontier.h"
+
+namespace smartkbd {
+
+Frontier::Frontier()
+{
+    mStates = NULL;
+    mStateCount = 0;
+    mLevelCount = 0;
+    mMaxAlternatives = 0;
+    mT9 = false;
+    mMaxDiffs = 0;
+}
+
+Frontier::~Frontier()
+{
+    free(mStates);
+}
+
+void
+Frontier::reset()
+{
+    mStateCount = 0;
+    mLevelCount = 0;
+}
+
+bool
+Frontier::sync(const int *codes, int codesSize, int maxAlternatives, bool modeT9, int maxDiffs)
+{
+    if (codesSize < 1 || codesSize > MAX_LEVELS || maxAlternatives > MAX_ALTERNATIVES) {
+        return false;
+    }
+    if (mStates == NULL) {
+        mStates = (State*) malloc(MAX_STATES * sizeof(State));
+        if (mStates == NULL) {
+            return false;
+        }
+    }
+    // The states were pruned with the previous edit budget, they are useless with another one
+    if (maxAlternatives != mMaxAlternatives || modeT9 != mT9 || (!modeT9 && maxDiffs != mMaxDiffs)) {
+        reset();
+        mMaxAlternatives = maxAlternatives;
+        mT9 = modeT9;
+        mMaxDiffs = maxDiffs;
+    }
+    if (mLevelCount == 0) {
+        State *root = mStates;
+        memset(root, 0, sizeof(State));
+        root->parent = -1;
+        root->snr = 1;
+        mStateCount = 1;
+        mLevelEnd[0] = 1;
+        mLevelCount = 1;
+    }
+    // Keep the levels built from codes that are still typed the same way
+    int level = 1;
+    while (level < mLevelCount && level < codesSize) {
+        if (memcmp(mCodes + level * MAX_ALTERNATIVES, codes + (level - 1) * maxAlternatives,
+                maxAlternatives * sizeof(int)) != 0) {
+            break;
+        }
+        level++;
+    }
+    mLevelCount = level;
+    mStateCount = mLevelEnd[level - 1];
+    return true;
+}
+
+void
+Frontier::beginLevel(const int *codes)
+{
+    memcpy(mCodes + mLevelCount * MAX_ALTERNATIVES, codes, mMaxAlternatives * sizeof(int));
+}
+
+bool
+Frontier::addState(int pos, int parent, int depth, int snr, int diffs, const unsigned short *word)
+{
+    int parentDepth = mStates[parent].depth;
+    int charCount = depth - parentDepth;
+    if (mStateCount >= MAX_STATES || charCount > MAX_STEP_CHARS || depth > 0xFF) {
+        return false;
+    }
+    State *state = mStates + mStateCount++;
+    state->pos = pos;
+    state->parent = parent;
+    state->snr = snr;
+    state->depth = depth;
+    state->diffs = diffs;
+    state->charCount = charCount;
+    memcpy(state->chars, word + parentDepth, charCount * sizeof(unsigned short));
+    return true;
+}
+
+void
+Frontier::endLevel()
+{
+    mLevelEnd[mLevelCount++] = mStateCount;
+}
+
+void
+Frontier::abortLevel()
+{
+    mStateCount = mLevelEnd[mLevelCount - 1];
+}
+
+void
+Frontier::restoreWord(int index, unsigned short *word)
+{
+    while (index > 0) {
+        const State *state = mStates + index;
+        memcpy(word + state->depth - state->charCount, state->chars,
+                state->charCount * sizeof(unsigned short));
+        index = state->parent;
+    }
+}
+
+} // namespace smartkbd
@@ -0,0 +1,78 @@
+/*
+** Copyright (C) 2010-2017 Cyril Deguet
+**
+** Licensed under the Apache License, Version 2.0 (the "License");
+** you may not use this file except in compliance with the License.
+** You may obtain a copy of the License at
+**
+**     http://www.apache.org/licenses/LICENSE-2.0
+**
+** Unless required by applicable law or agreed to in writing, software
+** distributed under the License is distributed on an "AS IS" BASIS,
+** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+** See the License for the specific language governing permissions and
+** limitations under the License.
+*/
+
+#ifndef smartkbd_FRONTIER_H
+#define smartkbd_FRONTIER_H
+
+namespace smartkbd {
+
+// Trie positions that survive the first codes of the input, one level per typed code. Level k
+// holds the states reached right after matching k codes, so a search for an input that only
+// gained or lost a letter since the previous one can start from the last level instead of
+// walking the whole trie from the root again.
+class Frontier {
+public:
+    static const int MAX_LEVELS = 48;
+    static const int MAX_ALTERNATIVES = 16;
+    static const int MAX_STATES = 4096;
+    static const int MAX_STEP_CHARS = 3;
+
+    struct State {
+        int pos;            // trie position whose children are matched against the next code
+        int parent;         // state of the previous level this one comes from, -1 for the root
+        int snr;
+        unsigned char depth;
+        unsigned char diffs;
+        unsigned char charCount;
+        unsigned short chars[MAX_STEP_CHARS];  // letters added to the word since the parent
+    };
+
+    Frontier();
+    ~Frontier();
+
+    // Drops the levels that don't match the input any more, and everything if the search
+    // parameters changed. Returns false if the input can't be searched incrementally.
+    bool sync(const int *codes, int codesSize, int maxAlternatives, bool modeT9, int maxDiffs);
+    void reset();
+
+    int getLevelCount() { return mLevelCount; }
+    int levelStart(int level) { return level == 0 ? 0 : mLevelEnd[level - 1]; }
+    int levelEnd(int level) { return mLevelEnd[level]; }
+    const State *getState(int index) { return mStates + index; }
+
+    void beginLevel(const int *codes);
+    bool addState(int pos, int parent, int depth, int snr, int diffs, const unsigned short *word);
+    void endLevel();
+    void abortLevel();
+
+    // Writes the letters leading to the given state at the beginning of word
+    void restoreWord(int index, unsigned short *word);
+
+private:
+    State *mStates;
+    int mStateCount;
+    int mLevelCount;
+    int mLevelEnd[MAX_LEVELS];
+    int mCodes[MAX_LEVELS * MAX_ALTERNATIVES];
+
+    int mMaxAlternatives;
+    bool mT9;
+    int mMaxDiffs;
+};
+
+}; // namespace smartkbd
+
+#endif // smartkbd_FRONTIER_H
@@ -0,0 +1,596 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Host driver for the dictionary engines.
+//
+// bench: replays a typed corpus, one query per keystroke like BinaryDictionary.getWords(),
+//        against a binary .dict file and an expandable trie, and reports latency, nodes
+//        visited, suggestions per second and peak memory.
+// fuzz:  random tries and queries, including very long words and inputs, checking the
+//        output buffers and the mWord[] limits, word removal and snapshots of the expandable
+//        trie.
+//        Build with SMARTKBD_SANITIZE=ON.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <sys/resource.h>
+
+#include <algorithm>
+#include <fstream>
+#include <map>
+#include <set>
+#include <sstream>
+#include <string>
+#include <vector>
+
+#include "dictionary.h"
+#include "expandable_dic.h"
+
+using namespace smartkbd;
+
+namespace {
+
+// Same limits as BinaryDictionary.java
+const int MAX_WORD_LENGTH = 48;
+const int MAX_ALTERNATIVES = 16;
+const int MAX_WORDS = 16;
+const int NEXT_LETTERS_SIZE = 1280;
+const int TYPED_LETTER_MULTIPLIER = 2;
+const int FULL_WORD_FREQ_MULTIPLIER = 2;
+// Size of the .dict header skipped by BinaryDictionary.loadDictionary()
+const int DICT_HEADER_SIZE = 8;
+
+typedef std::vector<unsigned short> Word;
+
+const char *QWERTY_ROWS[] = { "qwertyuiop", "asdfghjkl", "zxcvbnm" };
+
+// ----------------------------------------------------------------------------
+// Binary dictionary writer, in the format read by Dictionary
+
+struct TrieNode {
+    std::map<unsigned short, TrieNode*> children;
+    bool terminal;
+    int frequency;
+    TrieNode() : terminal(false), frequency(0) {}
+    ~TrieNode() {
+        for (std::map<unsigned short, TrieNode*>::iterator it = children.begin();
+                it != children.end(); ++it) {
+            delete it->second;
+        }
+    }
+};
+
+void addToTrie(TrieNode *root, const Word &word, int frequency)
+{
+    TrieNode *node = root;
+    for (size_t i = 0; i < word.size(); i++) {
+        TrieNode *&child = node->children[word[i]];
+        if (child == NULL) child = new TrieNode();
+        node = child;
+    }
+    node->terminal = true;
+    node->frequency = std::max(node->frequency, frequency);
+}
+
+void writeNode(const TrieNode *node, std::vector<unsigned char> &out)
+{
+    // The count is a single byte: extra children are dropped, as by the offline builder
+    const int count = std::min((int) node->children.size(), 255);
+    out.push_back(count);
+    std::vector<size_t> addressPos;
+    std::vector<const TrieNode*> written;
+    std::map<unsigned short, TrieNode*>::const_iterator it = node->children.begin();
+    for (int i = 0; i < count; ++i, ++it) {
+        const unsigned short c = it->first;
+        const TrieNode *child = it->second;
+        if (c < 0xFF) {
+            out.push_back(c);
+        } else {
+            out.push_back(0xFF);
+            out.push_back(c >> 8);
+            out.push_back(c & 0xFF);
+        }
+        const unsigned char flags = child->terminal ? FLAG_TERMINAL_MASK : 0;
+        if (!child->children.empty()) {
+            addressPos.push_back(out.size());
+            out.push_back(flags | FLAG_ADDRESS_MASK);
+            out.push_back(0);
+            out.push_back(0);
+        } else {
+            addressPos.push_back(0);
+            out.push_back(flags);
+        }
+        if (child->terminal) out.push_back(child->frequency);
+        written.push_back(child);
+    }
+    for (size_t i = 0; i < written.size(); i++) {
+        if (addressPos[i] == 0) continue;
+        const size_t address = out.size();
+        out[addressPos[i]] |= (address >> 16) & 0x3F;
+        out[addressPos[i] + 1] = (address >> 8) & 0xFF;
+        out[addressPos[i] + 2] = address & 0xFF;
+        writeNode(written[i], out);
+    }
+}
+
+// ----------------------------------------------------------------------------
+// Input helpers
+
+Word toWord(const std::string &s)
+{
+    // The corpora are plain ASCII or Latin-1
+    Word word;
+    for (size_t i = 0; i < s.size(); i++) word.push_back((unsigned char) s[i]);
+    return word;
+}
+
+// Fills one row of codes with the typed key and its QWERTY neighbours
+void fillProximityCodes(unsigned short c, int *row)
+{
+    for (int i = 0; i < MAX_ALTERNATIVES; i++) row[i] = -1;
+    int count = 0;
+    row[count++] = c;
+    const char lower = (char) Dictionary::toLowerCase(c);
+    for (int r = 0; r < 3; r++) {
+        const char *found = c < 0x80 ? strchr(QWERTY_ROWS[r], lower) : NULL;
+        if (found == NULL || lower == 0) continue;
+        const int col = found - QWERTY_ROWS[r];
+        for (int nr = r - 1; nr <= r + 1; nr++) {
+            if (nr < 0 || nr > 2) continue;
+            const int len = strlen(QWERTY_ROWS[nr]);
+            for (int k = col - 1; k <= col + 1; k++) {
+                if (k < 0 || k >= len || QWERTY_ROWS[nr][k] == lower) continue;
+                if (count < MAX_ALTERNATIVES) row[count++] = QWERTY_ROWS[nr][k];
+            }
+        }
+        break;
+    }
+}
+
+bool readFile(const char *path, std::vector<unsigned char> &out)
+{
+    std::ifstream in(path, std::ios::binary);
+    if (!in) return false;
+    out.assign(std::istreambuf_iterator<char>(in), std::istreambuf_iterator<char>());
+    return true;
+}
+
+// Word list: "word frequency" per line, '#' for comments
+bool readWordList(const char *path, std::vector<std::pair<Word, int> > &words)
+{
+    std::ifstream in(path);
+    if (!in) return false;
+    std::string line;
+    while (std::getline(in, line)) {
+        if (line.empty() || line[0] == '#') continue;
+        std::istringstream fields(line);
+        std::string word;
+        int frequency = 128;
+        fields >> word >> frequency;
+        if (!word.empty()) words.push_back(std::make_pair(toWord(word), frequency));
+    }
+    return true;
+}
+
+bool readCorpus(const char *path, std::vector<Word> &words)
+{
+    std::ifstream in(path);
+    if (!in) return false;
+    std::string word;
+    while (in >> word) {
+        if (word[0] == '#') {
+            std::string rest;
+            std::getline(in, rest);
+            continue;
+        }
+        words.push_back(toWord(word));
+    }
+    return true;
+}
+
+double nowMicros()
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1e6 + ts.tv_nsec / 1e3;
+}
+
+long peakMemoryKb()
+{
+    struct rusage usage;
+    getrusage(RUSAGE_SELF, &usage);
+    return usage.ru_maxrss;
+}
+
+const char *getArg(int argc, char **argv, const char *name, const char *def)
+{
+    for (int i = 2; i + 1 < argc; i++) {
+        if (strcmp(argv[i], name) == 0) return argv[i + 1];
+    }
+    return def;
+}
+
+bool hasFlag(int argc, char **argv, const char *name)
+{
+    for (int i = 2; i < argc; i++) {
+        if (strcmp(argv[i], name) == 0) return true;
+    }
+    return false;
+}
+
+// ----------------------------------------------------------------------------
+// bench
+
+struct Stats {
+    std::vector<double> latencies;
+    unsigned long suggestions;
+    unsigned long nodesVisited;
+    Stats() : suggestions(0), nodesVisited(0) {}
+
+    void report(const char *name) {
+        if (latencies.empty()) return;
+        std::sort(latencies.begin(), latencies.end());
+        double total = 0;
+        for (size_t i = 0; i < latencies.size(); i++) total += latencies[i];
+        const size_t n = latencies.size();
+        printf("%-10s %8zu queries  p50 %8.1f us  p99 %8.1f us  max %8.1f us  "
+               "%10.0f suggestions/s  %8.0f nodes/query\n",
+               name, n, latencies[n / 2], latencies[std::min(n - 1, n * 99 / 100)],
+               latencies[n - 1], suggestions / (total / 1e6), (double) nodesVisited / n);
+    }
+};
+
+// Same sequence of calls as BinaryDictionary.getWords()
+template <class Dic>
+void query(Dic &dictionary, int *codes, int codesSize, bool modeT9, Stats &stats)
+{
+    unsigned short outWords[MAX_WORD_LENGTH * MAX_WORDS];
+    int frequencies[MAX_WORDS];
+    int nextLetters[NEXT_LETTERS_SIZE];
+    memset(outWords, 0, sizeof(outWords));
+    memset(frequencies, 0, sizeof(frequencies));
+    memset(nextLetters, 0, sizeof(nextLetters));
+
+    const double start = nowMicros();
+    int count = dictionary.getSuggestions(codes, codesSize, outWords, frequencies,
+            MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, -1, modeT9,
+            nextLetters, NEXT_LETTERS_SIZE);
+    unsigned long nodes = dictionary.getNodesVisited();
+    if (count < 5) {
+        int wildcardCount = dictionary.getWildcardSuggestions(codes, codesSize, outWords,
+                frequencies, MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, modeT9);
+        count = std::max(count, wildcardCount);
+        nodes += dictionary.getNodesVisited();
+    }
+    stats.latencies.push_back(nowMicros() - start);
+    stats.suggestions += count;
+    stats.nodesVisited += nodes;
+}
+
+int bench(int argc, char **argv)
+{
+    const char *dictPath = getArg(argc, argv, "--dict", NULL);
+    const char *wordsPath = getArg(argc, argv, "--words", NULL);
+    const char *corpusPath = getArg(argc, argv, "--corpus", NULL);
+    const int repeat = atoi(getArg(argc, argv, "--repeat", "1"));
+    const bool modeT9 = hasFlag(argc, argv, "--t9");
+    if (corpusPath == NULL || (dictPath == NULL && wordsPath == NULL)) {
+        fprintf(stderr, "bench: --corpus and --dict or --words are required\n");
+        return 2;
+    }
+
+    std::vector<Word> corpus;
+    if (!readCorpus(corpusPath, corpus)) {
+        fprintf(stderr, "Cannot read %s\n", corpusPath);
+        return 1;
+    }
+    std::vector<std::pair<Word, int> > words;
+    if (wordsPath != NULL && !readWordList(wordsPath, words)) {
+        fprintf(stderr, "Cannot read %s\n", wordsPath);
+        return 1;
+    }
+
+    // Binary dictionary: the .dict file, or one built from the word list
+    std::vector<unsigned char> dictBuffer;
+    if (dictPath != NULL) {
+        if (!readFile(dictPath, dictBuffer) || dictBuffer.size() <= DICT_HEADER_SIZE) {
+            fprintf(stderr, "Cannot read %s\n", dictPath);
+            return 1;
+        }
+        dictBuffer.erase(dictBuffer.begin(), dictBuffer.begin() + DICT_HEADER_SIZE);
+    } else {
+        TrieNode root;
+        for (size_t i = 0; i < words.size(); i++) addToTrie(&root, words[i].first, words[i].second);
+        writeNode(&root, dictBuffer);
+    }
+    Dictionary dictionary(&dictBuffer[0], TYPED_LETTER_MULTIPLIER, FULL_WORD_FREQ_MULTIPLIER);
+
+    // Expandable trie: the word list, or the corpus itself as a user dictionary would learn it
+    const long memoryBefore = peakMemoryKb();
+    ExpandableDictionary expandable;
+    if (!words.empty()) {
+        for (size_t i = 0; i < words.size(); i++) {
+            expandable.addWord(&words[i].first[0], words[i].first.size(), words[i].second);
+        }
+    } else {
+        for (size_t i = 0; i < corpus.size(); i++) {
+            expandable.addWord(&corpus[i][0], corpus[i].size(), 128);
+        }
+    }
+    expandable.compact();
+
+    Stats dictStats, expandableStats;
+    int codes[MAX_WORD_LENGTH * MAX_ALTERNATIVES];
+    for (int r = 0; r < repeat; r++) {
+        for (size_t w = 0; w < corpus.size(); w++) {
+            const Word &word = corpus[w];
+            const int length = std::min((int) word.size(), MAX_WORD_LENGTH - 1);
+            // One query per keystroke, from the second one like Suggest.getSuggestions()
+            for (int i = 0; i < length; i++) {
+                fillProximityCodes(word[i], codes + i * MAX_ALTERNATIVES);
+                if (i == 0) continue;
+                query(dictionary, codes, i + 1, modeT9, dictStats);
+                query(expandable, codes, i + 1, modeT9, expandableStats);
+            }
+        }
+    }
+
+    printf("%zu corpus words, %zu dictionary bytes, %s\n", corpus.size(), dictBuffer.size(),
+            modeT9 ? "T9" : "proximity");
+    dictStats.report("binary");
+    expandableStats.report("expandable");
+    printf("peak memory %ld KB (expandable trie load: %ld KB)\n", peakMemoryKb(),
+            peakMemoryKb() - memoryBefore);
+    return 0;
+}
+
+// ----------------------------------------------------------------------------
+// fuzz
+
+unsigned int gSeed;
+
+int nextRandom(int n)
+{
+    gSeed = gSeed * 1103515245 + 12345;
+    return (gSeed >> 8) % n;
+}
+
+unsigned short randomChar()
+{
+    static const char ALPHABET[] = "aabcdeeefghiilmnoorsttu'";
+    switch (nextRandom(20)) {
+    case 0: return 0xE9;                          // Latin-1
+    case 1: return 0x3131 + nextRandom(20);           // jamo, 3-byte encoding in .dict
+    case 2: return 'A' + nextRandom(26);
+    default: return ALPHABET[nextRandom(sizeof(ALPHABET) - 1)];
+    }
+}
+
+Word randomWord()
+{
+    int length;
+    switch (nextRandom(50)) {
+    case 0: length = 100 + nextRandom(150); break;    // beyond mWord[128]
+    case 1: length = MAX_WORD_LENGTH - 2 + nextRandom(4); break;
+    default: length = 1 + nextRandom(12);
+    }
+    Word word;
+    for (int i = 0; i < length; i++) {
+        // Runs of apostrophes exercise the skipped characters
+        if (nextRandom(30) == 0) {
+            for (int n = nextRandom(6); n > 0 && (int) word.size() < length; n--) word.push_back('\'');
+        }
+        word.push_back(randomChar());
+    }
+    word.resize(length);
+    return word;
+}
+
+bool checkOutput(const char *what, unsigned short *outWords, int *frequencies, int count,
+        int maxWordLength, int maxWords)
+{
+    if (count < 0 || count > maxWords) {
+        fprintf(stderr, "%s: bad count %d\n", what, count);
+        return false;
+    }
+    for (int i = 0; i < count; i++) {
+        const unsigned short *word = outWords + i * maxWordLength;
+        int length = 0;
+        while (length < maxWordLength && word[length] != 0) length++;
+        if (length == maxWordLength) {
+            fprintf(stderr, "%s: word %d is not terminated\n", what, i);
+            return false;
+        }
+        if (i > 0 && frequencies[i] > frequencies[i - 1]) {
+            fprintf(stderr, "%s: frequencies not sorted at %d\n", what, i);
+            return false;
+        }
+    }
+    return true;
+}
+
+// Removes some of the words from the trie and checks that only those are gone
+bool fuzzRemove(ExpandableDictionary &expandable, const std::vector<Word> &words)
+{
+    std::set<Word> removed;
+    for (size_t i = 0; i < words.size(); i++) {
+        const Word &word = words[i];
+        if (word.size() > 128 || nextRandom(4)) continue;
+        const bool found = expandable.removeWord(&word[0], word.size());
+        if (found == (removed.count(word) > 0)) {
+            fprintf(stderr, "remove: word %d %s\n", (int) i, found ? "removed twice" : "not found");
+            return false;
+        }
+        removed.insert(word);
+    }
+    for (size_t i = 0; i < words.size(); i++) {
+        const Word &word = words[i];
+        const bool present = expandable.getWordFrequency(&word[0], word.size()) >= 0;
+        if (present == (removed.count(word) > 0)) {
+            fprintf(stderr, "remove: word %d is %s\n", (int) i, present ? "still there" : "lost");
+            return false;
+        }
+    }
+    return true;
+}
+
+// Saves the trie to a snapshot and checks that it loads back only when intact and current
+bool fuzzSnapshot(ExpandableDictionary &expandable, const std::vector<Word> &words)
+{
+    const char *path = "smartkbd_fuzz.trie";
+    const long long stamp = nextRandom(1000);
+    bool ok = expandable.save(path, stamp);
+    ExpandableDictionary loaded;
+    if (!ok || loaded.load(path, stamp + 1) || !loaded.load(path, stamp)) {
+        fprintf(stderr, "snapshot: save or load failed\n");
+        ok = false;
+    }
+    for (size_t i = 0; ok && i < words.size(); i++) {
+        const Word &word = words[i];
+        if (loaded.getWordFrequency(&word[0], word.size())
+                != expandable.getWordFrequency(&word[0], word.size())) {
+            fprintf(stderr, "snapshot: word %d differs\n", (int) i);
+            ok = false;
+        }
+    }
+    // Flip a byte after the header: the checksum must reject it
+    FILE *file = fopen(path, "r+b");
+    if (ok && file != 0 && fseek(file, 0, SEEK_END) == 0) {
+        const long size = ftell(file);
+        const long offset = 32 + nextRandom(size - 32);
+        fseek(file, offset, SEEK_SET);
+        const int c = fgetc(file);
+        fseek(file, offset, SEEK_SET);
+        fputc(c ^ (1 + nextRandom(255)), file);
+        fclose(file);
+        file = 0;
+        ExpandableDictionary damaged;
+        if (damaged.load(path, stamp)) {
+            fprintf(stderr, "snapshot: damaged file loaded\n");
+            ok = false;
+        }
+    }
+    if (file != 0) fclose(file);
+    remove(path);
+    return ok;
+}
+
+template <class Dic>
+bool fuzzQuery(Dic &dictionary, const char *name, int *codes, int codesSize)
+{
+    const int maxWordLength = nextRandom(2) ? MAX_WORD_LENGTH : 32;
+    const int maxWords = 1 + nextRandom(MAX_WORDS);
+    const bool modeT9 = nextRandom(4) == 0;
+    const int nextLettersSize = nextRandom(2) ? NEXT_LETTERS_SIZE : 128;
+    // Exact sizes, so that the sanitizer catches any overflow
+    unsigned short *outWords = new unsigned short[maxWordLength * maxWords]();
+    int *frequencies = new int[maxWords]();
+    int *nextLetters = new int[nextLettersSize]();
+
+    int count;
+    const int kind = nextRandom(3);
+    if (kind == 0) {
+        count = dictionary.getSuggestions(codes, codesSize, outWords, frequencies,
+                maxWordLength, maxWords, MAX_ALTERNATIVES, -1, modeT9,
+                nextLetters, nextLettersSize);
+    } else if (kind == 1) {
+        count = dictionary.getSuggestions(codes, codesSize, outWords, frequencies,
+                maxWordLength, maxWords, MAX_ALTERNATIVES, nextRandom(codesSize), modeT9,
+                NULL, 0);
+    } else {
+        count = dictionary.getWildcardSuggestions(codes, codesSize, outWords, frequencies,
+                maxWordLength, maxWords, MAX_ALTERNATIVES, modeT9);
+    }
+    const bool ok = checkOutput(name, outWords, frequencies, count, maxWordLength, maxWords);
+    delete[] outWords;
+    delete[] frequencies;
+    delete[] nextLetters;
+    return ok;
+}
+
+int fuzz(int argc, char **argv)
+{
+    gSeed = atoi(getArg(argc, argv, "--seed", "1"));
+    const int iterations = atoi(getArg(argc, argv, "--iterations", "10000"));
+    const int wordsPerTrie = atoi(getArg(argc, argv, "--words", "2000"));
+
+    int codes[MAX_WORD_LENGTH * MAX_ALTERNATIVES];
+    int failures = 0;
+    for (int it = 0; it < iterations; ) {
+        // New pair of dictionaries with the same words every few hundred queries
+        TrieNode root;
+        ExpandableDictionary expandable;
+        std::vector<Word> words;
+        for (int i = 0; i < wordsPerTrie; i++) {
+            Word word = randomWord();
+            const int frequency = 1 + nextRandom(255);
+            addToTrie(&root, word, frequency);
+            expandable.addWord(&word[0], word.size(), frequency);
+            words.push_back(word);
+        }
+        if (nextRandom(2)) expandable.compact();
+        if (nextRandom(2)) {
+            if (!fuzzRemove(expandable, words)) failures++;
+            if (nextRandom(2)) expandable.compact();
+        }
+        if (nextRandom(4) == 0 && !fuzzSnapshot(expandable, words)) failures++;
+        std::vector<unsigned char> dictBuffer;
+        writeNode(&root, dictBuffer);
+        Dictionary dictionary(&dictBuffer[0], TYPED_LETTER_MULTIPLIER, FULL_WORD_FREQ_MULTIPLIER);
+
+        for (int q = 0; q < 500 && it < iterations; q++, it++) {
+            // Type a word of the trie (possibly too long) with typos, or random codes,
+            // growing and shrinking like a typing session so the frontier is reused
+            const Word &target = words[nextRandom(words.size())];
+            const int codesSize = 1 + nextRandom(std::min((int) target.size() + 3, MAX_WORD_LENGTH - 1));
+            for (int i = 0; i < codesSize; i++) {
+                int *row = codes + i * MAX_ALTERNATIVES;
+                const unsigned short c = i < (int) target.size() && nextRandom(8) ? target[i]
+                        : randomChar();
+                fillProximityCodes(c, row);
+                if (nextRandom(10) == 0) {
+                    for (int j = 0; j < MAX_ALTERNATIVES; j++) row[j] = randomChar();
+                }
+            }
+            for (int prefix = std::max(1, codesSize - 3); prefix <= codesSize; prefix++) {
+                if (!fuzzQuery(dictionary, "binary", codes, prefix)) failures++;
+                if (!fuzzQuery(expandable, "expandable", codes, prefix)) failures++;
+            }
+        }
+    }
+    printf("%d iterations, %d failures, peak memory %ld KB\n", iterations, failures,
+            peakMemoryKb());
+    return failures == 0 ? 0 : 1;
+}
+
+} // namespace
+
+int main(int argc, char **argv)
+{
+    if (argc >= 2 && strcmp(argv[1], "bench") == 0) {
+        return bench(argc, argv);
+    }
+    if (argc >= 2 && strcmp(argv[1], "fuzz") == 0) {
+        return fuzz(argc, argv);
+    }
+    fprintf(stderr,
+            "usage: %s bench (--dict file.dict | --words list.txt) --corpus typed.txt"
+            " [--repeat n] [--t9]\n"
+            "       %s fuzz [--seed n] [--iterations n] [--words n]\n", argv[0], argv[0]);
+    return 2;
+}
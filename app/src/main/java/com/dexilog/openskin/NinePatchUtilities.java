@@ -52,6 +52,11 @@ public class NinePatchUtilities {
 
 
 	public static NinePatchDrawable decodeNinePatchDrawable(InputStream inputStream) throws IOException, NinePatchException {
+		return (NinePatchDrawable) decodeNinePatchImage(inputStream).newDrawable(null);
+	}
+
+
+	static SkinImage.NinePatchImage decodeNinePatchImage(InputStream inputStream) throws IOException, NinePatchException {
 		Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
 
 		int width = bitmap.getWidth();
@@ -183,11 +188,10 @@ public class NinePatchUtilities {
 
 		bitmap = Bitmap.createBitmap(bitmap, 1, 1, innerWidth, innerHeight);
 
-		return new NinePatchDrawable(
+		return new SkinImage.NinePatchImage(
 				bitmap,
 				chunk, 
-				new Rect(paddingLeft, paddingTop, paddingRight, paddingBottom),
-		"src");
+				new Rect(paddingLeft, paddingTop, paddingRight, paddingBottom));
 	}
 
 
@@ -16,12 +16,18 @@
 
 package com.dexilog.openskin;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -33,11 +39,11 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 import android.content.Context;
+import android.content.res.Resources;
 import android.graphics.Color;
 import android.graphics.Typeface;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.graphics.drawable.GradientDrawable;
-import android.graphics.drawable.StateListDrawable;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.TypedValue;
@@ -47,6 +53,25 @@ public class OpenSkin {
 	private static final String TAG = "OpenSkin";
 	private static final String FONT_CACHE = "font.ttf";
 	static final int BUFFER_SIZE = 2048;
+	static final int COMPILED_BUFFER_SIZE = 16384;
+	private static final int COMPILED_MAGIC = 0x534b494e; // "SKIN"
+	private static final int COMPILED_VERSION = 1;
+
+	// Images of the skin, in the order of the compiled skin
+	private static final int BACKGROUND = 0;
+	private static final int KEY_BACKGROUND = 1;
+	private static final int MOD_KEY_BACKGROUND = 2;
+	private static final int DELETE_KEY = 3;
+	private static final int RETURN_KEY = 4;
+	private static final int SEARCH_KEY = 5;
+	private static final int SPACE_KEY = 6;
+	private static final int SHIFT_KEY = 7;
+	private static final int SHIFT_LOCKED_KEY = 8;
+	private static final int MIC_KEY = 9;
+	private static final int CANDIDATES_BACKGROUND = 10;
+	private static final int CANDIDATES_DIVIDER = 11;
+	private static final int CANDIDATE_HIGHLIGHT_BACKGROUND = 12;
+	private static final int IMAGE_COUNT = 13;
 
 	private static final int[] NORMAL_STATES = 
 	{ -android.R.attr.state_checkable, -android.R.attr.state_pressed };
@@ -68,6 +93,7 @@ public class OpenSkin {
 	TypedValue mValue = new TypedValue();
 	boolean mIsValid = false;
 	ZipFile mZipFile;
+	SkinImage[] mImages = new SkinImage[IMAGE_COUNT];
 	Drawable mBackground;
 	Drawable mKeyBackground;
 	Drawable mModKeyBackground;
@@ -95,6 +121,14 @@ public class OpenSkin {
 	Typeface mLabelFont;
 
 	public OpenSkin(Context context, String path) {
+		this(context, path, null);
+	}
+
+	/**
+	 * Loads the skin from its compiled copy if it matches the zip, otherwise parses
+	 * the zip and writes the compiled copy for the next loads.
+	 */
+	public OpenSkin(Context context, String path, File compiledFile) {
 		mContext = context;
 
 		// Use reflection to scale images on Android > 1.5
@@ -110,7 +144,16 @@ public class OpenSkin {
 			Log.d(TAG, "Old API, using default resources");
 		}
 
-		load(path);
+		final File file = new File(path);
+		if (compiledFile == null || !loadCompiled(file, compiledFile)) {
+			load(file);
+			if (mIsValid && compiledFile != null) {
+				saveCompiled(file, compiledFile);
+			}
+		}
+		if (mIsValid) {
+			createDrawables();
+		}
 	}
 
 	public boolean isValid() {
@@ -238,8 +281,7 @@ public class OpenSkin {
 		}
 	}
 
-	private void load(String path) {
-		File file = new File(path);
+	private void load(File file) {
 		try {
 			mZipFile = new ZipFile(file);
 
@@ -250,17 +292,17 @@ public class OpenSkin {
 			DocumentBuilder domBuilder = domFactory.newDocumentBuilder();
 			Document dom = domBuilder.parse(is);
 			Element root = dom.getDocumentElement();
-			mBackground = loadBackground(root, "background");
-			mKeyBackground = loadKeyBackground(root, "key-background");
-			mModKeyBackground = loadKeyBackground(root, "mod-key-background");
+			mImages[BACKGROUND] = loadBackground(root, "background");
+			mImages[KEY_BACKGROUND] = loadKeyBackground(root, "key-background");
+			mImages[MOD_KEY_BACKGROUND] = loadKeyBackground(root, "mod-key-background");
 			Element symbols = getChild(root, "symbols");
-			mDeleteKey = loadImage(symbols, "delete");
-			mReturnKey = loadImage(symbols, "return");
-			mSearchKey = loadImage(symbols, "search");
-			mSpaceKey = loadImage(symbols, "space");
-			mShiftKey = loadImage(symbols, "shift");
-			mShiftLockedKey = loadImage(symbols, "shift-locked");
-			mMicKey = loadImage(symbols, "mic");
+			mImages[DELETE_KEY] = loadImage(symbols, "delete");
+			mImages[RETURN_KEY] = loadImage(symbols, "return");
+			mImages[SEARCH_KEY] = loadImage(symbols, "search");
+			mImages[SPACE_KEY] = loadImage(symbols, "space");
+			mImages[SHIFT_KEY] = loadImage(symbols, "shift");
+			mImages[SHIFT_LOCKED_KEY] = loadImage(symbols, "shift-locked");
+			mImages[MIC_KEY] = loadImage(symbols, "mic");
 			Element colors = getChild(root, "colors");
 			mLabelColor = loadColor(colors, "label");
 			mBoldLabel = getBoolAttr(colors, "label", "bold");
@@ -271,9 +313,9 @@ public class OpenSkin {
 			mModShadowColor = loadColor(colors, "mod-shadow");
 			Element candidates = getChild(root, "candidates");
 			if (candidates != null) {
-				mCandidatesBackground = loadBackground(candidates, "background");
-				mCandidatesDivider = loadImage(candidates, "divider");
-				mCandidateHighlightBackground = loadBackground(candidates, "highlight-background");
+				mImages[CANDIDATES_BACKGROUND] = loadBackground(candidates, "background");
+				mImages[CANDIDATES_DIVIDER] = loadImage(candidates, "divider");
+				mImages[CANDIDATE_HIGHLIGHT_BACKGROUND] = loadBackground(candidates, "highlight-background");
 				colors = getChild(candidates, "colors");
 				mCandidatesNormalColor = loadColor(colors, "normal");
 				mCandidatesRecommendedColor = loadColor(colors, "recommended");
@@ -288,10 +330,159 @@ public class OpenSkin {
 		} catch (Throwable e) {
 			// Something bad happened, isValid() will return false
 			e.printStackTrace();
+		} finally {
+			// The images are all decoded now
+			if (mZipFile != null) {
+				try {
+					mZipFile.close();
+				} catch (IOException e) {
+					// Ignore
+				}
+				mZipFile = null;
+			}
+		}
+	}
+
+	private boolean loadCompiled(File file, File compiledFile) {
+		if (!compiledFile.exists()) {
+			return false;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(compiledFile),
+					COMPILED_BUFFER_SIZE));
+			// Compiled from another skin, or for another screen density
+			if (in.readInt() != COMPILED_MAGIC || in.readInt() != COMPILED_VERSION
+					|| !in.readUTF().equals(file.getAbsolutePath())
+					|| in.readLong() != file.lastModified() || in.readLong() != file.length()
+					|| in.readInt() != mDensityDpi) {
+				return false;
+			}
+			for (int i = 0; i < IMAGE_COUNT; i++) {
+				mImages[i] = SkinImage.read(in, compiledFile.length());
+			}
+			mLabelColor = in.readInt();
+			mAltLabelColor = in.readInt();
+			mModLabelColor = in.readInt();
+			mBoldLabel = in.readBoolean();
+			mShadowColor = readColor(in);
+			mAltShadowColor = readColor(in);
+			mModShadowColor = readColor(in);
+			mCandidatesNormalColor = readColor(in);
+			mCandidatesRecommendedColor = readColor(in);
+			mCandidatesOtherColor = readColor(in);
+			mCandidatesHighlightColor = readColor(in);
+			if (in.readBoolean()) {
+				// Extracted when the skin was compiled
+				File fontFile = mContext.getFileStreamPath(FONT_CACHE);
+				if (!fontFile.exists()) {
+					throw new IOException("Missing font " + fontFile);
+				}
+				mLabelFont = Typeface.createFromFile(fontFile);
+			}
+			mIsValid = true;
+			Log.d(TAG, "Skin loaded from " + compiledFile);
+			return true;
+		} catch (Throwable e) {
+			// Including out of memory errors: delete the file, so that it isn't tried again
+			Log.w(TAG, "Cannot load compiled skin " + compiledFile + ": " + e.getMessage());
+			compiledFile.delete();
+			// Parse the zip from scratch
+			Arrays.fill(mImages, null);
+			mCandidatesNormalColor = null;
+			mCandidatesRecommendedColor = null;
+			mCandidatesOtherColor = null;
+			mCandidatesHighlightColor = null;
+			mLabelFont = null;
+			return false;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Ignore
+				}
+			}
+		}
+	}
+
+	private void saveCompiled(File file, File compiledFile) {
+		// Write to a temporary file, so that a crash doesn't leave half a skin
+		File tmpFile = new File(compiledFile.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile),
+					COMPILED_BUFFER_SIZE));
+			out.writeInt(COMPILED_MAGIC);
+			out.writeInt(COMPILED_VERSION);
+			out.writeUTF(file.getAbsolutePath());
+			out.writeLong(file.lastModified());
+			out.writeLong(file.length());
+			out.writeInt(mDensityDpi);
+			for (int i = 0; i < IMAGE_COUNT; i++) {
+				SkinImage.write(mImages[i], out);
+			}
+			out.writeInt(mLabelColor);
+			out.writeInt(mAltLabelColor);
+			out.writeInt(mModLabelColor);
+			out.writeBoolean(mBoldLabel);
+			writeColor(mShadowColor, out);
+			writeColor(mAltShadowColor, out);
+			writeColor(mModShadowColor, out);
+			writeColor(mCandidatesNormalColor, out);
+			writeColor(mCandidatesRecommendedColor, out);
+			writeColor(mCandidatesOtherColor, out);
+			writeColor(mCandidatesHighlightColor, out);
+			out.writeBoolean(mLabelFont != null);
+			out.close();
+			out = null;
+			if (!tmpFile.renameTo(compiledFile)) {
+				throw new IOException("Cannot rename " + tmpFile);
+			}
+			Log.d(TAG, "Skin compiled to " + compiledFile);
+		} catch (IOException e) {
+			Log.w(TAG, "Cannot compile skin: " + e.getMessage());
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e2) {
+					// Ignore
+				}
+			}
+			tmpFile.delete();
+		}
+	}
+
+	private static Integer readColor(DataInputStream in) throws IOException {
+		return in.readBoolean() ? Integer.valueOf(in.readInt()) : null;
+	}
+
+	private static void writeColor(Integer color, DataOutputStream out) throws IOException {
+		out.writeBoolean(color != null);
+		if (color != null) {
+			out.writeInt(color);
 		}
 	}
 
-	private Drawable loadBackground(Element root, String nodeName) throws IOException {
+	private void createDrawables() {
+		final Resources res = mContext.getResources();
+		mBackground = SkinImage.newDrawable(mImages[BACKGROUND], res);
+		mKeyBackground = SkinImage.newDrawable(mImages[KEY_BACKGROUND], res);
+		mModKeyBackground = SkinImage.newDrawable(mImages[MOD_KEY_BACKGROUND], res);
+		mDeleteKey = SkinImage.newDrawable(mImages[DELETE_KEY], res);
+		mReturnKey = SkinImage.newDrawable(mImages[RETURN_KEY], res);
+		mSearchKey = SkinImage.newDrawable(mImages[SEARCH_KEY], res);
+		mSpaceKey = SkinImage.newDrawable(mImages[SPACE_KEY], res);
+		mShiftKey = SkinImage.newDrawable(mImages[SHIFT_KEY], res);
+		mShiftLockedKey = SkinImage.newDrawable(mImages[SHIFT_LOCKED_KEY], res);
+		mMicKey = SkinImage.newDrawable(mImages[MIC_KEY], res);
+		mCandidatesBackground = SkinImage.newDrawable(mImages[CANDIDATES_BACKGROUND], res);
+		mCandidatesDivider = SkinImage.newDrawable(mImages[CANDIDATES_DIVIDER], res);
+		mCandidateHighlightBackground = SkinImage.newDrawable(
+				mImages[CANDIDATE_HIGHLIGHT_BACKGROUND], res);
+	}
+
+	private SkinImage loadBackground(Element root, String nodeName) throws IOException {
 		Element element = getChild(root, nodeName);
 		if (element == null) {
 			return null;
@@ -303,18 +494,17 @@ public class OpenSkin {
 			return loadDrawable(file);
 		} else {
 			// Otherwise, create a color gradient
-			int[] backgroundColor = {0, 0};
 			Element topElem = getChild(element,"color-top");
-			backgroundColor[0] = Color.parseColor(topElem.getFirstChild().getNodeValue());
+			int topColor = Color.parseColor(topElem.getFirstChild().getNodeValue());
 			Element bottomElem = getChild(element, "color-bottom");
-			backgroundColor[1] = Color.parseColor(bottomElem.getFirstChild().getNodeValue());
-			return new GradientDrawable(GradientDrawable.Orientation.TOP_BOTTOM, backgroundColor);
+			int bottomColor = Color.parseColor(bottomElem.getFirstChild().getNodeValue());
+			return new SkinImage.GradientImage(topColor, bottomColor);
 		}
 	}
 	
-	private Drawable loadKeyBackground(Element root, String nodeName) throws IOException {
+	private SkinImage loadKeyBackground(Element root, String nodeName) throws IOException {
 		Element element = getChild(root, nodeName);
-		StateListDrawable drawable = new StateListDrawable();
+		SkinImage.StateListImage drawable = new SkinImage.StateListImage();
 		addState(drawable, element, "normal", NORMAL_STATES);
 		addState(drawable, element, "pressed", PRESSED_STATES);
 		addState(drawable, element, "normal-off", NORMAL_OFF_STATES);
@@ -324,7 +514,7 @@ public class OpenSkin {
 		return drawable;
 	}
 	
-	private Drawable loadImage(Element root, String nodeName) throws IOException {
+	private SkinImage loadImage(Element root, String nodeName) throws IOException {
 		Element element = getChild(root, nodeName);
 		String file = element.getFirstChild().getNodeValue();
 		return loadDrawable(file);
@@ -385,7 +575,7 @@ public class OpenSkin {
 		return (Element)elem.getElementsByTagName(name).item(0);
 	}
 	
-	private void addState(StateListDrawable drawable, Element key, 
+	private void addState(SkinImage.StateListImage drawable, Element key, 
 			String name, int[] states) throws IOException {
 		NodeList list = key.getElementsByTagName(name);
 		if (list.getLength() > 0) {
@@ -395,7 +585,7 @@ public class OpenSkin {
 		}
 	}
 	
-	private Drawable loadDrawable(String file) throws IOException {
+	private SkinImage loadDrawable(String file) throws IOException {
 		int imageDensity = 160;
 		ZipEntry entry = null;
 		if (mDensityDpi >= 240) {
@@ -412,10 +602,22 @@ public class OpenSkin {
 		InputStream is = mZipFile.getInputStream(entry);
 		if (file.endsWith(".9.png")) {
 			// Decode NinePatch image
-	        return NinePatchUtilities.decodeNinePatchDrawable(is);
+	        return NinePatchUtilities.decodeNinePatchImage(is);
 		} else {
 			// Otherwise normal image
-			return createDrawable(is, imageDensity);	
+			return createImage(is, imageDensity);	
+		}
+	}
+
+	private SkinImage createImage(InputStream is, int density) {
+		Drawable drawable = createDrawable(is, density);
+		if (drawable == null) {
+			return null;
+		} else if (drawable instanceof BitmapDrawable && mCreateFromResources != null) {
+			// Already scaled to the screen density
+			return new SkinImage.BitmapImage(((BitmapDrawable) drawable).getBitmap());
+		} else {
+			return new SkinImage.DrawableImage(drawable);
 		}
 	}
 
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2010 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.openskin;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+import android.graphics.drawable.NinePatchDrawable;
+import android.graphics.drawable.StateListDrawable;
+
+/**
+ * A decoded image of a skin, which can create its drawable and be written to the
+ * compiled skin, so that the next load needs neither the zip nor the image decoders.
+ */
+abstract class SkinImage {
+
+	private static final byte NONE = 0;
+	private static final byte BITMAP = 1;
+	private static final byte NINE_PATCH = 2;
+	private static final byte GRADIENT = 3;
+	private static final byte STATE_LIST = 4;
+	// Bound of the state counts read back, since a compiled skin may be corrupt
+	private static final int MAX_STATES = 64;
+
+	abstract Drawable newDrawable(Resources res);
+
+	abstract void write(DataOutputStream out) throws IOException;
+
+	static Drawable newDrawable(SkinImage image, Resources res) {
+		return image != null ? image.newDrawable(res) : null;
+	}
+
+	static void write(SkinImage image, DataOutputStream out) throws IOException {
+		if (image == null) {
+			out.writeByte(NONE);
+		} else {
+			image.write(out);
+		}
+	}
+
+	/**
+	 * Reads an image written by write(). The sizes read are checked against maxSize, the
+	 * size of the compiled skin, before anything is allocated.
+	 */
+	static SkinImage read(DataInputStream in, long maxSize) throws IOException {
+		final byte type = in.readByte();
+		switch (type) {
+		case NONE:
+			return null;
+		case BITMAP:
+			return new BitmapImage(readBitmap(in, maxSize));
+		case NINE_PATCH:
+			final Bitmap bitmap = readBitmap(in, maxSize);
+			final byte[] chunk = new byte[readSize(in, maxSize)];
+			in.readFully(chunk);
+			final Rect padding = new Rect(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+			return new NinePatchImage(bitmap, chunk, padding);
+		case GRADIENT:
+			return new GradientImage(in.readInt(), in.readInt());
+		case STATE_LIST:
+			final StateListImage stateList = new StateListImage();
+			final int count = readSize(in, MAX_STATES);
+			for (int i = 0; i < count; i++) {
+				final int[] states = new int[readSize(in, MAX_STATES)];
+				for (int j = 0; j < states.length; j++) {
+					states[j] = in.readInt();
+				}
+				stateList.addState(states, read(in, maxSize));
+			}
+			return stateList;
+		default:
+			throw new IOException("Unknown image type " + type);
+		}
+	}
+
+	private static void writeBitmap(Bitmap bitmap, DataOutputStream out) throws IOException {
+		if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+			bitmap = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+		}
+		final ByteBuffer pixels = ByteBuffer.allocate(bitmap.getRowBytes() * bitmap.getHeight());
+		bitmap.copyPixelsToBuffer(pixels);
+		out.writeInt(bitmap.getWidth());
+		out.writeInt(bitmap.getHeight());
+		out.writeInt(bitmap.getDensity());
+		out.writeInt(pixels.capacity());
+		out.write(pixels.array());
+	}
+
+	private static Bitmap readBitmap(DataInputStream in, long maxSize) throws IOException {
+		final int width = in.readInt();
+		final int height = in.readInt();
+		final int density = in.readInt();
+		final int size = readSize(in, maxSize);
+		// 4 bytes per pixel in ARGB_8888
+		if (width <= 0 || height <= 0 || (long) width * height * 4 != size) {
+			throw new IOException("Bad bitmap size " + width + "x" + height);
+		}
+		final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		final byte[] pixels = new byte[size];
+		in.readFully(pixels);
+		bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
+		bitmap.setDensity(density);
+		return bitmap;
+	}
+
+	private static int readSize(DataInputStream in, long maxSize) throws IOException {
+		final int size = in.readInt();
+		if (size < 0 || size > maxSize) {
+			throw new IOException("Bad size " + size);
+		}
+		return size;
+	}
+
+	static class BitmapImage extends SkinImage {
+		final Bitmap mBitmap;
+
+		BitmapImage(Bitmap bitmap) {
+			mBitmap = bitmap;
+		}
+
+		@Override
+		Drawable newDrawable(Resources res) {
+			return new BitmapDrawable(res, mBitmap);
+		}
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			out.writeByte(BITMAP);
+			writeBitmap(mBitmap, out);
+		}
+	}
+
+	static class NinePatchImage extends SkinImage {
+		final Bitmap mBitmap;
+		final byte[] mChunk;
+		final Rect mPadding;
+
+		NinePatchImage(Bitmap bitmap, byte[] chunk, Rect padding) {
+			mBitmap = bitmap;
+			mChunk = chunk;
+			mPadding = padding;
+		}
+
+		@SuppressWarnings("deprecation")
+		@Override
+		Drawable newDrawable(Resources res) {
+			// Not scaled to the screen density, as the nine-patches always were
+			return new NinePatchDrawable(mBitmap, mChunk, mPadding, "src");
+		}
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			out.writeByte(NINE_PATCH);
+			writeBitmap(mBitmap, out);
+			out.writeInt(mChunk.length);
+			out.write(mChunk);
+			out.writeInt(mPadding.left);
+			out.writeInt(mPadding.top);
+			out.writeInt(mPadding.right);
+			out.writeInt(mPadding.bottom);
+		}
+	}
+
+	static class GradientImage extends SkinImage {
+		final int mTopColor;
+		final int mBottomColor;
+
+		GradientImage(int topColor, int bottomColor) {
+			mTopColor = topColor;
+			mBottomColor = bottomColor;
+		}
+
+		@Override
+		Drawable newDrawable(Resources res) {
+			return new GradientDrawable(GradientDrawable.Orientation.TOP_BOTTOM,
+					new int[] { mTopColor, mBottomColor });
+		}
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			out.writeByte(GRADIENT);
+			out.writeInt(mTopColor);
+			out.writeInt(mBottomColor);
+		}
+	}
+
+	static class StateListImage extends SkinImage {
+		final List<int[]> mStates = new ArrayList<int[]>();
+		final List<SkinImage> mImages = new ArrayList<SkinImage>();
+
+		void addState(int[] states, SkinImage image) {
+			mStates.add(states);
+			mImages.add(image);
+		}
+
+		@Override
+		Drawable newDrawable(Resources res) {
+			final StateListDrawable drawable = new StateListDrawable();
+			for (int i = 0; i < mStates.size(); i++) {
+				drawable.addState(mStates.get(i), newDrawable(mImages.get(i), res));
+			}
+			return drawable;
+		}
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			out.writeByte(STATE_LIST);
+			out.writeInt(mStates.size());
+			for (int i = 0; i < mStates.size(); i++) {
+				final int[] states = mStates.get(i);
+				out.writeInt(states.length);
+				for (int state : states) {
+					out.writeInt(state);
+				}
+				write(mImages.get(i), out);
+			}
+		}
+	}
+
+	/**
+	 * An image decoded into something else than a bitmap, which cannot be compiled.
+	 */
+	static class DrawableImage extends SkinImage {
+		final Drawable mDrawable;
+
+		DrawableImage(Drawable drawable) {
+			mDrawable = drawable;
+		}
+
+		@Override
+		Drawable newDrawable(Resources res) {
+			return mDrawable;
+		}
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			throw new IOException("Cannot compile " + mDrawable.getClass().getSimpleName());
+		}
+	}
+}
@@ -167,6 +167,8 @@ class Backup {
                 dest.close();
             }
             zis.close();
+            // The dictionaries must not load the snapshots of the replaced database
+            DictionarySnapshot.invalidateAll(context);
         } catch (Exception e) {
             e.printStackTrace();
             callback.onFailed();
@@ -65,29 +65,49 @@ public class BinaryDictionary extends Dictionary {
     
     private native long openNative(FileDescriptor fd, long offset, long length,
             int typedLetterMultiplier, int fullWordMultiplier);
+    private native long openMappedNative(FileDescriptor fd, long offset, long length,
+            int typedLetterMultiplier, int fullWordMultiplier);
     private native void closeNative(long dict);
     private native boolean isValidWordNative(long nativeData, char[] word, int wordLength);
     private native int getSuggestionsNative(long dict, int[] inputCodes, int codesSize,
             char[] outputChars, int[] frequencies,
             int maxWordLength, int maxWords, int maxAlternatives, int skipPos, boolean modeT9,
             int[] nextLettersFrequencies, int nextLettersSize);
+    private native int getWildcardSuggestionsNative(long dict, int[] inputCodes, int codesSize,
+            char[] outputChars, int[] frequencies,
+            int maxWordLength, int maxWords, int maxAlternatives, boolean modeT9);
     
     public native static long openExpandableNative();
     public native static void addWordExpandableNative(long dict, String word, int freq);
     public native static void addCharArrayExpandableNative(long dict, char[] word, int size, int freq);
     public native static int getWordFrequencyExpandableNative(long dict, String word);
+    public native static int getCharArrayFrequencyExpandableNative(long dict, char[] word, int size);
     public native static int increaseWordFrequencyExpandableNative(long dict, String word);
+    public native static boolean removeWordExpandableNative(long dict, String word);
     public native static int getSuggestionsExpandableNative(long dict, int[] inputCodes, int codesSize,
             char[] outputChars, int[] frequencies,
             int maxWordLength, int maxWords, int maxAlternatives, int skipPos, boolean modeT9,
             int[] nextLettersFrequencies, int nextLettersSize);
+    public native static int getWildcardSuggestionsExpandableNative(long dict, int[] inputCodes,
+            int codesSize, char[] outputChars, int[] frequencies,
+            int maxWordLength, int maxWords, int maxAlternatives, boolean modeT9);
+    public native static void compactExpandableNative(long dict);
+    public native static boolean saveExpandableNative(long dict, String path, long stamp);
+    public native static boolean loadExpandableNative(long dict, String path, long stamp);
     public native static void closeExpandableNative(long dict);
 
     private final void loadDictionary(AssetFileDescriptor afd) {
         long startTime = System.currentTimeMillis();
-        mNativeDict = openNative(afd.getFileDescriptor(), 
+        // Map the (uncompressed) asset read-only so that the pages are shared and reclaimable,
+        // and only fall back to copying it to the native heap if that fails
+        mNativeDict = openMappedNative(afd.getFileDescriptor(),
                 afd.getStartOffset()+8, afd.getLength()-8,
                 TYPED_LETTER_MULTIPLIER, FULL_WORD_FREQ_MULTIPLIER);
+        if (mNativeDict == 0) {
+            mNativeDict = openNative(afd.getFileDescriptor(),
+                    afd.getStartOffset()+8, afd.getLength()-8,
+                    TYPED_LETTER_MULTIPLIER, FULL_WORD_FREQ_MULTIPLIER);
+        }
         Log.i(TAG, "Loaded dictionary in " + (System.currentTimeMillis() - startTime) + "msec");
     }
 
@@ -113,18 +133,15 @@ public class BinaryDictionary extends Dictionary {
                 nextLettersFrequencies,
                 nextLettersFrequencies != null ? nextLettersFrequencies.length : 0);
 
-        // If there aren't sufficient suggestions, search for words by allowing wild cards at
-        // the different character positions. This feature is not ready for prime-time as we need
-        // to figure out the best ranking for such words compared to proximity corrections and
-        // completions.
+        // If there aren't sufficient suggestions, search for words by allowing a wild card at
+        // any of the character positions. All the positions are tried in a single walk of the
+        // trie. This feature is not ready for prime-time as we need to figure out the best
+        // ranking for such words compared to proximity corrections and completions.
         if (count < 5) {
-            for (int skip = 0; skip < codesSize; skip++) {
-                int tempCount = getSuggestionsNative(mNativeDict, mInputCodes, codesSize,
-                        mOutputChars, mFrequencies,
-                        MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, skip, modeT9, null, 0);
-                count = Math.max(count, tempCount);
-                if (tempCount > 0) break;
-            }
+            int tempCount = getWildcardSuggestionsNative(mNativeDict, mInputCodes, codesSize,
+                    mOutputChars, mFrequencies,
+                    MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, modeT9);
+            count = Math.max(count, tempCount);
         }
 
         for (int j = 0; j < count; j++) {
@@ -147,6 +164,7 @@ public class BinaryDictionary extends Dictionary {
         return isValidWordNative(mNativeDict, chars, chars.length);
     }
     
+    @Override
     public synchronized void close() {
         if (mNativeDict != 0) {
             closeNative(mNativeDict);
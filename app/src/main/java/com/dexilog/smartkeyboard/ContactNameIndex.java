@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Names of the contacts, and how many contacts use each word of them, so that the
+ * contacts dictionary can be updated one contact at a time.
+ */
+class ContactNameIndex {
+
+    interface Listener {
+        /** Called when a word is used by a contact for the first time */
+        void onWordAdded(String word);
+        /** Called when the last contact using a word is removed or renamed */
+        void onWordRemoved(String word);
+    }
+
+    private final int mMaxWordLength;
+    private final HashMap<Long, String> mNames = new HashMap<Long, String>();
+    private final HashMap<String, Integer> mWordCounts = new HashMap<String, Integer>();
+    private final ArrayList<String> mWords = new ArrayList<String>();
+
+    ContactNameIndex(int maxWordLength) {
+        mMaxWordLength = maxWordLength;
+    }
+
+    /**
+     * Adds a contact or changes its name.
+     */
+    void putContact(long id, String name, Listener listener) {
+        if (name == null) {
+            removeContact(id, listener);
+            return;
+        }
+        final String oldName = mNames.put(id, name);
+        if (name.equals(oldName)) return;
+        // Add the new words first, so that those kept by a rename stay in the trie
+        addWords(name, listener);
+        if (oldName != null) {
+            removeWords(oldName, listener);
+        }
+    }
+
+    void removeContact(long id, Listener listener) {
+        final String oldName = mNames.remove(id);
+        if (oldName != null) {
+            removeWords(oldName, listener);
+        }
+    }
+
+    int size() {
+        return mNames.size();
+    }
+
+    void clear() {
+        mNames.clear();
+        mWordCounts.clear();
+    }
+
+    private void addWords(String name, Listener listener) {
+        mWords.clear();
+        splitName(name, mMaxWordLength, mWords);
+        for (int i = 0; i < mWords.size(); i++) {
+            final String word = mWords.get(i);
+            final Integer count = mWordCounts.get(word);
+            mWordCounts.put(word, count == null ? 1 : count + 1);
+            if (count == null) {
+                listener.onWordAdded(word);
+            }
+        }
+    }
+
+    private void removeWords(String name, Listener listener) {
+        mWords.clear();
+        splitName(name, mMaxWordLength, mWords);
+        for (int i = 0; i < mWords.size(); i++) {
+            final String word = mWords.get(i);
+            final Integer count = mWordCounts.get(word);
+            if (count == null) continue;
+            if (count > 1) {
+                mWordCounts.put(word, count - 1);
+            } else {
+                mWordCounts.remove(word);
+                listener.onWordRemoved(word);
+            }
+        }
+    }
+
+    /**
+     * Splits a contact name into the words to put in the dictionary.
+     */
+    static void splitName(String name, int maxWordLength, List<String> words) {
+        final int len = name.length();
+
+        // TODO: Better tokenization for non-Latin writing systems
+        for (int i = 0; i < len; i++) {
+            if (Character.isLetter(name.charAt(i))) {
+                int j;
+                for (j = i + 1; j < len; j++) {
+                    char c = name.charAt(j);
+
+                    if (!(c == '-' || c == '\'' ||
+                          Character.isLetter(c))) {
+                        break;
+                    }
+                }
+
+                String word = name.substring(i, j);
+                i = j - 1;
+
+                // Safeguard against adding really long words. Stack
+                // may overflow due to recursion
+                // Also don't add single letter words, possibly confuses
+                // capitalization of i.
+                final int wordLen = word.length();
+                if (wordLen < maxWordLength && wordLen > 1) {
+                    words.add(word);
+                }
+            }
+        }
+    }
+}
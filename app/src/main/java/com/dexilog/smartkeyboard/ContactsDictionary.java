@@ -16,18 +16,23 @@
 
 package com.dexilog.smartkeyboard;
 
+import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
 //import android.provider.Contacts;
-//import android.provider.ContactsContract.Contacts;
 import android.net.Uri;
+import android.os.Build;
 import android.os.SystemClock;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
 import android.util.Log;
 
 import com.dexilog.smartkeyboard.settings.PermissionManager;
 
+import java.io.File;
+
 class ContactsDictionary extends ExpandableDictionary {
 
 	private static final String TAG = "SmartKeyboard";
@@ -39,12 +44,35 @@ class ContactsDictionary extends ExpandableDictionary {
     };
 */
 	private Uri mContentURI;
+    private static final int INDEX_ID = 0;
     private static final int INDEX_NAME = 1;
+    private static final int INDEX_LAST_UPDATED = 2;
+
+    private static final String[] DELTA_PROJECTION = {
+        Contacts._ID,
+        Contacts.DISPLAY_NAME,
+        Contacts.CONTACT_LAST_UPDATED_TIMESTAMP,
+    };
+    private static final String[] DELETED_PROJECTION = {
+        DeletedContacts.CONTACT_ID,
+        DeletedContacts.CONTACT_DELETED_TIMESTAMP,
+    };
+    private static final int INDEX_DELETED = 1;
+
+    private static final int FREQUENCY = 128;
 
     private ContentObserver mObserver;
 
     private long mLastLoadedContacts;
 
+    // Contacts can be synced incrementally since Android 4.3
+    private final boolean mDeltaSync =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    private final ContactNameIndex mNames = new ContactNameIndex(getMaxWordLength());
+    // Most recent update and deletion times seen in the contacts provider
+    private long mLastUpdated;
+    private long mLastDeleted;
+
 	public ContactsDictionary(final Context context) {
         super(context);
         
@@ -98,10 +126,16 @@ class ContactsDictionary extends ExpandableDictionary {
         }
     }
 
+    @Override
+    protected boolean isRebuiltInBackground() {
+        return true;
+    }
+
     @Override
     public void startDictionaryLoadingTaskLocked() {
         long now = SystemClock.uptimeMillis();
-        if (mLastLoadedContacts == 0
+        // Syncing the changes is cheap, but a full reload is limited to every 30 minutes
+        if (mLastLoadedContacts == 0 || mDeltaSync
                 || now - mLastLoadedContacts > 30 * 60 * 1000 /* 30 minutes */) {
             super.startDictionaryLoadingTaskLocked();
         }
@@ -110,57 +144,104 @@ class ContactsDictionary extends ExpandableDictionary {
     @Override
     public void loadDictionaryAsync() {
 		long startTime = System.currentTimeMillis();
-        Cursor cursor = getContext().getContentResolver()
-                .query(mContentURI, PROJECTION, null, null, null);
-        if (cursor != null) {
-            addWords(cursor);
+        // Deleted contacts are only remembered for a while, after that reload everything
+        if (mLastLoadedContacts != 0 && mDeltaSync
+                && startTime - mLastDeleted < DeletedContacts.DAYS_KEPT_MILLISECONDS) {
+            syncContacts();
+            Log.i(TAG, "Synced contact dictionary in " + (System.currentTimeMillis() - startTime) + "msec");
+        } else {
+            if (mLastLoadedContacts == 0 && loadSnapshot(getSnapshotFile(), 0)) {
+                // The names may be outdated, but can be suggested while they are read again
+                Log.i(TAG, "Loaded contact dictionary snapshot in " + (System.currentTimeMillis() - startTime) + "msec");
+            }
+            Cursor cursor = getContext().getContentResolver()
+                    .query(mContentURI, mDeltaSync ? DELTA_PROJECTION : PROJECTION, null, null, null);
+            if (cursor != null) {
+                mLastDeleted = startTime;
+                addWords(cursor);
+            }
+            Log.i(TAG, "Loaded contact dictionary in " + (System.currentTimeMillis() - startTime) + "msec");
         }
-		Log.i(TAG, "Loaded contact dictionary in " + (System.currentTimeMillis() - startTime) + "msec");
+        saveSnapshot(getSnapshotFile(), 0);
         mLastLoadedContacts = SystemClock.uptimeMillis();
     }
 
+    private File getSnapshotFile() {
+        return DictionarySnapshot.getFile(getContext(), DictionarySnapshot.CONTACTS, null);
+    }
+
     private void addWords(Cursor cursor) {
-        clearDictionary();
+        // Fill a new trie while the current one keeps answering
+        beginRebuild();
 
-        final int maxWordLength = getMaxWordLength();
+        mNames.clear();
+        mLastUpdated = 0;
         if (cursor.moveToFirst()) {
             while (!cursor.isAfterLast()) {
-                String name = cursor.getString(INDEX_NAME);
-
-                if (name != null) {
-                    int len = name.length();
-
-                    // TODO: Better tokenization for non-Latin writing systems
-                    for (int i = 0; i < len; i++) {
-                        if (Character.isLetter(name.charAt(i))) {
-                            int j;
-                            for (j = i + 1; j < len; j++) {
-                                char c = name.charAt(j);
-
-                                if (!(c == '-' || c == '\'' ||
-                                      Character.isLetter(c))) {
-                                    break;
-                                }
-                            }
-
-                            String word = name.substring(i, j);
-                            i = j - 1;
-
-                            // Safeguard against adding really long words. Stack
-                            // may overflow due to recursion
-                            // Also don't add single letter words, possibly confuses
-                            // capitalization of i.
-                            final int wordLen = word.length();
-                            if (wordLen < maxWordLength && wordLen > 1) {
-                                super.addWord(word, 128);
-                            }
-                        }
-                    }
-                }
-
+                putContact(cursor, mRebuildListener);
                 cursor.moveToNext();
             }
         }
         cursor.close();
+        commitRebuild();
+    }
+
+    /**
+     * Applies the contacts updated or deleted since the last load to the current trie.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void syncContacts() {
+        final ContentResolver cres = getContext().getContentResolver();
+        Cursor cursor = cres.query(mContentURI, DELTA_PROJECTION,
+                Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + ">?",
+                new String[] { Long.toString(mLastUpdated) }, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                putContact(cursor, mUpdateListener);
+            }
+            cursor.close();
+        }
+
+        cursor = cres.query(DeletedContacts.CONTENT_URI, DELETED_PROJECTION,
+                DeletedContacts.CONTACT_DELETED_TIMESTAMP + ">?",
+                new String[] { Long.toString(mLastDeleted) }, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                mNames.removeContact(cursor.getLong(INDEX_ID), mUpdateListener);
+                mLastDeleted = Math.max(mLastDeleted, cursor.getLong(INDEX_DELETED));
+            }
+            cursor.close();
+        }
+    }
+
+    private void putContact(Cursor cursor, ContactNameIndex.Listener listener) {
+        mNames.putContact(cursor.getLong(INDEX_ID), cursor.getString(INDEX_NAME), listener);
+        if (mDeltaSync) {
+            mLastUpdated = Math.max(mLastUpdated, cursor.getLong(INDEX_LAST_UPDATED));
+        }
     }
+
+    private final ContactNameIndex.Listener mRebuildListener = new ContactNameIndex.Listener() {
+        @Override
+        public void onWordAdded(String word) {
+            addWordToRebuild(word, FREQUENCY);
+        }
+
+        @Override
+        public void onWordRemoved(String word) {
+            // Nothing is removed while filling a new trie
+        }
+    };
+
+    private final ContactNameIndex.Listener mUpdateListener = new ContactNameIndex.Listener() {
+        @Override
+        public void onWordAdded(String word) {
+            addWord(word, FREQUENCY);
+        }
+
+        @Override
+        public void onWordRemoved(String word) {
+            removeWord(word);
+        }
+    };
 }
@@ -18,7 +18,13 @@ package com.dexilog.smartkeyboard;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import android.content.Context;
 import android.content.pm.PackageManager.NameNotFoundException;
@@ -35,6 +41,9 @@ import com.dexilog.smartkeyboard.suggest.UserDictionary;
 class DictionaryFactoryImpl implements DictionaryFactory {
 
 	static private final String TAG = "SmartKeyboardPro";
+	// Languages kept loaded: the current one, the previous one and the pre-warmed one
+	static private final int MAX_LANGUAGES = 3;
+	static private final long PREWARM_KEEP_ALIVE = 10;
 	private Context mContext;
 	
 	// Dictionary cache
@@ -42,6 +51,11 @@ class DictionaryFactoryImpl implements DictionaryFactory {
 	private Map<String, UserDictionary> mUserDicts;
 	private Map<String, AutoText> mAutoTexts;
 	private Map<String, SmartDictionary> mSmartDics;
+	// Languages in the cache, least recently used first
+	private LinkedHashMap<String, Boolean> mLoadedLangs;
+	// Language of the dictionaries used by Suggest, never evicted
+	private String mCurLang;
+	private ThreadPoolExecutor mPrewarmExecutor;
 	
 	public DictionaryFactoryImpl(Context context) {
 		mContext = context;
@@ -49,100 +63,264 @@ class DictionaryFactoryImpl implements DictionaryFactory {
 		mUserDicts = new HashMap<String, UserDictionary>();
 		mAutoTexts = new HashMap<String, AutoText>();
 		mSmartDics = new HashMap<String, SmartDictionary>();
+		mLoadedLangs = new LinkedHashMap<String, Boolean>(8, 0.75f, true);
+		mPrewarmExecutor = new ThreadPoolExecutor(1, 1, PREWARM_KEEP_ALIVE, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "DictionaryPrewarm");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		// Don't keep the thread around between two language switches
+		mPrewarmExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Loads the dictionaries of a language in the background, so that switching to it
+	 * doesn't block the UI thread. May evict the least recently used language.
+	 */
+	public void prewarm(final String lang) {
+		if (lang == null) return;
+		synchronized (this) {
+			if (mLoadedLangs.containsKey(lang)) return;
+		}
+		mPrewarmExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					loadLanguage(lang);
+				} catch (IOException e) {
+					Log.w(TAG, "Cannot pre-warm dictionaries: " + lang, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Loads the dictionaries of a language without making it the current one.
+	 */
+	void loadLanguage(String lang) throws IOException {
+		synchronized (this) {
+			if (mLoadedLangs.containsKey(lang)) return;
+			useLanguage(lang);
+		}
+		// Open the dictionaries without the lock, so that a language switch doesn't
+		// wait for them; the switch may then open its own, and the loser is closed
+		if (isMissing(mLangDicts, lang)) {
+			final Dictionary dic = openLangDictionary(lang);
+			if (dic != null && !publish(mLangDicts, lang, dic)) {
+				dic.close();
+			}
+		}
+		if (isMissing(mUserDicts, lang)) {
+			final UserDictionary dic = openUserDictionary(lang);
+			if (!publish(mUserDicts, lang, dic)) {
+				dic.close();
+			}
+		}
+		if (isMissing(mAutoTexts, lang)) {
+			final AutoText autotext = openAutoText(lang);
+			if (autotext != null) {
+				publish(mAutoTexts, lang, autotext);
+			}
+		}
+		if (isMissing(mSmartDics, lang)) {
+			final SmartDictionary dic = openSmartDictionary(lang);
+			if (!publish(mSmartDics, lang, dic)) {
+				dic.close();
+			}
+		}
+	}
+
+	private synchronized boolean isMissing(Map<String, ?> cache, String lang) {
+		return mLoadedLangs.containsKey(lang) && !cache.containsKey(lang);
+	}
+
+	/**
+	 * Adds a dictionary opened without the lock to the cache, unless its language was
+	 * evicted or the dictionary loaded meanwhile. Returns false if it wasn't added.
+	 */
+	private synchronized <T> boolean publish(Map<String, T> cache, String lang, T dic) {
+		if (!mLoadedLangs.containsKey(lang) || cache.containsKey(lang)) return false;
+		cache.put(lang, dic);
+		return true;
+	}
+
+	/**
+	 * Closes the dictionaries of all the languages but the current one.
+	 */
+	public synchronized void trimMemory() {
+		evictLanguages(1);
+	}
+
+	@Override
+	public synchronized Dictionary getLangDictionary(String lang) throws IOException {
+		setCurrentLanguage(lang);
+		return loadLangDictionary(lang);
+	}
+
+	@Override
+	public synchronized AutoText getAutoText(String lang) throws IOException {
+		setCurrentLanguage(lang);
+		return loadAutoText(lang);
+	}
+
+	@Override
+	public synchronized UserDictionary getUserDictionary(String lang) {
+		setCurrentLanguage(lang);
+		return loadUserDictionary(lang);
 	}
 
 	@Override
-	public Dictionary getLangDictionary(String lang) throws IOException {
+	public synchronized SmartDictionary getSmartDictionary(String lang) {
+		setCurrentLanguage(lang);
+		return loadSmartDictionary(lang);
+	}
+
+	private void setCurrentLanguage(String lang) {
+		mCurLang = lang;
+		useLanguage(lang);
+	}
+
+	private void useLanguage(String lang) {
+		if (mLoadedLangs.put(lang, Boolean.TRUE) == null) {
+			evictLanguages(MAX_LANGUAGES);
+		}
+	}
+
+	private void evictLanguages(int maxLanguages) {
+		final Iterator<String> it = mLoadedLangs.keySet().iterator();
+		while (mLoadedLangs.size() > maxLanguages && it.hasNext()) {
+			final String lang = it.next();
+			if (lang.equals(mCurLang)) continue;
+			it.remove();
+			// Suggest only holds the dictionaries of the current language
+			final Dictionary dic = mLangDicts.remove(lang);
+			if (dic != null) {
+				dic.close();
+			}
+			final UserDictionary userDic = mUserDicts.remove(lang);
+			if (userDic != null) {
+				userDic.close();
+			}
+			mAutoTexts.remove(lang);
+			final SmartDictionary smartDic = mSmartDics.remove(lang);
+			if (smartDic != null) {
+				smartDic.close();
+			}
+		}
+	}
+
+	private Dictionary loadLangDictionary(String lang) throws IOException {
 		if (mLangDicts.containsKey(lang)) {
 			return mLangDicts.get(lang);
 		} else {
-			Log.i(TAG, "Trying to load dictionary: " + lang);
-			Resources res = null;
-			final String langName = lang.toLowerCase();
-			final String pkgName = "net.cdeguet.smartkeyboardpro." + langName;
-			if (langName.equals("jp")) {
-				try {
-					Japanese dic = new Japanese(mContext);
-					mLangDicts.put(lang, dic);
-					return dic;
-				} catch (Exception e) {
-					return null;
-				}
-			} else if (langName.equals("zh")) {
-				try {
-					Chinese dic = new Chinese();
-					dic.initPinyinEngine(mContext);
-					mLangDicts.put(lang, dic);
-					return dic;
-				} catch (Exception e) {
-					return null;
-				}
-			} else {
-				try {
-					res = mContext.getPackageManager().getResourcesForApplication(pkgName);
-				} catch (NameNotFoundException e) {
-					return null;
-				}
-			}
-			BinaryDictionary dic = null;
-			if (res != null) {
-				AssetFileDescriptor fd = res.getAssets().openFd(langName + "_dic.mp3");
-				dic = new BinaryDictionary(fd);
-				fd.close();
+			Dictionary dic = openLangDictionary(lang);
+			if (dic != null) {
 				mLangDicts.put(lang, dic);
 			}
 			return dic;
 		}
 	}
 
-    @Override
-    public AutoText getAutoText(String lang) throws IOException {
+	private AutoText loadAutoText(String lang) {
 		if (mAutoTexts.containsKey(lang)) {
 			return mAutoTexts.get(lang);
 		} else {
-			Resources res = null;
-			int xml = 0;
-			final String langName = lang.toLowerCase();
-			final String pkgName = "net.cdeguet.smartkeyboardpro." + langName;
-			if (langName.equals("en")) {
-				res = mContext.getResources();
-				xml = R.xml.autotext; 
-			} else {
-				try {
-					res = mContext.getPackageManager().getResourcesForApplication(pkgName);
-					xml = res.getIdentifier("autotext", "xml", pkgName);
-				} catch (NameNotFoundException e) {
-					e.printStackTrace();
-				}
-			}
-			AutoText autotext = null;
-			if (res != null && xml != 0) {
-				autotext = new AutoText(res, xml);
+			AutoText autotext = openAutoText(lang);
+			if (autotext != null) {
 				mAutoTexts.put(lang, autotext);
 			}
 			return autotext;
 		}
 	}
 
-    @Override
-    public UserDictionary getUserDictionary(String lang) {
+	private UserDictionary loadUserDictionary(String lang) {
 		if (mUserDicts.containsKey(lang)) {
 			return mUserDicts.get(lang);
 		} else {
-			UserDictionary dic = new UserDictionaryImpl(mContext, lang);
+			UserDictionary dic = openUserDictionary(lang);
 			mUserDicts.put(lang, dic);
 			return dic;
 		}
 	}
 
-    @Override
-	public SmartDictionary getSmartDictionary(String lang) {
+	private SmartDictionary loadSmartDictionary(String lang) {
 		if (mSmartDics.containsKey(lang)) {
 			return mSmartDics.get(lang);
 		} else {
-			SmartDictionary dic = new SmartDictionaryImpl(mContext, lang);
+			SmartDictionary dic = openSmartDictionary(lang);
 			mSmartDics.put(lang, dic);
 			return dic;
 		}
 	}
+
+	Dictionary openLangDictionary(String lang) throws IOException {
+		Log.i(TAG, "Trying to load dictionary: " + lang);
+		Resources res = null;
+		final String langName = lang.toLowerCase();
+		final String pkgName = "net.cdeguet.smartkeyboardpro." + langName;
+		if (langName.equals("jp")) {
+			try {
+				return new Japanese(mContext);
+			} catch (Exception e) {
+				return null;
+			}
+		} else if (langName.equals("zh")) {
+			try {
+				Chinese dic = new Chinese();
+				dic.initPinyinEngine(mContext);
+				return dic;
+			} catch (Exception e) {
+				return null;
+			}
+		} else {
+			try {
+				res = mContext.getPackageManager().getResourcesForApplication(pkgName);
+			} catch (NameNotFoundException e) {
+				return null;
+			}
+		}
+		BinaryDictionary dic = null;
+		if (res != null) {
+			AssetFileDescriptor fd = res.getAssets().openFd(langName + "_dic.mp3");
+			dic = new BinaryDictionary(fd);
+			fd.close();
+		}
+		return dic;
+	}
+
+	AutoText openAutoText(String lang) {
+		Resources res = null;
+		int xml = 0;
+		final String langName = lang.toLowerCase();
+		final String pkgName = "net.cdeguet.smartkeyboardpro." + langName;
+		if (langName.equals("en")) {
+			res = mContext.getResources();
+			xml = R.xml.autotext; 
+		} else {
+			try {
+				res = mContext.getPackageManager().getResourcesForApplication(pkgName);
+				xml = res.getIdentifier("autotext", "xml", pkgName);
+			} catch (NameNotFoundException e) {
+				e.printStackTrace();
+			}
+		}
+		AutoText autotext = null;
+		if (res != null && xml != 0) {
+			autotext = new AutoText(res, xml);
+		}
+		return autotext;
+	}
+
+	UserDictionary openUserDictionary(String lang) {
+		return new UserDictionaryImpl(mContext, lang);
+	}
+
+	SmartDictionary openSmartDictionary(String lang) {
+		return new SmartDictionaryImpl(mContext, lang);
+	}
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.v4.content.ContextCompat;
+
+import java.io.File;
+
+/**
+ * Files where the expandable dictionaries save their native trie, so that they can be
+ * loaded in a single read at startup instead of a query and one JNI call per word.
+ *
+ * A snapshot is tagged with the generation of its source table, which is increased on
+ * each write to the table. It is only loaded back while the generation is the same.
+ *
+ * The snapshots are caches that can be rebuilt, and the contacts one holds words of the
+ * contact names, so they are kept out of the backups.
+ */
+class DictionarySnapshot {
+
+    // Sources of the snapshots
+    static final String WORDS = "words";
+    static final String FREQS = "freqs";
+    static final String CONTACTS = "contacts";
+
+    // Not the default preferences, which are part of the backups
+    private static final String PREFS_NAME = "dictionary_snapshots";
+    private static final String DIRECTORY = "snapshots";
+
+    static File getFile(Context context, String source, String lang) {
+        final File dir = new File(ContextCompat.getNoBackupFilesDir(context), DIRECTORY);
+        dir.mkdirs();
+        return new File(dir, lang != null ? source + "_" + lang + ".trie" : source + ".trie");
+    }
+
+    static synchronized long getGeneration(Context context, String source) {
+        return getPreferences(context).getLong(source, 0);
+    }
+
+    /**
+     * Makes the current snapshots of a source stale. Call it once a write is committed.
+     */
+    static synchronized void invalidate(Context context, String source) {
+        final SharedPreferences prefs = getPreferences(context);
+        prefs.edit().putLong(source, prefs.getLong(source, 0) + 1).commit();
+    }
+
+    /**
+     * For a database replaced behind the provider's back, e.g. by a restore.
+     */
+    static void invalidateAll(Context context) {
+        invalidate(context, WORDS);
+        invalidate(context, FREQS);
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.dexilog.smartkeyboard;
 
+import java.io.File;
 import java.util.Arrays;
 
 import android.content.Context;
@@ -81,6 +82,8 @@ public class ExpandableDictionary extends Dictionary {
     private int[][] mCodes;
     
     private long mNativeDict = 0;
+    // Replacement trie filled by a background rebuild, guarded by this
+    private long mRebuildDict = 0;
 
     public ExpandableDictionary(Context context) {
         mContext = context;
@@ -117,6 +120,15 @@ public class ExpandableDictionary extends Dictionary {
     protected void loadDictionaryAsync() {
     }
 
+    /**
+     * Override to return true if loadDictionaryAsync() fills a replacement trie with
+     * beginRebuild(), addWordToRebuild() and commitRebuild(). The current words are then
+     * still returned while the dictionary is reloading.
+     */
+    protected boolean isRebuiltInBackground() {
+        return false;
+    }
+
     protected Context getContext() {
         return mContext;
     }
@@ -125,12 +137,66 @@ public class ExpandableDictionary extends Dictionary {
         return MAX_WORD_LENGTH;
     }
 
-    public void addWord(String word, int frequency) {
+    public synchronized void addWord(String word, int frequency) {
         BinaryDictionary.addWordExpandableNative(mNativeDict, word, frequency);
+        // The rebuild may have read its source before this word was added
+        if (mRebuildDict != 0) {
+            BinaryDictionary.addWordExpandableNative(mRebuildDict, word, frequency);
+        }
     }
 
-    public void addCharArray(char[] word, int size, int frequency) {
+    public synchronized void addCharArray(char[] word, int size, int frequency) {
         BinaryDictionary.addCharArrayExpandableNative(mNativeDict, word, size, frequency);
+        if (mRebuildDict != 0) {
+            BinaryDictionary.addCharArrayExpandableNative(mRebuildDict, word, size, frequency);
+        }
+    }
+
+    /**
+     * Removes a word from the current trie. Returns false if it wasn't there.
+     */
+    public synchronized boolean removeWord(String word) {
+        return BinaryDictionary.removeWordExpandableNative(mNativeDict, word);
+    }
+
+    /**
+     * Starts building a new trie next to the current one, which keeps serving the
+     * queries until commitRebuild() is called.
+     */
+    protected synchronized void beginRebuild() {
+        if (mRebuildDict != 0) {
+            BinaryDictionary.closeExpandableNative(mRebuildDict);
+        }
+        mRebuildDict = BinaryDictionary.openExpandableNative();
+    }
+
+    protected synchronized void addWordToRebuild(String word, int frequency) {
+        if (mRebuildDict != 0) {
+            BinaryDictionary.addWordExpandableNative(mRebuildDict, word, frequency);
+        }
+    }
+
+    /**
+     * Packs the rebuilt trie and swaps it with the current one.
+     */
+    protected synchronized void commitRebuild() {
+        if (mRebuildDict == 0) return;
+        BinaryDictionary.compactExpandableNative(mRebuildDict);
+        if (mNativeDict != 0) {
+            BinaryDictionary.closeExpandableNative(mNativeDict);
+        }
+        mNativeDict = mRebuildDict;
+        mRebuildDict = 0;
+    }
+
+    /**
+     * Drops a rebuild that was started but not committed, e.g. if its source failed.
+     */
+    protected synchronized void discardRebuild() {
+        if (mRebuildDict != 0) {
+            BinaryDictionary.closeExpandableNative(mRebuildDict);
+            mRebuildDict = 0;
+        }
     }
 
     @Override
@@ -140,7 +206,7 @@ public class ExpandableDictionary extends Dictionary {
             // If we need to update, start off a background task
             if (mRequiresReload) startDictionaryLoadingTaskLocked();
             // Currently updating contacts, don't return any results.
-            if (mUpdatingDictionary) return;
+            if (mUpdatingDictionary && !isRebuiltInBackground()) return;
         }
 
         final int codesSize = codes.size();
@@ -156,26 +222,27 @@ public class ExpandableDictionary extends Dictionary {
         Arrays.fill(mOutputChars, (char) 0);
         Arrays.fill(mFrequencies, 0);
 
-        int count = BinaryDictionary.getSuggestionsExpandableNative(
-        		mNativeDict, mInputCodes, codesSize,
-        		mOutputChars, mFrequencies,
-        		MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, -1, modeT9,
-        		nextLettersFrequencies,
-        		nextLettersFrequencies != null ? nextLettersFrequencies.length : 0);
-
-        // If there aren't sufficient suggestions, search for words by allowing wild cards at
-        // the different character positions. This feature is not ready for prime-time as we need
-        // to figure out the best ranking for such words compared to proximity corrections and
-        // completions.
-        if (count < 5) {
-        	for (int skip = 0; skip < codesSize; skip++) {
-        		int tempCount = BinaryDictionary.getSuggestionsExpandableNative(
-        				mNativeDict, mInputCodes, codesSize,
-        				mOutputChars, mFrequencies,
-        				MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, skip, modeT9, null, 0);
-        		count = Math.max(count, tempCount);
-        		if (tempCount > 0) break;
-        	}
+        int count;
+        // Don't let a rebuild swap the trie in the middle of the search
+        synchronized (this) {
+            count = BinaryDictionary.getSuggestionsExpandableNative(
+                    mNativeDict, mInputCodes, codesSize,
+                    mOutputChars, mFrequencies,
+                    MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, -1, modeT9,
+                    nextLettersFrequencies,
+                    nextLettersFrequencies != null ? nextLettersFrequencies.length : 0);
+
+            // If there aren't sufficient suggestions, search for words by allowing a wild card
+            // at any of the character positions, in a single walk of the trie. This feature is
+            // not ready for prime-time as we need to figure out the best ranking for such words
+            // compared to proximity corrections and completions.
+            if (count < 5) {
+                int tempCount = BinaryDictionary.getWildcardSuggestionsExpandableNative(
+                        mNativeDict, mInputCodes, codesSize,
+                        mOutputChars, mFrequencies,
+                        MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, modeT9);
+                count = Math.max(count, tempCount);
+            }
         }
 
         for (int j = 0; j < count; j++) {
@@ -196,7 +263,7 @@ public class ExpandableDictionary extends Dictionary {
         synchronized (mUpdatingLock) {
             // If we need to update, start off a background task
             if (mRequiresReload) startDictionaryLoadingTaskLocked();
-            if (mUpdatingDictionary) return false;
+            if (mUpdatingDictionary && !isRebuiltInBackground()) return false;
         }
         final int freq = BinaryDictionary.getWordFrequencyExpandableNative(mNativeDict,
         		// TODO: no toString()
@@ -207,20 +274,52 @@ public class ExpandableDictionary extends Dictionary {
     /**
      * Returns the word's frequency or -1 if not found
      */
-    public int getWordFrequency(CharSequence word) {
+    public synchronized int getWordFrequency(CharSequence word) {
     	int freq = BinaryDictionary.getWordFrequencyExpandableNative(mNativeDict,
     			// TODO: no toString()
     			word.toString());
     	return freq;
     }
 
-    public int increaseWordFrequency(CharSequence word) {
+    /**
+     * Same as above, without allocating a string
+     */
+    public synchronized int getWordFrequency(char[] word, int length) {
+    	return BinaryDictionary.getCharArrayFrequencyExpandableNative(mNativeDict, word, length);
+    }
+
+    public synchronized int increaseWordFrequency(CharSequence word) {
     	return BinaryDictionary.increaseWordFrequencyExpandableNative(mNativeDict,
     			// TODO: no toString()
     			word.toString());
     }
 
 
+    /**
+     * Packs the native trie once a bulk load is done, reclaiming the space left by growing nodes.
+     */
+    protected synchronized void compactDictionary() {
+        if (mNativeDict != 0) {
+            BinaryDictionary.compactExpandableNative(mNativeDict);
+        }
+    }
+
+    /**
+     * Writes the trie to a snapshot file, tagged with the version of its source.
+     */
+    protected synchronized boolean saveSnapshot(File file, long stamp) {
+        return mNativeDict != 0
+                && BinaryDictionary.saveExpandableNative(mNativeDict, file.getPath(), stamp);
+    }
+
+    /**
+     * Replaces the trie with a snapshot file, if it is intact and has the given stamp.
+     */
+    protected synchronized boolean loadSnapshot(File file, long stamp) {
+        return mNativeDict != 0
+                && BinaryDictionary.loadExpandableNative(mNativeDict, file.getPath(), stamp);
+    }
+
     protected void clearDictionary() {
     	//Log.d("SmartKeyboard", "Clearing dictionary");
     	if (mNativeDict != 0) {
@@ -229,7 +328,9 @@ public class ExpandableDictionary extends Dictionary {
     	}
     }
 
+    @Override
     public synchronized void close() {
+        discardRebuild();
         if (mNativeDict != 0) {
             BinaryDictionary.closeExpandableNative(mNativeDict);
             mNativeDict = 0;
@@ -246,6 +347,12 @@ public class ExpandableDictionary extends Dictionary {
         @Override
         protected Void doInBackground(Void... v) {
             loadDictionaryAsync();
+            if (isRebuiltInBackground()) {
+                // In case the subclass gave up before committing
+                discardRebuild();
+            } else {
+                compactDictionary();
+            }
             return null;
         }
 
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Write-behind journal of the word counts of the smart dictionary. The counts are kept in
+ * memory, so that a word typed several times is written once, and appended to a small log
+ * which is replayed if the process dies before they are written to the database.
+ */
+class FrequencyJournal {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	interface Writer {
+		/**
+		 * Writes the latest count of each word, returns false if it failed.
+		 */
+		boolean write(Map<String, Integer> counts);
+	}
+
+	private final File mFile;
+	private final HashMap<String, Integer> mPending = new HashMap<String, Integer>();
+	private final StringBuilder mLine = new StringBuilder(40);
+	private FileOutputStream mLog;
+	private boolean mReplayed;
+
+	FrequencyJournal(File file) {
+		mFile = file;
+	}
+
+	/**
+	 * Records the new count of a word.
+	 */
+	synchronized void record(String word, int count) {
+		mPending.put(word, count);
+		// A word can't contain a new line, but better not break the log
+		if (word.indexOf('\n') >= 0) return;
+		mLine.setLength(0);
+		mLine.append(count).append(' ').append(word).append('\n');
+		try {
+			if (mLog == null) {
+				openLog();
+			}
+			// No fsync, it only has to survive the process
+			mLog.write(mLine.toString().getBytes(UTF8));
+		} catch (IOException e) {
+			closeLog();
+		}
+	}
+
+	synchronized int size() {
+		return mPending.size();
+	}
+
+	/**
+	 * Reads back the log of a previous process the first time it is called, and returns the
+	 * counts which are not in the database yet.
+	 */
+	synchronized Map<String, Integer> replay() {
+		if (!mReplayed) {
+			mReplayed = true;
+			readLog();
+		}
+		return new HashMap<String, Integer>(mPending);
+	}
+
+	/**
+	 * Passes the pending counts to the writer, and forgets them if they were written.
+	 */
+	synchronized boolean flush(Writer writer) {
+		// The log is deleted below, so make sure its counts are written too
+		if (!mReplayed) {
+			mReplayed = true;
+			readLog();
+		}
+		if (mPending.isEmpty()) return true;
+		if (!writer.write(mPending)) return false;
+		mPending.clear();
+		closeLog();
+		mFile.delete();
+		return true;
+	}
+
+	synchronized void close() {
+		closeLog();
+	}
+
+	private void readLog() {
+		final byte[] data = readFile();
+		if (data == null) return;
+		final String log = new String(data, UTF8);
+		final HashMap<String, Integer> logged = new HashMap<String, Integer>();
+		int start = 0;
+		int end;
+		// The last line is ignored if it was cut by the death of the process
+		while ((end = log.indexOf('\n', start)) >= 0) {
+			final int space = log.indexOf(' ', start);
+			if (space > start && space < end - 1) {
+				try {
+					final int count = Integer.parseInt(log.substring(start, space));
+					logged.put(log.substring(space + 1, end), count);
+				} catch (NumberFormatException e) {
+					// Corrupted line, skip it
+				}
+			}
+			start = end + 1;
+		}
+		// Counts recorded since the start of this process are more recent
+		for (Map.Entry<String, Integer> entry : logged.entrySet()) {
+			if (!mPending.containsKey(entry.getKey())) {
+				mPending.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private byte[] readFile() {
+		final int length = (int) mFile.length();
+		if (length == 0) return null;
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(mFile);
+			final byte[] data = new byte[length];
+			int read = 0;
+			int n;
+			while (read < length && (n = in.read(data, read, length - read)) > 0) {
+				read += n;
+			}
+			return read == length ? data : null;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Ignore
+				}
+			}
+		}
+	}
+
+	private void openLog() throws IOException {
+		final byte[] log = readFile();
+		if (log != null && log[log.length - 1] != '\n') {
+			// Drop the line cut by a previous process, or it would be completed by ours
+			int end = log.length - 1;
+			while (end >= 0 && log[end] != '\n') end--;
+			final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+			try {
+				file.setLength(end + 1);
+			} finally {
+				file.close();
+			}
+		}
+		mLog = new FileOutputStream(mFile, true);
+	}
+
+	private void closeLog() {
+		if (mLog != null) {
+			try {
+				mLog.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+			mLog = null;
+		}
+	}
+}
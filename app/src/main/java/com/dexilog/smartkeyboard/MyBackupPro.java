@@ -117,7 +117,8 @@ public class MyBackupPro extends ContentProvider {
 	//Use this method if you want to do some extra work after the restore is done (most of the times this is not needed)
 	private void restoreDone()
 	{
-		
+		// The dictionaries must not load the snapshots of the replaced database
+		DictionarySnapshot.invalidateAll(getContext());
 	}
 	
 	
@@ -28,15 +28,39 @@ import android.util.Log;
 
 import com.dexilog.smartkeyboard.suggest.SmartDictionary;
 
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
 public class SmartDictionaryImpl extends ExpandableDictionary implements SmartDictionary {
 
 	private static final boolean DEBUG = false;
 	private static final String TAG = "SmartKeyboard";
 
+	private static final int MSG_RECORD = 0;
+	private static final int MSG_FLUSH = 1;
+	private static final int MSG_CLOSE = 2;
+	// Write the counts to the DB at most every 30s, or sooner if many words are pending
+	private static final long FLUSH_DELAY = 30000;
+	private static final int MAX_PENDING_WORDS = 200;
+
+	// One journal per language, so that a dictionary reopened while the previous one is
+	// still writing its counts shares the same log instead of racing on the file
+	private static final HashMap<String, FrequencyJournal> sJournals =
+			new HashMap<String, FrequencyJournal>();
+
 	String mLang;
 	boolean mActive;
 	ExpandableDictionary mFrequencies;
-	private Handler mHandler;
+	private volatile Handler mHandler;
+	// Set by close(), in case the child thread hasn't created the handler yet
+	private boolean mClosed;
+	private final Object mHandlerLock = new Object();
+	private final FrequencyJournal mJournal;
+	private final File mSnapshot;
+	// Generation of the counts in the snapshot, -1 if there is none
+	private volatile long mSnapshotGeneration = -1;
+	private volatile boolean mLoaded;
     private boolean mRequiresReload;
     private boolean mUpdatingDictionary;
     // Use this lock before touching mUpdatingDictionary & mRequiresDownload
@@ -46,6 +70,8 @@ public class SmartDictionaryImpl extends ExpandableDictionary implements SmartDi
 		super(context);
 		mLang = lang;
 		mActive = !lang.equals("ZH");
+		mJournal = getJournal(context, lang);
+		mSnapshot = DictionarySnapshot.getFile(context, DictionarySnapshot.FREQS, lang);
 		
 		// Start child thread
 		new LooperThread().start();
@@ -53,31 +79,78 @@ public class SmartDictionaryImpl extends ExpandableDictionary implements SmartDi
         loadDictionary();
 	}
 
-	
+	private static FrequencyJournal getJournal(Context context, String lang) {
+		synchronized (sJournals) {
+			FrequencyJournal journal = sJournals.get(lang);
+			if (journal == null) {
+				journal = new FrequencyJournal(new File(context.getFilesDir(),
+						"freqs_" + lang + ".log"));
+				sJournals.put(lang, journal);
+			}
+			return journal;
+		}
+	}
+
     @Override
     public void loadDictionaryAsync() {
 		// Fill the frequency cache
 		long startTime = System.currentTimeMillis();
 		
 		final int maxWordLen = getMaxWordLength();
-		Cursor cursor = getContext().getContentResolver().query(UserDictionaryProvider.CONTENT_URI_FREQS,
-				new String[] { "word", "count"}, "lang=?", new String[] { mLang }, null);
-		if (cursor != null) {
-			CharArrayBuffer wordBuf = new CharArrayBuffer(40);
-			if (cursor.moveToFirst()) {
-				do {
-					cursor.copyStringToBuffer(0, wordBuf);
-					int count = cursor.getInt(1);
-					//if (DEBUG) Log.d(TAG, "Add word " + word + " " + mLang + " " + Integer.toString(count));
-					// Avoid stack overflow
-					if (wordBuf.sizeCopied < maxWordLen) {
-						addCharArray(wordBuf.data, wordBuf.sizeCopied, count);
-					}
-				} while (cursor.moveToNext());
+		final Map<String, Integer> pending;
+		final long generation = DictionarySnapshot.getGeneration(getContext(),
+				DictionarySnapshot.FREQS);
+		final boolean fromSnapshot;
+		// Hold the journal so that the counts are either in the DB or still pending
+		synchronized (mJournal) {
+			pending = mJournal.replay();
+			fromSnapshot = loadSnapshot(mSnapshot, generation);
+			Cursor cursor = fromSnapshot ? null : getContext().getContentResolver().query(
+					UserDictionaryProvider.CONTENT_URI_FREQS,
+					new String[] { "word", "count"}, "lang=?", new String[] { mLang }, null);
+			if (cursor != null) {
+				CharArrayBuffer wordBuf = new CharArrayBuffer(40);
+				if (cursor.moveToFirst()) {
+					do {
+						cursor.copyStringToBuffer(0, wordBuf);
+						int count = cursor.getInt(1);
+						//if (DEBUG) Log.d(TAG, "Add word " + word + " " + mLang + " " + Integer.toString(count));
+						// Avoid stack overflow
+						if (wordBuf.sizeCopied < maxWordLen) {
+							addCharArray(wordBuf.data, wordBuf.sizeCopied, count);
+						}
+					} while (cursor.moveToNext());
+				}
+				cursor.close();
 			}
-			cursor.close();
+			// Counts not written yet, the native dictionary keeps the highest frequency
+			for (Map.Entry<String, Integer> entry : pending.entrySet()) {
+				if (entry.getKey().length() < maxWordLen) {
+					addWord(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		if (fromSnapshot || saveSnapshot(mSnapshot, generation)) {
+			mSnapshotGeneration = generation;
+		}
+		mLoaded = true;
+		if (!pending.isEmpty()) flush();
+		Log.i(TAG, "Loaded smart dictionary " + (fromSnapshot ? "snapshot " : "") + "in "
+				+ (System.currentTimeMillis() - startTime) + "msec");
+	}
+
+	/**
+	 * Saves the counts again once they have been written to the DB, so that the next start
+	 * can use the snapshot. Called on the looper thread.
+	 */
+	private void updateSnapshot() {
+		// Not before the dictionary is fully loaded
+		if (!mLoaded) return;
+		final long generation = DictionarySnapshot.getGeneration(getContext(),
+				DictionarySnapshot.FREQS);
+		if (generation != mSnapshotGeneration && saveSnapshot(mSnapshot, generation)) {
+			mSnapshotGeneration = generation;
 		}
-		Log.i(TAG, "Loaded smart dictionary in " + (System.currentTimeMillis() - startTime) + "msec");
 	}
 
 	@Override
@@ -91,72 +164,138 @@ public class SmartDictionaryImpl extends ExpandableDictionary implements SmartDi
 		
         if (!mActive) return;
         
-		if (mHandler != null) {
+		final Handler handler = mHandler;
+		if (handler != null) {
 			int count = increaseWordFrequency(word);
 			if (count == -1) {
 				addWord(word, 1);
 			}
 
 			// post a message to update the DB
-			Message message = mHandler.obtainMessage();
-			message.arg1 = count == -1 ? 0 : count;
-			message.obj = new Key(mLang, word);
-			mHandler.sendMessage(message);
+			handler.obtainMessage(MSG_RECORD, count == -1 ? 1 : count + 1, 0, word).sendToTarget();
+		}
+	}
+
+	@Override
+	public void flush() {
+		final Handler handler = mHandler;
+		if (handler != null) {
+			handler.sendEmptyMessage(MSG_FLUSH);
+		}
+	}
+
+	@Override
+	public void close() {
+		final Handler handler;
+		synchronized (mHandlerLock) {
+			mClosed = true;
+			handler = mHandler;
+			mHandler = null;
+		}
+		if (handler != null) {
+			// After the words already posted; the child thread closes the trie
+			handler.sendEmptyMessage(MSG_CLOSE);
+		} else {
+			super.close();
 		}
 	}
 
 	@Override
 	public int getWordCount(CharSequence word) {
+		if (!isReady()) return 0;
+		int count = getWordFrequency(word);
+		return count != -1 ? count : 0;
+	}
+
+	@Override
+	public int getWordCount(char[] word, int length) {
+		if (!isReady()) return 0;
+		int count = getWordFrequency(word, length);
+		return count != -1 ? count : 0;
+	}
+
+	private boolean isReady() {
         synchronized (mUpdatingLock) {
             // If we need to update, start off a background task
             if (mRequiresReload) startDictionaryLoadingTaskLocked();
             // Currently updating, don't return any results.
-            if (mUpdatingDictionary) return 0;
+            if (mUpdatingDictionary) return false;
         }
-		
-        if (!mActive) return 0;
-        
-		int count = getWordFrequency(word);
-		return count != -1 ? count : 0;
+        return mActive;
 	}
 
 
-	static class Key {
-		public String mLang;
-		public String mWord;
-		
-		public Key(String lang, String word) {
-			mLang = lang;
-			mWord = word;
-		}
- 	}
-	
-
 	class LooperThread extends Thread {
 		ContentResolver mContentResolver = getContext().getContentResolver();
-		ContentValues mValues = new ContentValues();
+
+		final FrequencyJournal.Writer mWriter = new FrequencyJournal.Writer() {
+			public boolean write(Map<String, Integer> counts) {
+				final ContentValues[] values = new ContentValues[counts.size()];
+				int i = 0;
+				for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+					final ContentValues value = new ContentValues();
+					value.put(UserDictionaryProvider.WORD, entry.getKey());
+					value.put(UserDictionaryProvider.LANG, mLang);
+					value.put(UserDictionaryProvider.COUNT, entry.getValue());
+					values[i++] = value;
+				}
+				try {
+					mContentResolver.bulkInsert(UserDictionaryProvider.CONTENT_URI_FREQS, values);
+					return true;
+				} catch (RuntimeException e) {
+					Log.e(TAG, "Cannot write word counts: " + e.getMessage());
+					return false;
+				}
+			}
+		};
 
 		public void run() {
 			Looper.prepare();
 
-			mHandler = new Handler() {
+			final Handler handler = new Handler() {
 				public void handleMessage(Message msg) {
-					Key key = (Key)msg.obj;
-					int count = msg.arg1;
-					if (DEBUG) Log.d(TAG, "handleMessage " + key.mWord + " " + Integer.toString(count));
-					// Update the DB
-					mValues.clear();
-					mValues.put(UserDictionaryProvider.WORD, key.mWord);
-					mValues.put(UserDictionaryProvider.LANG, key.mLang);
-					mValues.put(UserDictionaryProvider.COUNT, count + 1);
-					if (count == 0) {
-						mContentResolver.insert(UserDictionaryProvider.CONTENT_URI_FREQS, mValues);
+					switch (msg.what) {
+					case MSG_RECORD:
+						if (DEBUG) Log.d(TAG, "handleMessage " + msg.obj + " " + Integer.toString(msg.arg1));
+						mJournal.record((String) msg.obj, msg.arg1);
+						if (mJournal.size() >= MAX_PENDING_WORDS) {
+							flushJournal();
+						} else if (!hasMessages(MSG_FLUSH)) {
+							sendEmptyMessageDelayed(MSG_FLUSH, FLUSH_DELAY);
+						}
+						break;
+					case MSG_FLUSH:
+						flushJournal();
+						break;
+					case MSG_CLOSE:
+						// If the write fails, the log keeps the counts for the next load.
+						// No snapshot: a reopened dictionary may share the journal, so
+						// this trie can miss some of the counts just written
+						removeMessages(MSG_FLUSH);
+						mJournal.flush(mWriter);
+						getLooper().quit();
+						SmartDictionaryImpl.super.close();
+						break;
+					}
+				}
+
+				private void flushJournal() {
+					removeMessages(MSG_FLUSH);
+					if (!mJournal.flush(mWriter)) {
+						// Try again later, the log keeps the counts meanwhile
+						sendEmptyMessageDelayed(MSG_FLUSH, FLUSH_DELAY);
 					} else {
-						mContentResolver.update(UserDictionaryProvider.CONTENT_URI_FREQS, mValues,
-								"WORD=? AND LANG=?", new String[] { key.mWord, key.mLang });
+						updateSnapshot();
 					}
 				}
 			};
+			synchronized (mHandlerLock) {
+				// Closed before this thread started
+				if (mClosed) return;
+				mHandler = handler;
+			}
+			// Write what a previous process left in the log
+			handler.sendEmptyMessageDelayed(MSG_FLUSH, FLUSH_DELAY);
 
 			Looper.loop();
 		}
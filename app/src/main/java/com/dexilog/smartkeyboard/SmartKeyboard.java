@@ -41,6 +41,7 @@ import android.net.Uri;
 import android.os.Debug;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.os.Vibrator;
 import android.preference.PreferenceManager;
 import android.speech.RecognizerIntent;
@@ -66,6 +67,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
+import com.dexilog.smartkeyboard.input.CachedInputConnection;
 import com.dexilog.smartkeyboard.input.InputConnectionProvider;
 import com.dexilog.smartkeyboard.input.InputController;
 import com.dexilog.smartkeyboard.keyboard.KeyboardFactory;
@@ -142,6 +144,7 @@ public class SmartKeyboard extends InputMethodService implements
 	private View mInputView;
 	private CandidateViewContainer mCandidateViewContainer;
 	public Suggest mSuggest;
+	private DictionaryFactoryImpl mDictionaryFactory;
 	public CompletionInfo[] mCompletions;
 
 	public AlertDialog mOptionsDialog;
@@ -252,8 +255,13 @@ public class SmartKeyboard extends InputMethodService implements
 	// For each word, a list of potential replacements, usually from voice.
 	public Map<String, List<CharSequence>> mWordToSuggestions = new HashMap<String, List<CharSequence>>();
 
-	private ArrayList<WordAlternatives> mWordHistory = new ArrayList<WordAlternatives>();
+	private WordHistory mWordHistory = new WordHistory();
 	InputController mInputController;
+	// Wraps the connection of the editor to avoid reading the text around the cursor again
+	private CachedInputConnection mCachedInputConnection;
+	// Delays of the suggestions while typing, and of the corrections when moving the cursor
+	private final SuggestionScheduler mSuggestionScheduler = new SuggestionScheduler(0, 100, 250);
+	private final SuggestionScheduler mOldSuggestionScheduler = new SuggestionScheduler(100, 300, 500);
 
 	private static final HashSet<Integer> PUNCTUATION_CHARACTERS = new HashSet<Integer>(
 			16);
@@ -270,9 +278,12 @@ public class SmartKeyboard extends InputMethodService implements
 			case MSG_UPDATE_SUGGESTIONS:
 				suggestController.updateSuggestions();
 				break;
-			case MSG_UPDATE_OLD_SUGGESTIONS:
+			case MSG_UPDATE_OLD_SUGGESTIONS: {
+				final long start = SystemClock.uptimeMillis();
 				setOldSuggestions();
+				mOldSuggestionScheduler.onComputed(SystemClock.uptimeMillis() - start);
 				break;
+			}
 			case MSG_UPDATE_SHIFT_STATE:
 				updateShiftKeyStateFromEditorInfo();
 				break;
@@ -468,6 +479,7 @@ public class SmartKeyboard extends InputMethodService implements
 				& mShowSuggestions;
 		final String langCode = curLanguage.substring(0, 2);
 		mSuggest.loadDict(langCode);
+		mDictionaryFactory.prewarm(mKeyboardSwitcher.getLikelyNextLangCode());
 		if (contactsOn && mContactsDictionary == null) {
 			mContactsDictionary = new ContactsDictionary(SmartKeyboard.this);
 		}
@@ -532,13 +544,16 @@ public class SmartKeyboard extends InputMethodService implements
 		mInputController = new InputController(this, apostropheSeparator);
 
 		ExpandableDictionary autoDictionary = new AutoDictionary(this);
-		mSuggest = new Suggest(new DictionaryFactoryImpl(this));
+		mDictionaryFactory = new DictionaryFactoryImpl(this);
+		mSuggest = new Suggest(mDictionaryFactory);
 		suggestController = new SuggestController(this, mSuggest, mInputController, autoDictionary);
+		suggestController.startWorker();
 		suggestController.mAutoTextDictionary = new AutoTextDictionary(this);
 		mSuggest.setCorrectionMode(mCorrectionMode);
 		mSuggest.setContactsDictionary(mContactsDictionary);
 		mSuggest.setAutoDictionary(autoDictionary);
 		mSuggest.setAutoTextDictionary(suggestController.mAutoTextDictionary);
+		mSuggest.setParallelLookups(Runtime.getRuntime().availableProcessors() > 1);
 		mOrientation = conf.orientation;
 
 		// Get method to retrieve rotation (Android 2.2 only)
@@ -620,11 +635,27 @@ public class SmartKeyboard extends InputMethodService implements
 		// mUserDictionary.close();
 		if (mContactsDictionary != null)
 			mContactsDictionary.close();
+		if (mSuggest != null)
+			mSuggest.setParallelLookups(false);
+		if (suggestController != null)
+			suggestController.stopWorker();
 		unregisterReceiver(mSpeechReceiver);
 		unregisterReceiver(mReceiver);
 		super.onDestroy();
 	}
 
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		// Not when the keyboard is only hidden, the languages are kept for the next switch
+		if (level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_RUNNING_CRITICAL
+				|| level >= TRIM_MEMORY_BACKGROUND) {
+			if (mDictionaryFactory != null) {
+				mDictionaryFactory.trimMemory();
+			}
+		}
+	}
+
 	@Override
 	public void onConfigurationChanged(Configuration conf) {
 
@@ -752,6 +783,11 @@ public class SmartKeyboard extends InputMethodService implements
 
 		setLangStatus();
 
+		final InputConnection ic = getCurrentInputConnection();
+		if (ic != null) {
+			mCachedInputConnection.onStartInput(attribute, restarting);
+		}
+
 		// If restarting and using hard keyboard, don't do anything
 		if (restarting) {
 			return;
@@ -838,6 +874,7 @@ public class SmartKeyboard extends InputMethodService implements
 		mWordToSuggestions.clear();
 		// Make sure to reset this dangerous flag!
 		suggestController.mWaitingForSuggestions = false;
+		suggestController.cancelSuggestions();
 		setCandidatesViewShown(false);
 		if (suggestController.mCandidateView != null)
 			suggestController.mCandidateView.setSuggestions(null, false, false, false);
@@ -1080,6 +1117,9 @@ public class SmartKeyboard extends InputMethodService implements
 		super.onFinishInput();
 
 		voiceInputController.cancelVoiceInput(this);
+		if (mSuggest != null) {
+			mSuggest.flushWordCounts();
+		}
 		final KeyboardView mKeyboardView = mKeyboardSwitcher.getMainKeyboardView();
 		if (mKeyboardView != null) {
 			mKeyboardView.closing();
@@ -1097,6 +1137,24 @@ public class SmartKeyboard extends InputMethodService implements
 	@Override
 	public void onUpdateExtractedText(int token, ExtractedText text) {
 		super.onUpdateExtractedText(token, text);
+		// The text may have been changed by the editor itself
+		if (mCachedInputConnection != null) {
+			mCachedInputConnection.invalidate();
+		}
+	}
+
+	@Override
+	public InputConnection getCurrentInputConnection() {
+		final InputConnection ic = super.getCurrentInputConnection();
+		if (ic == null) {
+			return null;
+		}
+		if (mCachedInputConnection == null) {
+			mCachedInputConnection = new CachedInputConnection(ic);
+		} else if (mCachedInputConnection.getTarget() != ic) {
+			mCachedInputConnection.setTarget(ic);
+		}
+		return mCachedInputConnection;
 	}
 
 	@Override
@@ -1116,6 +1174,10 @@ public class SmartKeyboard extends InputMethodService implements
 
 		super.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd,
 				candidatesStart, candidatesEnd);
+		if (mCachedInputConnection != null) {
+			mCachedInputConnection.onUpdateSelection(newSelStart, newSelEnd, candidatesStart,
+					candidatesEnd);
+		}
 
 		// If the current selection in the text view changes, we should
 		// clear whatever candidate text we have.
@@ -1849,7 +1911,7 @@ public class SmartKeyboard extends InputMethodService implements
 						|| mUseSpaceForNextWord;
 			}
 			// Override autocorrect to make auto-text work
-			if (mSuggest.wasAutoTextFound()) {
+			if (suggestController.wasAutoTextFound()) {
 				autoCorrect = true;
 			}
 
@@ -1971,9 +2033,7 @@ public class SmartKeyboard extends InputMethodService implements
 		// Make a copy of the CharSequence, since it is/could be a mutable
 		// CharSequence
 		final String resultCopy = result.toString();
-		TypedWordAlternatives entry = new TypedWordAlternatives(this, resultCopy,
-				new WordComposerImpl((WordComposerImpl)wordComposer));
-		mWordHistory.add(entry);
+		mWordHistory.add(resultCopy, wordComposer);
 	}
 
 	public void postUpdateSuggestions() {
@@ -1983,15 +2043,19 @@ public class SmartKeyboard extends InputMethodService implements
 		// when starting a
 		// new word
 		suggestController.mWaitingForSuggestions = true;
+		// The suggestions being computed are for the previous word
+		suggestController.cancelSuggestions();
 		mHandler.removeMessages(MSG_UPDATE_SUGGESTIONS);
 		mHandler.sendMessageDelayed(mHandler
-				.obtainMessage(MSG_UPDATE_SUGGESTIONS), 100);
+				.obtainMessage(MSG_UPDATE_SUGGESTIONS),
+				mSuggestionScheduler.onRequest(SystemClock.uptimeMillis()));
 	}
 
 	private void postUpdateOldSuggestions() {
 		mHandler.removeMessages(MSG_UPDATE_OLD_SUGGESTIONS);
 		mHandler.sendMessageDelayed(mHandler
-				.obtainMessage(MSG_UPDATE_OLD_SUGGESTIONS), 300);
+				.obtainMessage(MSG_UPDATE_OLD_SUGGESTIONS),
+				mOldSuggestionScheduler.onRequest(SystemClock.uptimeMillis()));
 	}
 
 	public boolean isPredictionOn() {
@@ -2101,12 +2165,17 @@ public class SmartKeyboard extends InputMethodService implements
 	}
 
 	public void forceUpdateSuggestions() {
-		if (mHandler.hasMessages(MSG_UPDATE_SUGGESTIONS)) {
+		if (mHandler.hasMessages(MSG_UPDATE_SUGGESTIONS)
+				|| suggestController.isComputingSuggestions()) {
 			mHandler.removeMessages(MSG_UPDATE_SUGGESTIONS);
-			suggestController.updateSuggestions();
+			suggestController.updateSuggestionsNow();
 		}
 	}
 
+	void onSuggestionsComputed(long duration) {
+		mSuggestionScheduler.onComputed(duration);
+	}
+
 	public void pickSuggestionManually(int index, CharSequence suggestion) {
         final boolean correcting = TextEntryState.isCorrecting();
 		InputConnection ic = getCurrentInputConnection();
@@ -2206,17 +2275,7 @@ public class SmartKeyboard extends InputMethodService implements
 	 */
 	private boolean applyTypedAlternatives(EditingUtil.SelectedWord touching) {
 		// If we didn't find a match, search for result in typed word history
-		WordComposer foundWord = null;
-		WordAlternatives alternatives = null;
-		for (WordAlternatives entry : mWordHistory) {
-			if (TextUtils.equals(entry.getChosenWord(), touching.word)) {
-				if (entry instanceof TypedWordAlternatives) {
-					foundWord = ((TypedWordAlternatives) entry).word;
-				}
-				alternatives = entry;
-				break;
-			}
-		}
+		WordComposer foundWord = mWordHistory.find(touching.word);
 		// If we didn't find a match, at least suggest completions
 		// XXX false false
 		if (foundWord == null
@@ -2231,12 +2290,8 @@ public class SmartKeyboard extends InputMethodService implements
 			// foundWord.setFirstCharCapitalized(Character.isUpperCase(touching.word.charAt(0)));
 		}
 		// Found a match, show suggestions
-		if (foundWord != null || alternatives != null) {
-			if (alternatives == null) {
-				alternatives = new TypedWordAlternatives(this, touching.word,
-						foundWord);
-			}
-			showCorrections(alternatives);
+		if (foundWord != null) {
+			showCorrections(new TypedWordAlternatives(this, touching.word, foundWord));
 			mInputController.resetWordComposer((WordComposerImpl)foundWord);
 			return true;
 		}
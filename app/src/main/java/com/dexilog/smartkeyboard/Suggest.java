@@ -34,10 +34,20 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * This class loads a dictionary and provides a list of suggestions for a given sequence of 
  * characters. This includes corrections and completions.
+ * The suggestions are computed on a worker thread, so the public methods are synchronized;
+ * callers reading the state of the last lookup must hold the lock across the calls.
  * @hide pending API Council Approval
  */
 public class Suggest implements Dictionary.WordCallback {
@@ -49,6 +59,9 @@ public class Suggest implements Dictionary.WordCallback {
     public static final int CORRECTION_BASIC = 1;
     public static final int CORRECTION_FULL = 2;
 
+    // Minimum number of words buffered per dictionary in parallel lookups
+    private static final int MIN_BUFFERED_WORDS = 64;
+
     private DictionaryFactory mFactory;
     public Dictionary mMainDict;
     private UserDictionary mUserDictionary;
@@ -65,7 +78,7 @@ public class Suggest implements Dictionary.WordCallback {
     // 1280 is the size of the BASE_CHARS array in ExpandableDictionary, which is a basic set of
     // latin characters.
     private int[] mNextLettersFrequencies = new int[1280];
-    private ArrayList<CharSequence> mSuggestions = new ArrayList<CharSequence>();
+    private ArrayList<CharSequence> mSuggestions = new ArrayList<CharSequence>(mPrefMaxSuggestions + 8);
     //private boolean mIncludeTypedWordIfValid;
     private ArrayList<CharSequence> mStringPool = new ArrayList<CharSequence>();
     private boolean mHaveCorrection;
@@ -87,6 +100,20 @@ public class Suggest implements Dictionary.WordCallback {
     private boolean mIsJapanese;
     private boolean mNoEnglishDic = false;
     private AutoTextCallback mAutoTextCB = new AutoTextCallback();
+    // Scratch buffers for addWord(), so that ranking does not allocate
+    private StringBuilder mConverterInput = new StringBuilder(32);
+    private char[] mConvertedWord = new char[32];
+    private char[] mLowerWord = new char[32];
+    // The default locale has its own case mappings, so the per-char ones can't be used
+    private boolean mLocaleCasing;
+
+    // Parallel lookups: each dictionary fills its own buffer on the executor, and the buffers
+    // are then passed to addWord() on the calling thread, in the same order as sequential lookups
+    private ExecutorService mLookupExecutor;
+    private LookupTask mUserLookup = new LookupTask();
+    private LookupTask mContactsLookup = new LookupTask();
+    private LookupTask mMainLookup = new LookupTask();
+    private AutoTextLookupTask mAutoTextLookup = new AutoTextLookupTask();
 
     // TODO: Remove these member variables by passing more context to addWord() callback method
     private boolean mIsFirstCharCapitalized;
@@ -100,28 +127,63 @@ public class Suggest implements Dictionary.WordCallback {
         }
     }
     
-    public void setT9LengthPriority(boolean t9LengthPriority) {
+    public synchronized void setT9LengthPriority(boolean t9LengthPriority) {
     	mT9LengthPriority = t9LengthPriority;
     }
     
-    public void useSmartDictionary(boolean useSmartDic) {
+    public synchronized void useSmartDictionary(boolean useSmartDic) {
     	mUseSmartDic = useSmartDic;
     }
+
+    /**
+     * Run the lookups of the user, contacts, main and autotext dictionaries concurrently.
+     * Only worth it on multi-core devices.
+     */
+    public synchronized void setParallelLookups(boolean parallelLookups) {
+        if (parallelLookups && mLookupExecutor == null) {
+            mLookupExecutor = Executors.newFixedThreadPool(4, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SuggestLookup");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            allocateLookupBuffers();
+        } else if (!parallelLookups && mLookupExecutor != null) {
+            mLookupExecutor.shutdown();
+            mLookupExecutor = null;
+        }
+    }
+
+    private void allocateLookupBuffers() {
+        final int capacity = Math.max(MIN_BUFFERED_WORDS, mPrefMaxSuggestions);
+        if (mMainLookup.mBuffer != null && mMainLookup.mBuffer.getCapacity() == capacity) {
+            return;
+        }
+        mUserLookup.mBuffer = new WordBuffer(capacity);
+        mUserLookup.mNextLetters = new int[mNextLettersFrequencies.length];
+        mContactsLookup.mBuffer = new WordBuffer(capacity);
+        mContactsLookup.mNextLetters = new int[mNextLettersFrequencies.length];
+        mMainLookup.mBuffer = new WordBuffer(capacity);
+        mMainLookup.mNextLetters = mNextLettersFrequencies;
+        mAutoTextLookup.mBuffer = new WordBuffer(capacity);
+    }
     
-    public void addUserWord(String word) {
+    public synchronized void addUserWord(String word) {
     	if (mUserDictionary == null) return;
     	if (!mUserDictionary.isValidWord(word)) {
     		mUserDictionary.addWord(word, 128);
     	}
     }
     
-    public void tryReloadDic() {
+    public synchronized void tryReloadDic() {
     	if (mMainDict == null) {
     		loadMainDict(mCurLang);
     	}
     }
     
-    public void loadDict(String lang) {
+    public synchronized void loadDict(String lang) {
     	if ((mCurLang == null || !mCurLang.equals(lang))) {
             if (!lang.equals("EM")) {
                 try {
@@ -157,15 +219,15 @@ public class Suggest implements Dictionary.WordCallback {
     	}
     }
     
-    public boolean hasNoEnglishDic() {
+    public synchronized boolean hasNoEnglishDic() {
     	return mNoEnglishDic;
     }
 
-    public int getCorrectionMode() {
+    public synchronized int getCorrectionMode() {
         return mCorrectionMode;
     }
 
-    public void setCorrectionMode(int mode) {
+    public synchronized void setCorrectionMode(int mode) {
         mCorrectionMode = mode;
     }
     
@@ -173,16 +235,16 @@ public class Suggest implements Dictionary.WordCallback {
     /**
      * Sets an optional contacts dictionary resource to be loaded.
      */
-    public void setContactsDictionary(Dictionary userDictionary) {
+    public synchronized void setContactsDictionary(Dictionary userDictionary) {
         mContactsDictionary = userDictionary;
     }
     
-    public void setAutoDictionary(Dictionary autoDictionary) {
+    public synchronized void setAutoDictionary(Dictionary autoDictionary) {
         mAutoDictionary = autoDictionary;
     }
     
     
-    public void setAutoTextDictionary(AutoTextDictionary autoTextDictionary) {
+    public synchronized void setAutoTextDictionary(AutoTextDictionary autoTextDictionary) {
         mAutoTextDictionary = autoTextDictionary;
     }
 
@@ -192,7 +254,7 @@ public class Suggest implements Dictionary.WordCallback {
      * @param maxSuggestions
      * @throws IllegalArgumentException if the number is out of range
      */
-    public void setMaxSuggestions(int maxSuggestions) {
+    public synchronized void setMaxSuggestions(int maxSuggestions) {
       /*  if (maxSuggestions < 1 || maxSuggestions > 100) {
             throw new IllegalArgumentException("maxSuggestions must be between 1 and 100");
         }*/
@@ -202,11 +264,16 @@ public class Suggest implements Dictionary.WordCallback {
         }
         mPrefMaxSuggestions = maxSuggestions;
         mPriorities = new int[mPrefMaxSuggestions];
+        // Room for the typed word and autotext suggestions on top of the ranked ones
+        mSuggestions.ensureCapacity(mPrefMaxSuggestions + 8);
         collectGarbage();
         while (mStringPool.size() < mPrefMaxSuggestions) {
             StringBuilder sb = new StringBuilder(32);
             mStringPool.add(sb);
         }
+        if (mLookupExecutor != null) {
+            allocateLookupBuffers();
+        }
     }
 
     private boolean haveSufficientCommonality(String original, CharSequence suggestion) {
@@ -245,11 +312,12 @@ public class Suggest implements Dictionary.WordCallback {
      * probability.
      * @return list of suggestions.
      */
-    public List<CharSequence> getSuggestions(WordComposer wordComposer, boolean modeT9,
+    public synchronized List<CharSequence> getSuggestions(WordComposer wordComposer, boolean modeT9,
                                              boolean isT9prediction, Converter converter) {
         mHaveCorrection = false;
         mIsFirstCharCapitalized = wordComposer.isCapitalized();
         mIsAllUpperCase = wordComposer.isAllUpperCase();
+        mLocaleCasing = hasLocaleCasing();
         collectGarbage();
         Arrays.fill(mPriorities, 0);
         mTypedWordFreq = 0;
@@ -281,20 +349,30 @@ public class Suggest implements Dictionary.WordCallback {
 
         // Search the dictionary only if there are at least 2 characters
         final int wordSize = wordComposer.size();
-        if (wordSize > 1 || mIsChinese) {
+        final boolean searchDictionaries = wordSize > 1 || mIsChinese;
+        final boolean parallel = mLookupExecutor != null
+                && lookupInParallel(wordComposer, modeT9, searchDictionaries);
+        if (searchDictionaries) {
             if (mUserDictionary != null || mContactsDictionary != null) {
-                if (mUserDictionary != null) {
-                    mUserDictionary.getWords(wordComposer, this, modeT9, mNextLettersFrequencies);
-                }
-                if (mContactsDictionary != null) {
-                    mContactsDictionary.getWords(wordComposer, this, modeT9, mNextLettersFrequencies);
+                if (parallel) {
+                    mUserLookup.mBuffer.replay(this);
+                    mContactsLookup.mBuffer.replay(this);
+                } else {
+                    if (mUserDictionary != null) {
+                        mUserDictionary.getWords(wordComposer, this, modeT9, mNextLettersFrequencies);
+                    }
+                    if (mContactsDictionary != null) {
+                        mContactsDictionary.getWords(wordComposer, this, modeT9, mNextLettersFrequencies);
+                    }
                 }
 
                 if (mSuggestions.size() > 0 && isValidWord(mOriginalWord, false, false)) {
                     mHaveCorrection = true;
                 }
             }
-            if (mMainDict != null) {
+            if (parallel) {
+                mMainLookup.mBuffer.replay(this);
+            } else if (mMainDict != null) {
             	mMainDict.getWords(wordComposer, this, modeT9, mNextLettersFrequencies);
             }
             if (mCorrectionMode == CORRECTION_FULL && mSuggestions.size() > 0) {
@@ -319,7 +397,10 @@ public class Suggest implements Dictionary.WordCallback {
         
         // Add custom autotext
         mAutoTextFound = false;
-        if (mAutoTextDictionary != null) {
+        if (parallel) {
+            mAutoTextLookup.mBuffer.replay(mAutoTextCB);
+            mAutoTextFound = mAutoTextLookup.mFound;
+        } else if (mAutoTextDictionary != null) {
             mAutoTextFound = mAutoTextDictionary.getWords(mLowerOriginalWord, mAutoTextCB);
         }
         
@@ -334,6 +415,79 @@ public class Suggest implements Dictionary.WordCallback {
         return mSuggestions;
     }
 
+    /**
+     * Fill the lookup buffers from all the dictionaries at once. Returns false if there are
+     * less than two lookups to do, or if they could not be completed, in which case the caller
+     * must do them sequentially.
+     */
+    private boolean lookupInParallel(WordComposer wordComposer, boolean modeT9,
+                                     boolean searchDictionaries) {
+        final UserDictionary userDict = searchDictionaries ? mUserDictionary : null;
+        final Dictionary contactsDict = searchDictionaries ? mContactsDictionary : null;
+        final Dictionary mainDict = searchDictionaries ? mMainDict : null;
+        final AutoTextDictionary autoTextDict = mAutoTextDictionary;
+        int lookupCount = 0;
+        if (userDict != null) lookupCount++;
+        if (contactsDict != null) lookupCount++;
+        if (mainDict != null) lookupCount++;
+        if (autoTextDict != null) lookupCount++;
+        if (lookupCount < 2) {
+            // Not worth the executor hops, the caller looks it up directly
+            return false;
+        }
+        // Also clear the buffers of the lookups not submitted, since they are all replayed
+        mUserLookup.prepare(userDict, wordComposer, modeT9);
+        mContactsLookup.prepare(contactsDict, wordComposer, modeT9);
+        mMainLookup.prepare(mainDict, wordComposer, modeT9);
+        mAutoTextLookup.prepare(autoTextDict, mLowerOriginalWord);
+
+        final ArrayList<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(lookupCount);
+        boolean success = true;
+        boolean interrupted = false;
+        try {
+            if (userDict != null) {
+                futures.add(mLookupExecutor.submit(mUserLookup));
+            }
+            if (contactsDict != null) {
+                futures.add(mLookupExecutor.submit(mContactsLookup));
+            }
+            if (mainDict != null) {
+                futures.add(mLookupExecutor.submit(mMainLookup));
+            }
+            if (autoTextDict != null) {
+                futures.add(mLookupExecutor.submit(mAutoTextLookup));
+            }
+        } catch (RejectedExecutionException e) {
+            success = false;
+        }
+        // Always wait for the submitted lookups, since they use the dictionaries' own buffers
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                i--;
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Dictionary lookup failed", e.getCause());
+                success = false;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (!success) {
+            Arrays.fill(mNextLettersFrequencies, 0);
+            return false;
+        }
+        final int[] nextLetters = mNextLettersFrequencies;
+        final int[] userNextLetters = mUserLookup.mNextLetters;
+        final int[] contactsNextLetters = mContactsLookup.mNextLetters;
+        for (int i = 0; i < nextLetters.length; i++) {
+            nextLetters[i] += userNextLetters[i] + contactsNextLetters[i];
+        }
+        return true;
+    }
+
     private boolean handleT9SingleLetterWords(WordComposer wordComposer, boolean isT9prediction) {
         boolean singleLetterT9;
         singleLetterT9 = true;
@@ -406,11 +560,11 @@ public class Suggest implements Dictionary.WordCallback {
     }
 
     // Call after getSuggestions
-    public boolean wasAutoTextFound() {
+    public synchronized boolean wasAutoTextFound() {
     	return mAutoTextFound;
     }
 
-    public int[] getNextLettersFrequencies() {
+    public synchronized int[] getNextLettersFrequencies() {
         return mNextLettersFrequencies;
     }
 
@@ -447,7 +601,7 @@ public class Suggest implements Dictionary.WordCallback {
         }
     }
 
-    public boolean hasMinimalCorrection() {
+    public synchronized boolean hasMinimalCorrection() {
         return mHaveCorrection;
     }
 
@@ -490,19 +644,17 @@ public class Suggest implements Dictionary.WordCallback {
         StringBuilder sb = poolSize > 0 ? (StringBuilder) mStringPool.remove(poolSize - 1) 
                 : new StringBuilder(32);
         sb.setLength(0);
-        StringBuilder origWord = sb;
+        // Word looked up in the smart dictionary (before hangul conversion)
+        char[] origWord = word;
+        int origOffset = offset;
+        int origLength = length;
         if (mConverter != null) {
         	// For korean convert to hangul
-        	// TODO use pool
-        	StringBuilder orig = new StringBuilder();
-        	orig.append(word, offset, length);
-        	origWord = orig;
-        	mConverter.convert(orig, sb);
-        	word = sb.toString().toCharArray();
+        	word = convertWord(word, offset, length, sb);
         	offset = 0;
         	length = sb.length();
         } else if (mIsAllUpperCase) {
-            sb.append(new String(word, offset, length).toUpperCase());
+            appendUpperCase(word, offset, length, mLocaleCasing, sb);
         } else if (mIsFirstCharCapitalized) {
             sb.append(Character.toUpperCase(word[offset]));
             if (length > 1) {
@@ -514,9 +666,9 @@ public class Suggest implements Dictionary.WordCallback {
         
         // No smart dic for chinese at the moment
         if (mUseSmartDic && !mIsChinese) {
-        	int count = mSmartDictionary.getWordCount(origWord.toString().toLowerCase());
+        	int count = getSmartWordCount(origWord, origOffset, origLength);
         	freq = 1 + freq / (32 * length) + count;
-        	if (DEBUG) Log.d(TAG, "freq " + origWord.toString() + ": " + Integer.toString(freq));
+        	if (DEBUG) Log.d(TAG, "freq " + new String(origWord, origOffset, origLength) + ": " + Integer.toString(freq));
         }
         final boolean t9LengthPriority = mModeT9 && mT9LengthPriority;
         
@@ -610,7 +762,73 @@ public class Suggest implements Dictionary.WordCallback {
         return true;
     }
 
-    public boolean isValidWord(final CharSequence word, boolean checkFrequency, boolean modeT9) {
+    /**
+     * Converts the word into the given builder, and returns its characters in a shared buffer.
+     */
+    private char[] convertWord(char[] word, int offset, int length, StringBuilder output) {
+        final StringBuilder input = mConverterInput;
+        input.setLength(0);
+        input.append(word, offset, length);
+        mConverter.convert(input, output);
+        final int outputLength = output.length();
+        if (mConvertedWord.length < outputLength) {
+            mConvertedWord = new char[outputLength * 2];
+        }
+        output.getChars(0, outputLength, mConvertedWord, 0);
+        return mConvertedWord;
+    }
+
+    /**
+     * Returns true if the default locale changes the case mappings of some letters, like the
+     * dotted and dotless i in Turkish. Only String applies them.
+     */
+    private static boolean hasLocaleCasing() {
+        final String language = Locale.getDefault().getLanguage();
+        return language.equals("tr") || language.equals("az") || language.equals("lt");
+    }
+
+    private static void appendUpperCase(char[] word, int offset, int length, boolean localeCasing,
+                                        StringBuilder output) {
+        if (localeCasing) {
+            output.append(new String(word, offset, length).toUpperCase());
+            return;
+        }
+        final int start = output.length();
+        for (int i = offset; i < offset + length; i++) {
+            final char c = word[i];
+            final char upper = Character.toUpperCase(c);
+            if (upper == c && Character.isLowerCase(c)) {
+                // No single char upper case (e.g. sharp s), let String handle it
+                output.setLength(start);
+                output.append(new String(word, offset, length).toUpperCase());
+                return;
+            }
+            output.append(upper);
+        }
+    }
+
+    private int getSmartWordCount(char[] word, int offset, int length) {
+        if (mLocaleCasing) {
+            // Same keys as SuggestController.getLowerCaseWord()
+            return mSmartDictionary.getWordCount(new String(word, offset, length).toLowerCase());
+        }
+        if (mLowerWord.length < length) {
+            mLowerWord = new char[length * 2];
+        }
+        final char[] lowerWord = mLowerWord;
+        for (int i = 0; i < length; i++) {
+            final char c = word[offset + i];
+            if (c == '\u0130' || c == '\u03A3') {
+                // Context-dependent lower case (dotted I, final sigma)
+                return mSmartDictionary.getWordCount(
+                        new String(word, offset, length).toLowerCase());
+            }
+            lowerWord[i] = Character.toLowerCase(c);
+        }
+        return mSmartDictionary.getWordCount(lowerWord, length);
+    }
+
+    public synchronized boolean isValidWord(final CharSequence word, boolean checkFrequency, boolean modeT9) {
     	final int wordLength = word.length();
         if (word == null || wordLength == 0) {
             return false;
@@ -642,9 +860,15 @@ public class Suggest implements Dictionary.WordCallback {
         return isValid;
     }
     
-    public void increaseWordCount(String word) {
+    public synchronized void increaseWordCount(String word) {
     	mSmartDictionary.increaseWordCount(word);
     }
+
+    public synchronized void flushWordCounts() {
+    	if (mSmartDictionary != null) {
+    		mSmartDictionary.flush();
+    	}
+    }
     
     private void collectGarbage() {
         int poolSize = mStringPool.size();
@@ -663,6 +887,59 @@ public class Suggest implements Dictionary.WordCallback {
         mSuggestions.clear();
     }
   
+    private static class LookupTask implements Callable<Boolean> {
+        WordBuffer mBuffer;
+        int[] mNextLetters;
+        private Dictionary mDictionary;
+        private UserDictionary mUserDictionary;
+        private WordComposer mComposer;
+        private boolean mModeT9;
+
+        void prepare(Dictionary dictionary, WordComposer composer, boolean modeT9) {
+            mDictionary = dictionary;
+            mUserDictionary = null;
+            mComposer = composer;
+            mModeT9 = modeT9;
+            mBuffer.clear();
+            Arrays.fill(mNextLetters, 0);
+        }
+
+        void prepare(UserDictionary dictionary, WordComposer composer, boolean modeT9) {
+            prepare((Dictionary) null, composer, modeT9);
+            mUserDictionary = dictionary;
+        }
+
+        public Boolean call() {
+            if (mDictionary != null) {
+                mDictionary.getWords(mComposer, mBuffer, mModeT9, mNextLetters);
+            } else if (mUserDictionary != null) {
+                mUserDictionary.getWords(mComposer, mBuffer, mModeT9, mNextLetters);
+            }
+            return true;
+        }
+    }
+
+    private static class AutoTextLookupTask implements Callable<Boolean> {
+        WordBuffer mBuffer;
+        boolean mFound;
+        private AutoTextDictionary mDictionary;
+        private String mWord;
+
+        void prepare(AutoTextDictionary dictionary, String word) {
+            mDictionary = dictionary;
+            mWord = word;
+            mFound = false;
+            mBuffer.clear();
+        }
+
+        public Boolean call() {
+            if (mDictionary != null) {
+                mFound = mDictionary.getWords(mWord, mBuffer);
+            }
+            return mFound;
+        }
+    }
+
     // Callback for Custom Autotext
     public class AutoTextCallback implements Dictionary.WordCallback {
         public boolean addWord(char[] word, int offset, int length, int freq) {
@@ -676,13 +953,7 @@ public class Suggest implements Dictionary.WordCallback {
             sb.setLength(0);
             if (mConverter != null) {
             	// For korean convert to hangul
-            	// TODO use pool
-            	StringBuilder orig = new StringBuilder();
-            	orig.append(word, offset, length);
-            	mConverter.convert(orig, sb);
-            	word = sb.toString().toCharArray();
-            	offset = 0;
-            	length = sb.length();
+            	convertWord(word, offset, length, sb);
             } else {
             	sb.append(word, offset, length);
             }
@@ -16,6 +16,7 @@
 
 package com.dexilog.smartkeyboard;
 
+import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import android.view.KeyEvent;
@@ -25,12 +26,17 @@ import android.view.inputmethod.InputConnection;
 import com.dexilog.smartkeyboard.input.InputController;
 import com.dexilog.smartkeyboard.input.TextEntryState;
 import com.dexilog.smartkeyboard.input.WordComposer;
+import com.dexilog.smartkeyboard.input.WordComposerImpl;
 import com.dexilog.smartkeyboard.keyboard.Keyboard;
+import com.dexilog.smartkeyboard.lang.Converter;
 import com.dexilog.smartkeyboard.lang.Korean;
 import com.dexilog.smartkeyboard.ui.CandidateView;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class SuggestController {
     private final SmartKeyboard smartKeyboard;
@@ -48,6 +54,14 @@ public class SuggestController {
     public boolean mJustAccepted;
     public boolean mWaitingForSuggestions = false;
 
+    // Once the worker is started, the suggestions are computed on it over a copy of the
+    // composing word, and only shown if nothing was typed meanwhile
+    private ExecutorService mSuggestionExecutor;
+    private Handler mResultHandler;
+    private int mSuggestionSequence;
+    private boolean mComputingSuggestions;
+    private boolean mAutoTextFound;
+
     public SuggestController(SmartKeyboard smartKeyboard, Suggest suggest,
                              InputController inputController,
                              ExpandableDictionary autoDictionary) {
@@ -86,7 +100,62 @@ public class SuggestController {
         }
     }
 
+    /**
+     * Computes the suggestions on a worker thread from now on, instead of the calling thread.
+     * Must be called from the UI thread, which receives the results.
+     */
+    public void startWorker() {
+        if (mSuggestionExecutor != null) return;
+        mResultHandler = new Handler();
+        mSuggestionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Suggestions");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void stopWorker() {
+        if (mSuggestionExecutor == null) return;
+        mSuggestionExecutor.shutdownNow();
+        mSuggestionExecutor = null;
+        cancelSuggestions();
+    }
+
+    /**
+     * Drops the suggestions being computed, as the word changed.
+     */
+    public void cancelSuggestions() {
+        mSuggestionSequence++;
+        mComputingSuggestions = false;
+    }
+
+    /**
+     * Returns true if suggestions are being computed on the worker.
+     */
+    public boolean isComputingSuggestions() {
+        return mComputingSuggestions;
+    }
+
+    // Of the suggestions shown
+    public boolean wasAutoTextFound() {
+        return mAutoTextFound;
+    }
+
     public void updateSuggestions() {
+        updateSuggestions(false);
+    }
+
+    /**
+     * Computes the suggestions on the calling thread, when they are needed at once.
+     */
+    public void updateSuggestionsNow() {
+        updateSuggestions(true);
+    }
+
+    private void updateSuggestions(boolean now) {
 
         if (SmartKeyboard.DEBUG)
             Log.d("KBD", "updateSuggestion "
@@ -95,6 +164,7 @@ public class SuggestController {
                     + Boolean.toString(smartKeyboard.mCompletionOn));
 
         mWaitingForSuggestions = false;
+        cancelSuggestions();
 
         Keyboard kbd = null;
         if (smartKeyboard.mKeyboardSwitcher.getMainKeyboardView() != null)
@@ -121,61 +191,41 @@ public class SuggestController {
             return;
         }
 
-        if (kbd != null && smartKeyboard.mDynamicResizing && !smartKeyboard.isModeT9()) {
-            int[] nextLettersFrequencies = suggest.getNextLettersFrequencies();
-            kbd.setPreferredLetters(nextLettersFrequencies);
-        }
-
-        final boolean modeT9 = smartKeyboard.isModeT9();
-        final boolean isT9Prediction = smartKeyboard.isT9PredictionOn();
-
-        WordComposer wordComposer = inputController.getCurrentWordComposer();
-        updateSuggestionsForCurrentWord(modeT9, isT9Prediction, wordComposer);
-    }
-
-    private void updateSuggestionsForCurrentWord(boolean modeT9, boolean isT9Prediction,
-                                                 WordComposer wordComposer) {
-        final List<CharSequence> stringList = suggest.getSuggestions(wordComposer,
-                modeT9, isT9Prediction, smartKeyboard.getConverter());
-
-        boolean correctionAvailable = suggest.hasMinimalCorrection()
-                && smartKeyboard.mCorrectionMode > 0;
-        final CharSequence typedWord = wordComposer.getTypedWord();
-        // || mCorrectionMode == mSuggest.CORRECTION_FULL;
-        // If we're in basic correct
-        boolean typedWordValid = suggest.isValidWord(typedWord, true, modeT9)
-                || (inputController.preferCapitalization() && suggest.isValidWord(typedWord
-                .toString().toLowerCase(), true, modeT9));
-        if (smartKeyboard.mCorrectionMode == Suggest.CORRECTION_FULL) {
-            correctionAvailable |= typedWordValid;
-        }
-        // Don't auto-correct words with multiple capital letter
-        correctionAvailable &= !wordComposer.isMostlyCaps();
-
-        if (smartKeyboard.isModeT9()) {
-            // Autocorrect if and only if T9 prediction is off
-            if (isT9Prediction) {
-                // Don't change anything if there is only one letter
-                // TODO add one-letter words to the dictionary
-                if (wordComposer.size() > 1) {
-                    correctionAvailable = true;
-                }
-            } else {
-                correctionAvailable = false;
-            }
+        final SuggestionRequest request = new SuggestionRequest(
+                inputController.getCurrentWordComposer(), kbd != null
+                && smartKeyboard.mDynamicResizing && !smartKeyboard.isModeT9());
+        if (now || mSuggestionExecutor == null) {
+            request.compute();
+            smartKeyboard.onSuggestionsComputed(request.mDuration);
+            showSuggestions(request);
+        } else {
+            mComputingSuggestions = true;
+            mSuggestionExecutor.execute(request);
         }
+    }
 
-        // Make sure the custom autotext is selected by default when it's also a
-        // valid word
-        final boolean autoTextFound = suggest.wasAutoTextFound();
-        if (autoTextFound) {
-            correctionAvailable = true;
-            typedWordValid = mAutoTextDictionary.isTypedWordValid();
-        }
+    private void publishSuggestions(SuggestionRequest request) {
+        // Drop the results if the word changed meanwhile
+        if (request.mSequence != mSuggestionSequence) return;
+        mComputingSuggestions = false;
+        smartKeyboard.onSuggestionsComputed(request.mDuration);
+        if (!inputController.getPredicting() || mCandidateView == null) return;
+        showSuggestions(request);
+    }
 
-        // For japanese
-        if (smartKeyboard.mUseSpaceForNextWord) {
-            correctionAvailable = false;
+    private void showSuggestions(SuggestionRequest request) {
+        final WordComposer wordComposer = request.mWord;
+        final List<CharSequence> stringList = request.mSuggestions;
+        final boolean typedWordValid = request.mTypedWordValid;
+        final boolean correctionAvailable = request.mCorrectionAvailable;
+        mAutoTextFound = request.mAutoTextFound;
+
+        if (request.mNextLetters != null) {
+            final Keyboard kbd = smartKeyboard.mKeyboardSwitcher.getMainKeyboardView() != null
+                    ? smartKeyboard.mKeyboardSwitcher.getMainKeyboardView().getKeyboard() : null;
+            if (kbd != null) {
+                kbd.setPreferredLetters(request.mNextLetters);
+            }
         }
 
         mCandidateView.setSuggestions(stringList, false, typedWordValid,
@@ -191,11 +241,125 @@ public class SuggestController {
             mBestWord = null;
         }
 
-        if (isT9Prediction) {
+        if (request.mT9Prediction) {
             displayBestT9Candidate(wordComposer);
         }
     }
 
+    /**
+     * The suggestions for a copy of the composing word, with the settings they depend on.
+     * All the calls to the suggestion engine are made under its lock, as it keeps the state
+     * of the last lookup.
+     */
+    private class SuggestionRequest implements Runnable {
+        final int mSequence = mSuggestionSequence;
+        final WordComposer mWord;
+        final boolean mModeT9 = smartKeyboard.isModeT9();
+        final boolean mT9Prediction = smartKeyboard.isT9PredictionOn();
+        final Converter mConverter = smartKeyboard.getConverter();
+        final int mCorrectionMode = smartKeyboard.mCorrectionMode;
+        final boolean mPreferCapitalization = inputController.preferCapitalization();
+        final boolean mUseSpaceForNextWord = smartKeyboard.mUseSpaceForNextWord;
+        final boolean mWantNextLetters;
+
+        List<CharSequence> mSuggestions;
+        boolean mTypedWordValid;
+        boolean mCorrectionAvailable;
+        boolean mAutoTextFound;
+        int[] mNextLetters;
+        long mDuration;
+
+        SuggestionRequest(WordComposer word, boolean wantNextLetters) {
+            mWord = word instanceof WordComposerImpl
+                    ? new WordComposerImpl((WordComposerImpl) word) : word;
+            mWantNextLetters = wantNextLetters;
+        }
+
+        void compute() {
+            final long start = System.nanoTime();
+            final WordComposer wordComposer = mWord;
+            final boolean modeT9 = mModeT9;
+            synchronized (suggest) {
+                final List<CharSequence> stringList = suggest.getSuggestions(wordComposer,
+                        modeT9, mT9Prediction, mConverter);
+                // The list and its words are reused by the next lookup
+                mSuggestions = copySuggestions(stringList);
+
+                boolean correctionAvailable = suggest.hasMinimalCorrection()
+                        && mCorrectionMode > 0;
+                final CharSequence typedWord = wordComposer.getTypedWord();
+                // || mCorrectionMode == mSuggest.CORRECTION_FULL;
+                // If we're in basic correct
+                boolean typedWordValid = suggest.isValidWord(typedWord, true, modeT9)
+                        || (mPreferCapitalization && suggest.isValidWord(typedWord
+                        .toString().toLowerCase(), true, modeT9));
+                if (mCorrectionMode == Suggest.CORRECTION_FULL) {
+                    correctionAvailable |= typedWordValid;
+                }
+                // Don't auto-correct words with multiple capital letter
+                correctionAvailable &= !wordComposer.isMostlyCaps();
+
+                if (modeT9) {
+                    // Autocorrect if and only if T9 prediction is off
+                    if (mT9Prediction) {
+                        // Don't change anything if there is only one letter
+                        // TODO add one-letter words to the dictionary
+                        if (wordComposer.size() > 1) {
+                            correctionAvailable = true;
+                        }
+                    } else {
+                        correctionAvailable = false;
+                    }
+                }
+
+                // Make sure the custom autotext is selected by default when it's also a
+                // valid word
+                mAutoTextFound = suggest.wasAutoTextFound();
+                if (mAutoTextFound) {
+                    correctionAvailable = true;
+                    typedWordValid = mAutoTextDictionary.isTypedWordValid();
+                }
+
+                // For japanese
+                if (mUseSpaceForNextWord) {
+                    correctionAvailable = false;
+                }
+                mTypedWordValid = typedWordValid;
+                mCorrectionAvailable = correctionAvailable;
+
+                if (mWantNextLetters) {
+                    mNextLetters = suggest.getNextLettersFrequencies().clone();
+                }
+            }
+            mDuration = (System.nanoTime() - start) / 1000000;
+        }
+
+        @Override
+        public void run() {
+            try {
+                compute();
+            } catch (RuntimeException e) {
+                Log.e(SmartKeyboard.TAG, "Failed to compute suggestions", e);
+                return;
+            }
+            mResultHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    publishSuggestions(SuggestionRequest.this);
+                }
+            });
+        }
+    }
+
+    private static List<CharSequence> copySuggestions(List<CharSequence> suggestions) {
+        final int size = suggestions.size();
+        final List<CharSequence> copy = new ArrayList<CharSequence>(size);
+        for (int i = 0; i < size; i++) {
+            copy.add(suggestions.get(i).toString());
+        }
+        return copy;
+    }
+
     private void displayBestT9Candidate(WordComposer word) {
         // Only keep the right number of letters
         // TODO display the rest as in the HTC keyboard?
@@ -225,9 +389,10 @@ public class SuggestController {
         final boolean modeT9 = smartKeyboard.isModeT9();
         final boolean isT9Prediction = modeT9 && smartKeyboard.mKeyboardSwitcher.getMainKeyboardView() != null
                 && smartKeyboard.mKeyboardSwitcher.getMainKeyboardView().isT9PredictionOn();
-        final List<CharSequence> stringList = suggest.getSuggestions(word,
-                modeT9, isT9Prediction, smartKeyboard.getConverter());
-        return stringList;
+        synchronized (suggest) {
+            return copySuggestions(suggest.getSuggestions(word,
+                    modeT9, isT9Prediction, smartKeyboard.getConverter()));
+        }
     }
 
     void promoteToUserDictionary(String word, int frequency) {
@@ -277,12 +442,14 @@ public class SuggestController {
     }
 
     private void registerPickedSuggestionInDictionaries(CharSequence suggestion, String lowerCase) {
-        final boolean autoTextFound = suggest.wasAutoTextFound();
+        final boolean autoTextFound = mAutoTextFound;
         // Add the word to the auto dictionary if it's not a known word
-        if ((mAutoDictionary.isValidWord(lowerCase) || !suggest.isValidWord(
-                lowerCase, false, false))
-                && !autoTextFound) {
-            mAutoDictionary.addWord(lowerCase, SmartKeyboard.FREQUENCY_FOR_PICKED);
+        synchronized (suggest) {
+            if ((mAutoDictionary.isValidWord(lowerCase) || !suggest.isValidWord(
+                    lowerCase, false, false))
+                    && !autoTextFound) {
+                mAutoDictionary.addWord(lowerCase, SmartKeyboard.FREQUENCY_FOR_PICKED);
+            }
         }
         if (smartKeyboard.mUseSmartDictionary && !autoTextFound) {
             smartKeyboard.increaseWordCount(lowerCase);
@@ -335,7 +502,9 @@ public class SuggestController {
                 // TODO: check if the word has been typed in upper case on
                 // purpose
                 String lowerCase = getLowerCaseWord(typedWord);
-                mAutoDictionary.addWord(lowerCase, SmartKeyboard.FREQUENCY_FOR_TYPED);
+                synchronized (suggest) {
+                    mAutoDictionary.addWord(lowerCase, SmartKeyboard.FREQUENCY_FOR_TYPED);
+                }
                 if (smartKeyboard.mUseSmartDictionary) {
                     smartKeyboard.increaseWordCount(lowerCase);
                 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard;
+
+/**
+ * Chooses how long to wait before computing the suggestions, from the recent typing speed and
+ * the time the suggestions take. If they can be computed before the next key is expected, they
+ * are computed at once; otherwise the user is typing too fast for them, so they are delayed
+ * until a pause, each new key postponing them again.
+ */
+class SuggestionScheduler {
+
+	// Longer intervals are pauses, not the typing speed
+	private static final long MAX_KEY_INTERVAL = 1000;
+
+	private final long mMinDelay;
+	private final long mDefaultDelay;
+	private final long mMaxDelay;
+
+	// Moving averages, or -1 until measured
+	private long mKeyInterval = -1;
+	private long mComputeTime = -1;
+	private long mLastRequestTime = -1;
+
+	/**
+	 * @param minDelay the delay when the suggestions can be computed at once
+	 * @param defaultDelay the delay until the typing speed and computation time are known
+	 * @param maxDelay the longest delay while typing fast
+	 */
+	SuggestionScheduler(long minDelay, long defaultDelay, long maxDelay) {
+		mMinDelay = minDelay;
+		mDefaultDelay = defaultDelay;
+		mMaxDelay = maxDelay;
+	}
+
+	/**
+	 * Returns the delay before computing the suggestions for a request made now.
+	 */
+	long onRequest(long now) {
+		if (mLastRequestTime >= 0) {
+			final long interval = now - mLastRequestTime;
+			if (interval >= 0 && interval < MAX_KEY_INTERVAL) {
+				mKeyInterval = average(mKeyInterval, interval);
+			}
+		}
+		mLastRequestTime = now;
+		if (mKeyInterval < 0 || mComputeTime < 0) {
+			return mDefaultDelay;
+		}
+		if (mComputeTime * 2 < mKeyInterval) {
+			// Done well before the next key
+			return mMinDelay;
+		}
+		// Wait until the next key is late
+		return Math.max(mMinDelay, Math.min(mMaxDelay, mKeyInterval + mKeyInterval / 2));
+	}
+
+	/**
+	 * Records the time it took to compute the suggestions.
+	 */
+	void onComputed(long duration) {
+		mComputeTime = average(mComputeTime, duration);
+	}
+
+	private static long average(long average, long value) {
+		return average < 0 ? value : (3 * average + value) / 4;
+	}
+}
@@ -26,6 +26,8 @@ import android.util.Log;
 import com.dexilog.smartkeyboard.input.WordComposer;
 import com.dexilog.smartkeyboard.suggest.UserDictionary;
 
+import java.io.File;
+
 public class UserDictionaryImpl extends ExpandableDictionary implements UserDictionary {
     
 	private static final String TAG = "SmartKeyboard";
@@ -68,14 +70,30 @@ public class UserDictionaryImpl extends ExpandableDictionary implements UserDict
         super.close();
     }
     
+    @Override
+    protected boolean isRebuiltInBackground() {
+        return true;
+    }
+
     @Override
     public void loadDictionaryAsync() {
 		long startTime = System.currentTimeMillis();
+        // Read the generation first, so that a write during the query makes the snapshot stale
+        final long generation = DictionarySnapshot.getGeneration(getContext(),
+                DictionarySnapshot.WORDS);
+        final File snapshot = DictionarySnapshot.getFile(getContext(), DictionarySnapshot.WORDS,
+                mLang);
+        if (loadSnapshot(snapshot, generation)) {
+            Log.i(TAG, "Loaded user dictionary snapshot in " + (System.currentTimeMillis() - startTime) + "msec");
+            mRequiresReload = false;
+            return;
+        }
         Cursor cursor = getContext().getContentResolver()
                 .query(UserDictionaryProvider.CONTENT_URI_WORDS, PROJECTION, "LANG=?", 
                         new String[] { mLang }, null);
         if (cursor != null) {
         	addWords(cursor);
+            saveSnapshot(snapshot, generation);
         } else {
         	Log.e(TAG, "Cannot read user dictionary");
         }
@@ -125,7 +143,8 @@ public class UserDictionaryImpl extends ExpandableDictionary implements UserDict
     }
 
     private void addWords(Cursor cursor) {
-        clearDictionary();
+        // Fill a new trie while the current one keeps answering
+        beginRebuild();
 
         final int maxWordLength = getMaxWordLength();
         if (cursor.moveToFirst()) {
@@ -136,11 +155,12 @@ public class UserDictionaryImpl extends ExpandableDictionary implements UserDict
                 // Safeguard against adding really long words. Stack may overflow due
                 // to recursion
                 if (word.length() < maxWordLength) {
-                    super.addWord(word, frequency);
+                    addWordToRebuild(word, frequency);
                 }
                 cursor.moveToNext();
             }
         }
         cursor.close();
+        commitRebuild();
     }
 }
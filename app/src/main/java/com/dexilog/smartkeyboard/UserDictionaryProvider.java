@@ -85,12 +85,14 @@ public class UserDictionaryProvider extends ContentProvider {
 		case QUERY_WORDS:
 		{
 			int count = db.delete(WORDS_TABLE_NAME, selection, selectionArgs);
+			DictionarySnapshot.invalidate(getContext(), DictionarySnapshot.WORDS);
 			getContext().getContentResolver().notifyChange(uri, null);
 			return count;
 		}
 		case QUERY_FREQS:
 		{
 			int count = db.delete(FREQ_TABLE_NAME, selection, selectionArgs);
+			DictionarySnapshot.invalidate(getContext(), DictionarySnapshot.FREQS);
 			getContext().getContentResolver().notifyChange(uri, null);
 			return count;
 		}
@@ -119,6 +121,7 @@ public class UserDictionaryProvider extends ContentProvider {
 		{
 			long rowId = db.insert(WORDS_TABLE_NAME, WORD, values);
 			if (rowId > 0) {
+				DictionarySnapshot.invalidate(getContext(), DictionarySnapshot.WORDS);
 				Uri noteUri = ContentUris.withAppendedId(CONTENT_URI_WORDS, rowId);
 				getContext().getContentResolver().notifyChange(noteUri, null);
 				return noteUri;
@@ -129,6 +132,7 @@ public class UserDictionaryProvider extends ContentProvider {
 		{
 			long rowId = db.insert(FREQ_TABLE_NAME, WORD, values);
 			if (rowId > 0) {
+				DictionarySnapshot.invalidate(getContext(), DictionarySnapshot.FREQS);
 				Uri noteUri = ContentUris.withAppendedId(CONTENT_URI_FREQS, rowId);
 				getContext().getContentResolver().notifyChange(noteUri, null);
 				return noteUri;
@@ -140,6 +144,34 @@ public class UserDictionaryProvider extends ContentProvider {
 		}
 	}
 
+	/**
+	 * For the frequencies, inserts or updates the count of each word in a single transaction.
+	 */
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		if (sURIMatcher.match(uri) != QUERY_FREQS) {
+			return super.bulkInsert(uri, values);
+		}
+		SQLiteDatabase db = mHelper.getWritableDatabase();
+		final String[] args = new String[2];
+		db.beginTransaction();
+		try {
+			for (ContentValues value : values) {
+				args[0] = value.getAsString(WORD);
+				args[1] = value.getAsString(LANG);
+				if (db.update(FREQ_TABLE_NAME, value, "WORD=? AND LANG=?", args) == 0) {
+					db.insert(FREQ_TABLE_NAME, WORD, value);
+				}
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		DictionarySnapshot.invalidate(getContext(), DictionarySnapshot.FREQS);
+		getContext().getContentResolver().notifyChange(uri, null);
+		return values.length;
+	}
+
 	@Override
 	public boolean onCreate() {
 		mHelper = new DbHelper(getContext());
@@ -184,12 +216,14 @@ public class UserDictionaryProvider extends ContentProvider {
 		case QUERY_WORDS:
 		{
 			int count = db.update(WORDS_TABLE_NAME, values, selection, selectionArgs);
+			DictionarySnapshot.invalidate(getContext(), DictionarySnapshot.WORDS);
 	        getContext().getContentResolver().notifyChange(uri, null);
 	        return count;
 		}
 	    case QUERY_FREQS:
 		{
 			int count = db.update(FREQ_TABLE_NAME, values, selection, selectionArgs);
+			DictionarySnapshot.invalidate(getContext(), DictionarySnapshot.FREQS);
 	        getContext().getContentResolver().notifyChange(uri, null);
 	        return count;
 		}
@@ -232,6 +266,8 @@ public class UserDictionaryProvider extends ContentProvider {
 				} while (cursor.moveToNext());
 				cursor.close();
 			}
+			// In case the database was deleted but not the snapshots
+			DictionarySnapshot.invalidateAll(mContext);
 		}
 
 		@Override
@@ -242,6 +278,7 @@ public class UserDictionaryProvider extends ContentProvider {
 				db.execSQL("DROP TABLE " + FREQ_TABLE_NAME );
 				createFreqTable(db);
 			}
+			DictionarySnapshot.invalidateAll(mContext);
 		}
 		
 		private void createFreqTable(SQLiteDatabase db) {
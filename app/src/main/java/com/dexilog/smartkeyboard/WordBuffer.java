@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard;
+
+import com.dexilog.smartkeyboard.suggest.Dictionary;
+
+/**
+ * Bounded buffer of the words returned by a dictionary lookup, so that the lookup can run
+ * on another thread and the words be passed later to the real callback, in the same order.
+ * When the buffer is full, the word with the lowest frequency is dropped.
+ */
+public class WordBuffer implements Dictionary.WordCallback {
+
+    private static final int MIN_WORD_LENGTH = 32;
+
+    private char[][] mWords;
+    private int[] mLengths;
+    private int[] mFrequencies;
+    private int mCount;
+
+    public WordBuffer(int capacity) {
+        mWords = new char[capacity][];
+        mLengths = new int[capacity];
+        mFrequencies = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return mFrequencies.length;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public void clear() {
+        mCount = 0;
+    }
+
+    public boolean addWord(char[] word, int offset, int length, int freq) {
+        int slot = mCount;
+        if (slot == mFrequencies.length) {
+            // Drop the least frequent word, keeping the arrival order of the others
+            int min = 0;
+            for (int i = 1; i < mCount; i++) {
+                if (mFrequencies[i] < mFrequencies[min]) {
+                    min = i;
+                }
+            }
+            if (mFrequencies[min] >= freq) return true;
+            final char[] free = mWords[min];
+            final int last = mCount - 1;
+            System.arraycopy(mWords, min + 1, mWords, min, last - min);
+            System.arraycopy(mLengths, min + 1, mLengths, min, last - min);
+            System.arraycopy(mFrequencies, min + 1, mFrequencies, min, last - min);
+            mWords[last] = free;
+            slot = last;
+        } else {
+            mCount++;
+        }
+        if (mWords[slot] == null || mWords[slot].length < length) {
+            mWords[slot] = new char[Math.max(MIN_WORD_LENGTH, length)];
+        }
+        System.arraycopy(word, offset, mWords[slot], 0, length);
+        mLengths[slot] = length;
+        mFrequencies[slot] = freq;
+        return true;
+    }
+
+    /**
+     * Passes the buffered words to the given callback, in arrival order.
+     */
+    public void replay(Dictionary.WordCallback callback) {
+        for (int i = 0; i < mCount; i++) {
+            callback.addWord(mWords[i], 0, mLengths[i], mFrequencies[i]);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard;
+
+import com.dexilog.smartkeyboard.input.WordComposer;
+import com.dexilog.smartkeyboard.input.WordComposerImpl;
+
+import java.util.HashMap;
+
+/**
+ * The last words committed, with the keys typed for each of them, to show the alternatives
+ * of a word when the cursor is moved back to it. The oldest words are dropped once the history
+ * is full.
+ */
+class WordHistory {
+
+	static final int CAPACITY = 100;
+
+	private final String[] mChosenWords = new String[CAPACITY];
+	private final String[] mTypedWords = new String[CAPACITY];
+	// For each key, the number of codes followed by the codes
+	private final int[][] mCodes = new int[CAPACITY][];
+	private final boolean[] mCapitalized = new boolean[CAPACITY];
+	private int mNext;
+	// Slot of the last entry of each chosen word
+	private final HashMap<String, Integer> mIndex = new HashMap<String, Integer>();
+
+	/**
+	 * Adds the word committed for the keys of the word composer.
+	 */
+	void add(String chosenWord, WordComposer word) {
+		final int slot = mNext;
+		final String replaced = mChosenWords[slot];
+		if (replaced != null) {
+			final Integer replacedSlot = mIndex.get(replaced);
+			if (replacedSlot != null && replacedSlot == slot) {
+				mIndex.remove(replaced);
+			}
+		}
+		final int size = word.size();
+		int length = size;
+		for (int i = 0; i < size; i++) {
+			length += word.getCodesAt(i).length;
+		}
+		final int[] packed = new int[length];
+		int offset = 0;
+		for (int i = 0; i < size; i++) {
+			final int[] codes = word.getCodesAt(i);
+			packed[offset++] = codes.length;
+			System.arraycopy(codes, 0, packed, offset, codes.length);
+			offset += codes.length;
+		}
+		mChosenWords[slot] = chosenWord;
+		mTypedWords[slot] = word.getTypedWord().toString();
+		mCodes[slot] = packed;
+		mCapitalized[slot] = word.isCapitalized();
+		mIndex.put(chosenWord, slot);
+		mNext = (slot + 1) % CAPACITY;
+	}
+
+	/**
+	 * Returns the keys typed for the last entry of the chosen word, or null if not found.
+	 */
+	WordComposer find(CharSequence chosenWord) {
+		final Integer slot = mIndex.get(chosenWord.toString());
+		if (slot == null) return null;
+		final String typedWord = mTypedWords[slot];
+		final int[] packed = mCodes[slot];
+		final WordComposerImpl word = new WordComposerImpl();
+		int offset = 0;
+		for (int i = 0; offset < packed.length; i++) {
+			final int count = packed[offset++];
+			final int[] codes = new int[count];
+			System.arraycopy(packed, offset, codes, 0, count);
+			offset += count;
+			word.add(typedWord.charAt(i), codes);
+		}
+		word.setCapitalized(mCapitalized[slot]);
+		return word;
+	}
+
+	void clear() {
+		for (int i = 0; i < CAPACITY; i++) {
+			mChosenWords[i] = null;
+			mTypedWords[i] = null;
+			mCodes[i] = null;
+		}
+		mIndex.clear();
+		mNext = 0;
+	}
+}
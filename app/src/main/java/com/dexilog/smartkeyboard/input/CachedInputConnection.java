@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard.input;
+
+import android.os.Bundle;
+import android.view.KeyEvent;
+import android.view.inputmethod.CompletionInfo;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
+
+/**
+ * Input connection which answers the reads of the text around the cursor from a local copy,
+ * as each call to the editor is a blocking IPC which can be slow with some applications.
+ * All the edits go through it to keep the copy up to date.
+ */
+public class CachedInputConnection extends InputConnectionWrapper {
+
+	private final EditorTextCache mCache = new EditorTextCache();
+	private InputConnection mTarget;
+
+	public CachedInputConnection(InputConnection target) {
+		super(target, true);
+		mTarget = target;
+	}
+
+	public InputConnection getTarget() {
+		return mTarget;
+	}
+
+	@Override
+	public void setTarget(InputConnection target) {
+		super.setTarget(target);
+		mTarget = target;
+		mCache.loseTrack();
+	}
+
+	/**
+	 * Starts following a new field, or the same one after the application changed its text.
+	 */
+	public void onStartInput(EditorInfo attribute, boolean restarting) {
+		// When restarting, there may be a composing text left
+		mCache.reset(attribute.initialSelStart, attribute.initialSelEnd, restarting);
+	}
+
+	public void onUpdateSelection(int newSelStart, int newSelEnd, int candidatesStart,
+			int candidatesEnd) {
+		mCache.onUpdateSelection(newSelStart, newSelEnd, candidatesStart, candidatesEnd);
+	}
+
+	/**
+	 * Forgets the local copy, when the text was changed behind the keyboard.
+	 */
+	public void invalidate() {
+		mCache.invalidate();
+	}
+
+	@Override
+	public CharSequence getTextBeforeCursor(int n, int flags) {
+		if (flags != 0) return super.getTextBeforeCursor(n, flags);
+		CharSequence text = mCache.getTextBeforeCursor(n);
+		if (text == null) {
+			text = super.getTextBeforeCursor(n, flags);
+			mCache.setTextBeforeCursor(n, text);
+		}
+		return text;
+	}
+
+	@Override
+	public CharSequence getTextAfterCursor(int n, int flags) {
+		if (flags != 0) return super.getTextAfterCursor(n, flags);
+		CharSequence text = mCache.getTextAfterCursor(n);
+		if (text == null) {
+			text = super.getTextAfterCursor(n, flags);
+			mCache.setTextAfterCursor(n, text);
+		}
+		return text;
+	}
+
+	@Override
+	public boolean commitText(CharSequence text, int newCursorPosition) {
+		final boolean result = super.commitText(text, newCursorPosition);
+		if (result) {
+			mCache.onCommitText(text, newCursorPosition);
+		} else {
+			mCache.loseTrack();
+		}
+		return result;
+	}
+
+	@Override
+	public boolean setComposingText(CharSequence text, int newCursorPosition) {
+		final boolean result = super.setComposingText(text, newCursorPosition);
+		if (result) {
+			mCache.onSetComposingText(text, newCursorPosition);
+		} else {
+			mCache.loseTrack();
+		}
+		return result;
+	}
+
+	@Override
+	public boolean finishComposingText() {
+		final boolean result = super.finishComposingText();
+		if (result) {
+			mCache.onFinishComposingText();
+		} else {
+			mCache.loseTrack();
+		}
+		return result;
+	}
+
+	@Override
+	public boolean setComposingRegion(int start, int end) {
+		final boolean result = super.setComposingRegion(start, end);
+		if (result) {
+			mCache.onSetComposingRegion(start, end);
+		} else {
+			mCache.loseTrack();
+		}
+		return result;
+	}
+
+	@Override
+	public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+		final boolean result = super.deleteSurroundingText(beforeLength, afterLength);
+		if (result) {
+			mCache.onDeleteSurroundingText(beforeLength, afterLength);
+		} else {
+			mCache.loseTrack();
+		}
+		return result;
+	}
+
+	@Override
+	public boolean setSelection(int start, int end) {
+		final boolean result = super.setSelection(start, end);
+		if (result) {
+			mCache.onSetSelection(start, end);
+		} else {
+			mCache.loseTrack();
+		}
+		return result;
+	}
+
+	// The effect of the following calls on the text is up to the editor
+
+	@Override
+	public boolean sendKeyEvent(KeyEvent event) {
+		mCache.loseTrack();
+		return super.sendKeyEvent(event);
+	}
+
+	@Override
+	public boolean commitCompletion(CompletionInfo text) {
+		mCache.loseTrack();
+		return super.commitCompletion(text);
+	}
+
+	@Override
+	public boolean performEditorAction(int editorAction) {
+		mCache.loseTrack();
+		return super.performEditorAction(editorAction);
+	}
+
+	@Override
+	public boolean performContextMenuAction(int id) {
+		mCache.loseTrack();
+		return super.performContextMenuAction(id);
+	}
+
+	@Override
+	public boolean performPrivateCommand(String action, Bundle data) {
+		mCache.loseTrack();
+		return super.performPrivateCommand(action, data);
+	}
+
+	@Override
+	public boolean deleteSurroundingTextInCodePoints(int beforeLength, int afterLength) {
+		mCache.loseTrack();
+		return super.deleteSurroundingTextInCodePoints(beforeLength, afterLength);
+	}
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard.input;
+
+/**
+ * Local copy of the text around the cursor of the editor, so that reading a few characters
+ * doesn't need a call to the application. The text is read from the editor the first time,
+ * then updated with the edits of the keyboard, and dropped when the editor reports a
+ * selection the keyboard didn't expect.
+ */
+class EditorTextCache {
+
+	// Enough for the longest lookup of EditingUtil
+	static final int MAX_LENGTH = 1024;
+
+	private static final int MAX_PENDING = 16;
+
+	// Text before the selection start and after the selection end. Each one is either the
+	// whole text up to the bound of the field, or a part of it next to the cursor.
+	private final StringBuilder mBefore = new StringBuilder(MAX_LENGTH);
+	private boolean mBeforeComplete;
+	private final StringBuilder mAfter = new StringBuilder(MAX_LENGTH);
+	private boolean mAfterComplete;
+
+	// Length of the composing text, which ends at the cursor, or -1 if unknown
+	private int mComposingLength = -1;
+	// Selection expected after the last edit, or -1 if unknown
+	private int mSelStart = -1;
+	private int mSelEnd = -1;
+	// Cursor positions after the edits not reported by the editor yet
+	private final int[] mPendingCursors = new int[MAX_PENDING];
+	private int mPendingCount;
+
+	/**
+	 * Starts with a new field, or the same field after its text was changed.
+	 */
+	void reset(int selStart, int selEnd, boolean composing) {
+		invalidate();
+		mSelStart = selStart;
+		mSelEnd = selEnd;
+		mComposingLength = composing ? -1 : 0;
+	}
+
+	/**
+	 * Forgets the text, after a change the keyboard can't follow.
+	 */
+	void invalidate() {
+		mBefore.setLength(0);
+		mBeforeComplete = false;
+		mAfter.setLength(0);
+		mAfterComplete = false;
+	}
+
+	/**
+	 * Returns the n characters before the cursor, or null if they must be read from the editor.
+	 */
+	String getTextBeforeCursor(int n) {
+		final int length = mBefore.length();
+		if (n < 0 || (length < n && !mBeforeComplete)) return null;
+		return mBefore.substring(Math.max(0, length - n));
+	}
+
+	/**
+	 * Returns the n characters after the cursor, or null if they must be read from the editor.
+	 */
+	String getTextAfterCursor(int n) {
+		final int length = mAfter.length();
+		if (n < 0 || (length < n && !mAfterComplete)) return null;
+		return mAfter.substring(0, Math.min(n, length));
+	}
+
+	/**
+	 * Keeps the text read from the editor, if it's more than what is known.
+	 */
+	void setTextBeforeCursor(int n, CharSequence text) {
+		if (text == null) return;
+		final int length = text.length();
+		if (length < n || length > mBefore.length()) {
+			mBefore.setLength(0);
+			mBefore.append(text);
+			// The editor returns less than asked only at the start of the field
+			mBeforeComplete = length < n;
+			trimBefore();
+		}
+	}
+
+	void setTextAfterCursor(int n, CharSequence text) {
+		if (text == null) return;
+		final int length = text.length();
+		if (length < n || length > mAfter.length()) {
+			mAfter.setLength(0);
+			mAfter.append(text);
+			mAfterComplete = length < n;
+			trimAfter();
+		}
+	}
+
+	/**
+	 * Follows a commit of text, which replaces the composing text.
+	 */
+	void onCommitText(CharSequence text, int newCursorPosition) {
+		if (!replaceComposing(text, newCursorPosition)) return;
+		mComposingLength = 0;
+	}
+
+	void onSetComposingText(CharSequence text, int newCursorPosition) {
+		if (!replaceComposing(text, newCursorPosition)) return;
+		mComposingLength = text.length();
+	}
+
+	void onFinishComposingText() {
+		mComposingLength = 0;
+	}
+
+	void onSetComposingRegion(int start, int end) {
+		// Only a region ending at the cursor can be followed
+		mComposingLength = (mSelStart >= 0 && mSelStart == mSelEnd && end == mSelStart
+				&& start <= end) ? end - start : -1;
+	}
+
+	void onDeleteSurroundingText(int beforeLength, int afterLength) {
+		if (!isTracking() || mComposingLength != 0) {
+			loseTrack();
+			return;
+		}
+		final int before = mBefore.length();
+		if (beforeLength > before && !mBeforeComplete) {
+			// The new cursor position can't be known
+			loseTrack();
+			return;
+		}
+		final int deleted = Math.min(beforeLength, before);
+		mBefore.setLength(before - deleted);
+		final int after = mAfter.length();
+		if (afterLength > after && !mAfterComplete) {
+			mAfter.setLength(0);
+			mAfterComplete = false;
+		} else {
+			mAfter.delete(0, Math.min(afterLength, after));
+		}
+		moveCursor(mSelStart - deleted);
+	}
+
+	void onSetSelection(int start, int end) {
+		invalidate();
+		mSelStart = start;
+		mSelEnd = end;
+		addPendingCursor(start, end);
+	}
+
+	/**
+	 * Called for the edits whose effect on the text is unknown, like key events.
+	 */
+	void loseTrack() {
+		invalidate();
+		mSelStart = -1;
+		mSelEnd = -1;
+		mComposingLength = -1;
+		mPendingCount = 0;
+	}
+
+	/**
+	 * Checks the selection reported by the editor. The reports may be late, so a cursor
+	 * position of a previous edit is not a change of the editor.
+	 */
+	void onUpdateSelection(int newSelStart, int newSelEnd, int candidatesStart, int candidatesEnd) {
+		int matched = -1;
+		if (newSelStart == newSelEnd) {
+			for (int i = 0; i < mPendingCount; i++) {
+				if (mPendingCursors[i] == newSelStart) {
+					matched = i;
+					break;
+				}
+			}
+		}
+		if (matched >= 0) {
+			mPendingCount -= matched + 1;
+			System.arraycopy(mPendingCursors, matched + 1, mPendingCursors, 0, mPendingCount);
+		} else if (mPendingCount > 0 || newSelStart != mSelStart || newSelEnd != mSelEnd) {
+			// Changed by the editor
+			invalidate();
+			mPendingCount = 0;
+			mSelStart = newSelStart;
+			mSelEnd = newSelEnd;
+		}
+		if (mPendingCount == 0) {
+			// Up to date, so the composing region must be the one of the editor
+			if (candidatesStart < 0 || candidatesStart == candidatesEnd) {
+				mComposingLength = 0;
+			} else if (candidatesEnd == mSelStart && mSelStart == mSelEnd) {
+				mComposingLength = candidatesEnd - candidatesStart;
+			} else {
+				mComposingLength = -1;
+			}
+		}
+	}
+
+	private boolean isTracking() {
+		return mSelStart >= 0 && mSelStart == mSelEnd;
+	}
+
+	private boolean replaceComposing(CharSequence text, int newCursorPosition) {
+		if (!isTracking() || mComposingLength < 0 || newCursorPosition != 1 || text == null) {
+			loseTrack();
+			return false;
+		}
+		final int before = mBefore.length();
+		if (mComposingLength > before) {
+			// Only the new text is known
+			mBefore.setLength(0);
+			mBeforeComplete = false;
+		} else {
+			mBefore.setLength(before - mComposingLength);
+		}
+		mBefore.append(text);
+		trimBefore();
+		moveCursor(mSelStart - mComposingLength + text.length());
+		return true;
+	}
+
+	private void moveCursor(int cursor) {
+		mSelStart = cursor;
+		mSelEnd = cursor;
+		addPendingCursor(cursor, cursor);
+	}
+
+	private void addPendingCursor(int start, int end) {
+		if (start != end) {
+			// A selection is not matched, the report will make it known
+			return;
+		}
+		if (mPendingCount > 0 && mPendingCursors[mPendingCount - 1] == start) return;
+		if (mPendingCount == MAX_PENDING) {
+			// Drop the oldest, if it is reported later the text will be read again
+			System.arraycopy(mPendingCursors, 1, mPendingCursors, 0, MAX_PENDING - 1);
+			mPendingCount--;
+		}
+		mPendingCursors[mPendingCount++] = start;
+	}
+
+	private void trimBefore() {
+		final int excess = mBefore.length() - MAX_LENGTH;
+		if (excess > 0) {
+			mBefore.delete(0, excess);
+			mBeforeComplete = false;
+		}
+	}
+
+	private void trimAfter() {
+		final int excess = mAfter.length() - MAX_LENGTH;
+		if (excess > 0) {
+			mAfter.setLength(MAX_LENGTH);
+			mAfterComplete = false;
+		}
+	}
+}
@@ -25,6 +25,7 @@ import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 
 import com.dexilog.smartkeyboard.R;
+import com.dexilog.smartkeyboard.lang.CodeMap;
 
 public class HardKeyboardTranslator {
 	
@@ -45,8 +46,8 @@ public class HardKeyboardTranslator {
 	private Context mContext;
 	private KeyCharacterMap mKeyCharacterMap;
 	private char[] mCurMap;
-	private Map<Integer, Integer> mQwertyMap = new HashMap<Integer, Integer>();
-	private Map<Integer, Integer> mRussianMap = new HashMap<Integer, Integer>();
+	private CodeMap mQwertyMap = new CodeMap(mQwerty.length);
+	private CodeMap mRussianMap = new CodeMap(mRussian.length);
 	private long mLastUpTime = 0;
 	private int mLastKeyCode = 0;
 	private int mMultiTapCount = 0;
@@ -56,7 +57,7 @@ public class HardKeyboardTranslator {
 	private boolean mLastWasUp = true;
 	
 	private char[] mCurMultitapMap;
-	private Map<Integer, Integer> mMultitapIndexMap = new HashMap<Integer, Integer>();
+	private CodeMap mMultitapIndexMap = new CodeMap();
 
 	public HardKeyboardTranslator(Context context) {
 		mContext = context;
@@ -167,13 +168,13 @@ public class HardKeyboardTranslator {
 
 		int code = 0;
 		if (mCurMap != null) {
-			Integer index = null;
+			int index;
 			if (mStandardRussian) {
-				index = mRussianMap.get(keyCode);
+				index = mRussianMap.get(keyCode, -1);
 			} else {
-				index = mQwertyMap.get(keyCode);				
+				index = mQwertyMap.get(keyCode, -1);
 			}
-			if (index != null && !altOn) {
+			if (index != -1 && !altOn) {
 				code = mCurMap[index];
 			} else if (mHebrew && keyCode == 55) {
 				// comma -> tav , shift+comma -> comma
@@ -203,8 +204,8 @@ public class HardKeyboardTranslator {
 			}
 
 			if (mIsMulitap) {
-				Integer baseIndex = mMultitapIndexMap.get(code);
-				if (baseIndex != null) {
+				final int baseIndex = mMultitapIndexMap.get(code, -1);
+				if (baseIndex != -1) {
 					char c = mCurMultitapMap[baseIndex+mMultiTapCount];
 					if (c == ':') {
 						mMultiTapCount = 0;
@@ -18,8 +18,10 @@ package com.dexilog.smartkeyboard.input;
 
 import android.util.Log;
 
+import com.dexilog.smartkeyboard.lang.ConversionState;
 import com.dexilog.smartkeyboard.lang.Converter;
 import com.dexilog.smartkeyboard.lang.Dakuten;
+import com.dexilog.smartkeyboard.lang.IncrementalConverter;
 
 import java.util.ArrayList;
 
@@ -31,6 +33,8 @@ public class WordComposerImpl implements WordComposer {
      * The list of unicode values for each keystroke (including surrounding keys)
      */
     private ArrayList<int[]> mCodes;
+    // Code arrays of deleted keystrokes, reused as the arrays passed to add() are not kept
+    private ArrayList<int[]> mFreeCodes;
     
     /**
      * The word chosen from the candidate list, until it is committed.
@@ -40,6 +44,10 @@ public class WordComposerImpl implements WordComposer {
     private StringBuilder mTypedWord;
     private StringBuilder mConvertedWord; // Word after romaji -> kana or jamo -> hangul conversion
     private boolean mWasConverted;
+    // Checkpoints of the last conversion, resumed from the part of the typed word left unchanged
+    private ConversionState mConversionState;
+    private Converter mLastConverter;
+    private int mConvertedPrefix;
 
     private int mCapsCount;
     
@@ -50,18 +58,29 @@ public class WordComposerImpl implements WordComposer {
 
     public WordComposerImpl() {
         mCodes = new ArrayList<int[]>(12);
+        mFreeCodes = new ArrayList<int[]>(12);
         mTypedWord = new StringBuilder(20);
         mConvertedWord = new StringBuilder(20);
         mWasConverted = false;
+        mConversionState = new ConversionState();
     }
 
     public WordComposerImpl(WordComposerImpl copy) {
-        mCodes = new ArrayList<int[]>(copy.mCodes);
+        // Deep copy, as the arrays of the original are recycled
+        final int size = copy.mCodes.size();
+        mCodes = new ArrayList<int[]>(Math.max(size, 12));
+        for (int i = 0; i < size; i++) {
+            mCodes.add(copy.mCodes.get(i).clone());
+        }
+        mFreeCodes = new ArrayList<int[]>(12);
         mPreferredWord = copy.mPreferredWord;
         mTypedWord = new StringBuilder(copy.mTypedWord);
         mCapsCount = copy.mCapsCount;
-        mConvertedWord = copy.mConvertedWord;
+        mConvertedWord = new StringBuilder(copy.mConvertedWord);
         mWasConverted = copy.mWasConverted;
+        mConversionState = new ConversionState(copy.mConversionState);
+        mLastConverter = copy.mLastConverter;
+        mConvertedPrefix = copy.mConvertedPrefix;
         mIsCapitalized = copy.mIsCapitalized;
       //  mAutoCapitalized = copy.mAutoCapitalized;
       //  mIsFirstCharCapitalized = copy.mIsFirstCharCapitalized;
@@ -71,12 +90,13 @@ public class WordComposerImpl implements WordComposer {
      * Clear out the keys registered so far.
      */
     public void reset() {
-        mCodes.clear();
+        recycleCodes();
         mIsCapitalized = false;
         mPreferredWord = null;
         mTypedWord.setLength(0);
         mConvertedWord.setLength(0);
         mWasConverted = false;
+        resetConversion();
         mCapsCount = 0;
     }
 
@@ -104,8 +124,10 @@ public class WordComposerImpl implements WordComposer {
      */
     public void add(int primaryCode, int[] codes) {
         mTypedWord.append((char) primaryCode);
-        correctPrimaryJuxtapos(primaryCode, codes);
-        mCodes.add(codes);
+        final int[] copy = obtainCodes(codes.length);
+        System.arraycopy(codes, 0, copy, 0, codes.length);
+        correctPrimaryJuxtapos(primaryCode, copy);
+        mCodes.add(copy);
         if (Character.isUpperCase((char) primaryCode)) mCapsCount++;
     }
     
@@ -128,10 +150,11 @@ public class WordComposerImpl implements WordComposer {
      * Delete the last keystroke as a result of hitting backspace.
      */
     public void deleteLast() {
-        mCodes.remove(mCodes.size() - 1);
+        mFreeCodes.add(mCodes.remove(mCodes.size() - 1));
         final int lastPos = mTypedWord.length() - 1;
         char last = mTypedWord.charAt(lastPos);
         mTypedWord.deleteCharAt(lastPos);
+        mConvertedPrefix = Math.min(mConvertedPrefix, lastPos);
         if (Character.isUpperCase(last)) mCapsCount--;
     }
 
@@ -157,7 +180,18 @@ public class WordComposerImpl implements WordComposer {
     }
     
     public void convertWord(Converter converter) {
-    	if (converter != null) {
+    	if (converter instanceof IncrementalConverter) {
+    		if (converter != mLastConverter) {
+    			resetConversion();
+    			mLastConverter = converter;
+    		}
+    		// Only convert again what was typed since the last conversion
+    		mConversionState.rewind(mConvertedPrefix);
+    		((IncrementalConverter) converter).resume(mTypedWord, mConvertedWord, mConversionState);
+    		mConvertedPrefix = mTypedWord.length();
+    		mWasConverted = true;
+    	} else if (converter != null) {
+    		resetConversion();
     		mConvertedWord.setLength(0);
     		converter.convert(mTypedWord, mConvertedWord);
     		mWasConverted = true;
@@ -220,6 +254,7 @@ public class WordComposerImpl implements WordComposer {
     		final char lastChar = mTypedWord.charAt(len-1);
     		mTypedWord.deleteCharAt(len-1);
     		mTypedWord.append(Dakuten.convertDakuten(lastChar));
+    		mConvertedPrefix = Math.min(mConvertedPrefix, len-1);
     	}
     }
 
@@ -237,17 +272,38 @@ public class WordComposerImpl implements WordComposer {
 
     @Override
     public void forceTypedWord(CharSequence word) {
-        mCodes.clear();
+        recycleCodes();
         mTypedWord.setLength(0);
+        resetConversion();
         int wordSize = word.length();
+        int[] codes = new int[1];
         for (int i = 0; i < wordSize; i++) {
             char code = word.charAt(i);
-            int[] codes = new int[1];
             codes[0] = code;
             add(code, codes);
         }
     }
 
+    private int[] obtainCodes(int length) {
+        for (int i = mFreeCodes.size() - 1; i >= 0; i--) {
+            if (mFreeCodes.get(i).length == length) {
+                return mFreeCodes.remove(i);
+            }
+        }
+        return new int[length];
+    }
+
+    private void resetConversion() {
+        mConversionState.reset();
+        mLastConverter = null;
+        mConvertedPrefix = 0;
+    }
+
+    private void recycleCodes() {
+        mFreeCodes.addAll(mCodes);
+        mCodes.clear();
+    }
+
     private int replaceLastCharacter(int primaryCode) {
         // replace previous character in case of multitap
         final int length = size();
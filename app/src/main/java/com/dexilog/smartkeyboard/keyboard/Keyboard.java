@@ -174,6 +174,7 @@ public class Keyboard {
 	private int mCellWidth;
 	private int mCellHeight;
 	private int[][] mGridNeighbors;
+	private ProximityGrid mProximityGrid;
 	private int mProximityThreshold;
 	/** Number of key widths from current touch point to search for nearest keys. */
 	private static float SEARCH_DISTANCE = 1.8f;
@@ -872,6 +873,17 @@ public class Keyboard {
 		return new int[0];
 	}
 
+	/**
+	 * Returns the grid of nearby keys for the given proximity threshold, built on first use.
+	 * @param threshold the squared distance under which a key is considered near a point
+	 */
+	public ProximityGrid getProximityGrid(int threshold) {
+		if (mProximityGrid == null || mProximityGrid.getThreshold() != threshold) {
+			mProximityGrid = new ProximityGrid(getKeys(), getMinWidth(), getHeight(), threshold);
+		}
+		return mProximityGrid;
+	}
+
 	protected Row createRowFromXml(Resources res, XmlResourceParser parser) {    	
 		Row row = new Row(res, this, parser);
 
@@ -259,6 +259,25 @@ public class KeyboardSwitcher {
 		return mCurLanguage.substring(0, 2);
 	}
 	
+	/**
+	 * Returns the code of the language the user is most likely to switch to next: the
+	 * previous one, or else the next one in the list. Null if there is none.
+	 */
+	public String getLikelyNextLangCode() {
+		if (mLangList == null || mLangList.size() <= 1 || mCurLanguage == null) {
+			return null;
+		}
+		String lang = mPrevLanguage;
+		if (lang == null || lang.equals(mCurLanguage) || !mLangList.contains(lang)) {
+			final int index = mLangList.indexOf(mCurLanguage);
+			lang = mLangList.get((index + 1) % mLangList.size());
+		}
+		if (lang.equals(mCurLanguage) || lang.equals(EMOJI_LANG)) {
+			return null;
+		}
+		return lang.substring(0, 2);
+	}
+	
 	public String getVoiceLang() {
 		// Fix the wrong language codes...
 		final String code = mCurLanguage.substring(0, 2);
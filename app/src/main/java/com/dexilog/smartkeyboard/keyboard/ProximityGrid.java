@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard.keyboard;
+
+import com.dexilog.smartkeyboard.keyboard.Keyboard.Key;
+
+/**
+ * Fine grid over a keyboard, giving for each cell the keys that may be within the proximity
+ * threshold of a point in the cell, sorted by their distance to the cell center. The list
+ * is then almost in the right order for any point of the cell, so that sorting the nearby
+ * keys of a touch is close to linear.
+ */
+public class ProximityGrid {
+
+	// Number of cells along the proximity radius
+	private static final int CELLS_PER_RADIUS = 4;
+
+	private final int mThreshold;
+	private final int mCellSize;
+	private final int mColumns;
+	private final int mRows;
+	private final int[][] mCells;
+
+	ProximityGrid(Key[] keys, int width, int height, int threshold) {
+		mThreshold = threshold;
+		final int radius = (int) Math.sqrt(threshold);
+		mCellSize = Math.max(1, radius / CELLS_PER_RADIUS);
+		mColumns = Math.max(1, (width + mCellSize - 1) / mCellSize);
+		mRows = Math.max(1, (height + mCellSize - 1) / mCellSize);
+		mCells = new int[mColumns * mRows][];
+
+		// Any point of a cell is at most half a diagonal away from its center
+		final int margin = radius + (mCellSize * 3 + 3) / 4;
+		final int marginThreshold = margin * margin;
+		final int keyCount = keys.length;
+		final int[] indices = new int[keyCount];
+		final int[] distances = new int[keyCount];
+		final int last = mCellSize - 1;
+		for (int row = 0; row < mRows; row++) {
+			final int y = row * mCellSize;
+			for (int column = 0; column < mColumns; column++) {
+				final int x = column * mCellSize;
+				final int centerX = x + mCellSize / 2;
+				final int centerY = y + mCellSize / 2;
+				int count = 0;
+				for (int i = 0; i < keyCount; i++) {
+					final Key key = keys[i];
+					final int dist = key.squaredDistanceFrom(centerX, centerY);
+					// Corners are checked too as the distance to the space bar is not continuous
+					if (dist < marginThreshold
+							|| key.squaredDistanceFrom(x, y) < threshold
+							|| key.squaredDistanceFrom(x + last, y) < threshold
+							|| key.squaredDistanceFrom(x, y + last) < threshold
+							|| key.squaredDistanceFrom(x + last, y + last) < threshold) {
+						// Insertion sort, stable for equal distances
+						int j = count++;
+						while (j > 0 && distances[j - 1] > dist) {
+							distances[j] = distances[j - 1];
+							indices[j] = indices[j - 1];
+							j--;
+						}
+						distances[j] = dist;
+						indices[j] = i;
+					}
+				}
+				final int[] cell = new int[count];
+				System.arraycopy(indices, 0, cell, 0, count);
+				mCells[row * mColumns + column] = cell;
+			}
+		}
+	}
+
+	public int getThreshold() {
+		return mThreshold;
+	}
+
+	/**
+	 * Returns the indices of the keys near the given point, sorted by their distance to the
+	 * center of the cell containing the point. Points outside the keyboard are clamped.
+	 */
+	public int[] getNearbyKeys(int x, int y) {
+		int column = x / mCellSize;
+		int row = y / mCellSize;
+		if (column < 0) {
+			column = 0;
+		} else if (column >= mColumns) {
+			column = mColumns - 1;
+		}
+		if (row < 0) {
+			row = 0;
+		} else if (row >= mRows) {
+			row = mRows - 1;
+		}
+		return mCells[row * mColumns + column];
+	}
+}
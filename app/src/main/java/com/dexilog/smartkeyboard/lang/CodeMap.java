@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard.lang;
+
+import java.util.Arrays;
+
+/**
+ * Map from int to int, for the character and key code tables used while typing. The keys are
+ * kept sorted in a plain array, so a lookup is a binary search without boxing or hashing.
+ * The tables are small and filled once, so insertion doesn't need to be fast.
+ */
+public class CodeMap {
+
+	private int[] mKeys;
+	private int[] mValues;
+	private int mSize;
+
+	public CodeMap() {
+		this(16);
+	}
+
+	public CodeMap(int capacity) {
+		mKeys = new int[capacity];
+		mValues = new int[capacity];
+	}
+
+	/**
+	 * Returns the value of the key, or the default value if the key is not in the map.
+	 */
+	public int get(int key, int defaultValue) {
+		final int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+		return index >= 0 ? mValues[index] : defaultValue;
+	}
+
+	public boolean containsKey(int key) {
+		return Arrays.binarySearch(mKeys, 0, mSize, key) >= 0;
+	}
+
+	/**
+	 * Sets the value of the key, replacing the previous one if any.
+	 */
+	public void put(int key, int value) {
+		int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+		if (index >= 0) {
+			mValues[index] = value;
+			return;
+		}
+		index = -index - 1;
+		if (mSize == mKeys.length) {
+			final int capacity = Math.max(mSize * 2, 8);
+			mKeys = Arrays.copyOf(mKeys, capacity);
+			mValues = Arrays.copyOf(mValues, capacity);
+		}
+		System.arraycopy(mKeys, index, mKeys, index + 1, mSize - index);
+		System.arraycopy(mValues, index, mValues, index + 1, mSize - index);
+		mKeys[index] = key;
+		mValues[index] = value;
+		mSize++;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public void clear() {
+		mSize = 0;
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard.lang;
+
+/**
+ * Checkpoints of the conversion of a word being typed, kept by the owner of the word so that
+ * an {@link IncrementalConverter} can resume the conversion when letters are added or removed.
+ *
+ * A checkpoint is the state of the converter before a position of the text, with the length
+ * of the output so far, and how far the converter had looked into the text. It stays valid as
+ * long as the text is unchanged up to there.
+ */
+public class ConversionState {
+
+	// Number of ints a converter can save at each checkpoint
+	static final int DATA_SIZE = 6;
+
+	private int[] mTextIndex;
+	private int[] mDepends;
+	private int[] mOutputLength;
+	private char[] mLastChar;
+	private int[] mData;
+	private int mCount;
+	private int mRestored;
+
+	// Character of the output replaced after the last checkpoint, to undo before resuming
+	private int mPatchIndex = -1;
+	private char mPatchChar;
+
+	public ConversionState() {
+		allocate(16);
+	}
+
+	public ConversionState(ConversionState copy) {
+		allocate(Math.max(16, copy.mCount));
+		System.arraycopy(copy.mTextIndex, 0, mTextIndex, 0, copy.mCount);
+		System.arraycopy(copy.mDepends, 0, mDepends, 0, copy.mCount);
+		System.arraycopy(copy.mOutputLength, 0, mOutputLength, 0, copy.mCount);
+		System.arraycopy(copy.mLastChar, 0, mLastChar, 0, copy.mCount);
+		System.arraycopy(copy.mData, 0, mData, 0, copy.mCount * DATA_SIZE);
+		mCount = copy.mCount;
+		mPatchIndex = copy.mPatchIndex;
+		mPatchChar = copy.mPatchChar;
+	}
+
+	/**
+	 * Forgets all the checkpoints, the next conversion starts from scratch.
+	 */
+	public void reset() {
+		mCount = 0;
+		mPatchIndex = -1;
+	}
+
+	/**
+	 * Drops the checkpoints which depend on the text after the given length, because the
+	 * text was changed from there.
+	 */
+	public void rewind(int unchangedLength) {
+		while (mCount > 0 && mDepends[mCount - 1] > unchangedLength) {
+			mCount--;
+		}
+	}
+
+	/**
+	 * Restores the output as it was at the last checkpoint, and removes that checkpoint so
+	 * that the converter can resume from there, with its data available through get().
+	 * @return the index of the text to resume from, or -1 to start from scratch
+	 */
+	int restore(StringBuilder output) {
+		if (mPatchIndex >= 0) {
+			if (mPatchIndex < output.length()) {
+				output.setCharAt(mPatchIndex, mPatchChar);
+			}
+			mPatchIndex = -1;
+		}
+		if (mCount == 0) {
+			output.setLength(0);
+			return -1;
+		}
+		mCount--;
+		mRestored = mCount;
+		final int outputLength = mOutputLength[mCount];
+		output.setLength(outputLength);
+		if (outputLength > 0) {
+			output.setCharAt(outputLength - 1, mLastChar[mCount]);
+		}
+		return mTextIndex[mCount];
+	}
+
+	/**
+	 * Returns how far the converter had looked into the text at the restored checkpoint.
+	 */
+	int getRestoredDepends() {
+		return mDepends[mRestored];
+	}
+
+	/**
+	 * Returns a value saved with put() at the restored checkpoint.
+	 */
+	int get(int slot) {
+		return mData[mRestored * DATA_SIZE + slot];
+	}
+
+	/**
+	 * Adds a checkpoint before the given index of the text.
+	 * @param depends the length of text the converter has looked at so far
+	 */
+	void checkpoint(int textIndex, int depends, StringBuilder output) {
+		if (mCount == mTextIndex.length) {
+			grow();
+		}
+		mTextIndex[mCount] = textIndex;
+		mDepends[mCount] = depends;
+		final int outputLength = output.length();
+		mOutputLength[mCount] = outputLength;
+		mLastChar[mCount] = outputLength > 0 ? output.charAt(outputLength - 1) : 0;
+		mCount++;
+	}
+
+	/**
+	 * Saves a value of the converter with the last checkpoint.
+	 */
+	void put(int slot, int value) {
+		mData[(mCount - 1) * DATA_SIZE + slot] = value;
+	}
+
+	/**
+	 * Replaces a character of the output after the last checkpoint was added, remembering
+	 * the previous one so that resuming the conversion undoes it.
+	 */
+	void patch(StringBuilder output, int index, char c) {
+		mPatchIndex = index;
+		mPatchChar = output.charAt(index);
+		output.setCharAt(index, c);
+	}
+
+	private void allocate(int capacity) {
+		mTextIndex = new int[capacity];
+		mDepends = new int[capacity];
+		mOutputLength = new int[capacity];
+		mLastChar = new char[capacity];
+		mData = new int[capacity * DATA_SIZE];
+	}
+
+	private void grow() {
+		final int count = mCount;
+		final int[] textIndex = mTextIndex;
+		final int[] depends = mDepends;
+		final int[] outputLength = mOutputLength;
+		final char[] lastChar = mLastChar;
+		final int[] data = mData;
+		allocate(count * 2);
+		System.arraycopy(textIndex, 0, mTextIndex, 0, count);
+		System.arraycopy(depends, 0, mDepends, 0, count);
+		System.arraycopy(outputLength, 0, mOutputLength, 0, count);
+		System.arraycopy(lastChar, 0, mLastChar, 0, count);
+		System.arraycopy(data, 0, mData, 0, count * DATA_SIZE);
+	}
+}
@@ -16,12 +16,12 @@
 
 package com.dexilog.smartkeyboard.lang;
 
-import java.util.HashMap;
-
 public class Dakuten {
 
     // Table for dakuten handling in T9
-    private static final HashMap<Character, Character> DAKUTEN_TABLE = new HashMap<Character, Character>() {{
+    private static final CodeMap DAKUTEN_TABLE = new CodeMap(80);
+
+    static {
         put('\u3042', '\u3041'); put('\u3044', '\u3043'); put('\u3046', '\u3045'); put('\u3048', '\u3047'); put('\u304a', '\u3049');
         put('\u3041', '\u3042'); put('\u3043', '\u3044'); put('\u3045', '\u30f4'); put('\u3047', '\u3048'); put('\u3049', '\u304a');
         put('\u304b', '\u304c'); put('\u304d', '\u304e'); put('\u304f', '\u3050'); put('\u3051', '\u3052'); put('\u3053', '\u3054');
@@ -40,15 +40,14 @@ public class Dakuten {
         put('\u308e', '\u308f');
         put('\u309b', '\u309c');
         put('\u309c', '\u309b');
-    }};
+    }
+
+    private static void put(char c, char result) {
+        DAKUTEN_TABLE.put(c, result);
+    }
 
     public static char convertDakuten(char c) {
-        Character result = DAKUTEN_TABLE.get(c);
-        if (result != null) {
-            return result;
-        } else {
-            return c;
-        }
+        return (char) DAKUTEN_TABLE.get(c, c);
     }
 
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard.lang;
+
+/**
+ * A converter which can update its output when letters are added to or removed from the end
+ * of the text, instead of converting the whole text again on each key.
+ *
+ * The converter itself is stateless: the caller keeps a {@link ConversionState} and the output
+ * along with the text, and passes them back each time the text changes.
+ */
+public abstract class IncrementalConverter implements Converter {
+
+	private final ConversionState mScratchState = new ConversionState();
+
+	/**
+	 * Converts the text from the last checkpoint of the state, and updates the output. The
+	 * caller must have rewound the state to the length of text unchanged since the previous
+	 * call.
+	 */
+	public abstract void resume(CharSequence text, StringBuilder output, ConversionState state);
+
+	/**
+	 * Updates the output after a letter was added at the end of the text.
+	 */
+	public void append(CharSequence text, StringBuilder output, ConversionState state) {
+		state.rewind(text.length() - 1);
+		resume(text, output, state);
+	}
+
+	/**
+	 * Updates the output after the last letter of the text was removed.
+	 */
+	public void deleteLast(CharSequence text, StringBuilder output, ConversionState state) {
+		state.rewind(text.length());
+		resume(text, output, state);
+	}
+
+	/**
+	 * Converts the whole text, replacing the content of the output.
+	 */
+	@Override
+	public void convert(CharSequence text, StringBuilder output) {
+		synchronized (mScratchState) {
+			mScratchState.reset();
+			resume(text, output, mScratchState);
+		}
+	}
+}
@@ -20,7 +20,7 @@ package com.dexilog.smartkeyboard.lang;
 
 import com.dexilog.smartkeyboard.input.WordComposer;
 
-public class Korean implements Converter {
+public class Korean extends IncrementalConverter {
 
     private static final int STATE_UNKNOWN = 0;
     private static final int STATE_LEAD = 1;
@@ -28,6 +28,13 @@ public class Korean implements Converter {
     private static final int STATE_VOWEL_2 = 3;
     private static final int STATE_TAIL = 4;
 
+    // Values saved with each checkpoint of the conversion
+    private static final int DATA_STATE = 0;
+    private static final int DATA_LEAD = 1;
+    private static final int DATA_VOWEL = 2;
+    private static final int DATA_TAIL = 3;
+    private static final int DATA_LETTER = 4;
+
     private static final int LEAD_CHARS[] =
         {0, 1, 2, 0, 3, 0, 0, 4, 5, 6, 0, 0, 0, 0, 0, 0, 0, 7, 8, 9, 0, 10,
         11, 12, 13, 14, 15, 16, 17, 18, 19};
@@ -152,20 +159,41 @@ public class Korean implements Converter {
     }
 
 
-    public void convert(CharSequence text, StringBuilder output) {
+    @Override
+    public void resume(CharSequence text, StringBuilder output, ConversionState checkpoints) {
         // Translate a jamo sequence to hangul
         final int len = text.length();
-        output.setLength(0);
         int state = STATE_UNKNOWN;
         int lead = 0;
         int vowel = 0;
         int tail = 0;
         int prevLetter = 0;
         int c = 0;
+        int i = checkpoints.restore(output);
+        // Length of text the conversion depends on so far
+        int depends = 0;
+        if (i < 0) {
+            i = 0;
+        } else {
+            depends = checkpoints.getRestoredDepends();
+            state = checkpoints.get(DATA_STATE);
+            lead = checkpoints.get(DATA_LEAD);
+            vowel = checkpoints.get(DATA_VOWEL);
+            tail = checkpoints.get(DATA_TAIL);
+            c = checkpoints.get(DATA_LETTER);
+        }
+
+        for (; i<len; i++) {
+            checkpoints.checkpoint(i, depends, output);
+            checkpoints.put(DATA_STATE, state);
+            checkpoints.put(DATA_LEAD, lead);
+            checkpoints.put(DATA_VOWEL, vowel);
+            checkpoints.put(DATA_TAIL, tail);
+            checkpoints.put(DATA_LETTER, c);
 
-        for (int i=0; i<len; i++) {
             prevLetter = c;
             c = text.charAt(i);
+            depends = Math.max(depends, i + 1);
 
             // Convert vowels entered with T9 keyboard thanks to the vowels FSM
             int vowelIndex = getVowelIndex(c);
@@ -184,9 +212,12 @@ public class Korean implements Converter {
                     // Next letter
                     j++;
                     if (i+j >= len) {
+                        // A letter typed later may extend the sequence
+                        depends = len + 1;
                         break;
                     }
                     vowelIndex = getVowelIndex(text.charAt(i + j));
+                    depends = Math.max(depends, i + j + 1);
                 }
                 // Found a vowel sequence?
                 if (foundVowel != 0) {
@@ -291,6 +322,9 @@ public class Korean implements Converter {
                         if (i+1<len) {
                             final char next = text.charAt(i+1);
                             nextIsVowel = (next >= 0x314F && next < 0x3164 || next == 0x318D);
+                            depends = Math.max(depends, i + 2);
+                        } else {
+                            depends = len + 1;
                         }
                         if (combined != 0 && !nextIsVowel) {
                             // Hangul finished
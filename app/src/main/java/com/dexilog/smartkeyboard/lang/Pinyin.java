@@ -16,9 +16,7 @@
 
 package com.dexilog.smartkeyboard.lang;
 
-import java.util.HashMap;
-
-public class Pinyin implements Converter {
+public class Pinyin extends IncrementalConverter {
 	
 	static private final char VOWELS[][] = 		
 		{{'a', '\u0101', '\u00E1', '\u01CE', '\u00E0'},
@@ -34,7 +32,11 @@ public class Pinyin implements Converter {
 		{'U', '\u016A', '\u00da', '\u01d3', '\u00D9'},
 		{'\u00dc', '\u01d5' ,'\u01d7', '\u01d9' ,'\u01db'}};
 
-	private HashMap<Character, Integer> mBaseVowels = new HashMap<Character, Integer>();
+	// Values saved with each checkpoint of the conversion
+	private static final int DATA_PREV_VOWEL = 0;
+	private static final int DATA_PREV_HAS_TONE = 1;
+
+	private CodeMap mBaseVowels = new CodeMap(60);
 	
 	public Pinyin() {
 		// Fill base vowels map
@@ -48,12 +50,27 @@ public class Pinyin implements Converter {
 	}
 	
 	@Override
-	public void convert(CharSequence text, StringBuilder output) {
+	public void resume(CharSequence text, StringBuilder output, ConversionState state) {
 		final int len = text.length();
 		char prevVowel = 0;
 		boolean prevHasTone = false;
-		for (int i = 0; i < len; i++) {
+		int i = state.restore(output);
+		// Length of text the conversion depends on so far
+		int depends = 0;
+		if (i < 0) {
+			i = 0;
+		} else {
+			depends = state.getRestoredDepends();
+			prevVowel = (char) state.get(DATA_PREV_VOWEL);
+			prevHasTone = state.get(DATA_PREV_HAS_TONE) != 0;
+		}
+		for (; i < len; i++) {
+			state.checkpoint(i, depends, output);
+			state.put(DATA_PREV_VOWEL, prevVowel);
+			state.put(DATA_PREV_HAS_TONE, prevHasTone ? 1 : 0);
+
 			char c = text.charAt(i);
+			depends = Math.max(depends, i + 1);
 			if (isVowel(c)) {
 				boolean hasTone = false;
 				int tone = 0;
@@ -67,8 +84,10 @@ public class Pinyin implements Converter {
 					if (i+1 == len) {
 						// 1st case: last letter of the word -> tone
 						hasTone= true;
+						depends = len + 1;
 					} else {
 						char nextLower = Character.toLowerCase(text.charAt(i+1));
+						depends = Math.max(depends, i + 2);
 						// 2nd case: next letter is not a vowel -> tone
 						// 3rd case: o takes the tone in "ou"
 						if (!isVowel(nextLower) || (lowerC == 'o' && nextLower == 'u')) {
@@ -86,6 +105,7 @@ public class Pinyin implements Converter {
 					boolean consonantFound = false;
 					while (j < len) {
 						char next = text.charAt(j);
+						depends = Math.max(depends, j + 1);
 						if (isVowel(next)) {
 							if (consonantFound) {
 								// It means we are already in the next syllable
@@ -104,6 +124,10 @@ public class Pinyin implements Converter {
 						}
 						j++;
 					}
+					if (j == len) {
+						// A tone mark may still be typed
+						depends = len + 1;
+					}
 				}
 				
 				prevVowel = c;
@@ -111,7 +135,7 @@ public class Pinyin implements Converter {
 
 				if (tone != 0) {
 					// Output vowel with correct tone
-					c = VOWELS[mBaseVowels.get(c)][tone];
+					c = VOWELS[mBaseVowels.get(c, 0)][tone];
 				}
 				output.append(c);
 			} else if (getTone(c) == 0) {
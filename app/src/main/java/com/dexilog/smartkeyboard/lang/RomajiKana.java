@@ -16,17 +16,19 @@
 
 package com.dexilog.smartkeyboard.lang;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 
 /**
  * The Romaji to Hiragana converter class for Japanese IME.
  *
  * @author Copyright (C) 2009 OMRON SOFTWARE CO., LTD.  All Rights Reserved.
  */
-@SuppressWarnings("serial")
-public class RomajiKana implements Converter {
-    /** HashMap for Romaji-to-Kana conversion (Japanese mode) */
-	private static final HashMap<String, String> mRomkanTable = new HashMap<String, String>() {{
+public class RomajiKana extends IncrementalConverter {
+    /** Romaji-to-Kana conversion table (Japanese mode), from the packed romaji to the index of the kana */
+    private static final CodeMap mRomkanTable = new CodeMap(320);
+    private static final ArrayList<String> mKanaTable = new ArrayList<String>(320);
+
+    static {
         put("la", "\u3041");        put("xa", "\u3041");        put("a", "\u3042");
         put("li", "\u3043");        put("lyi", "\u3043");       put("xi", "\u3043");
         put("xyi", "\u3043");       put("i", "\u3044");         put("yi", "\u3044");
@@ -119,7 +121,34 @@ public class RomajiKana implements Converter {
         put("vyi", "\u30f4\u3043");     put("ve", "\u30f4\u3047");      put("vye", "\u30f4\u3047");
         put("vo", "\u30f4\u3049");      put("vya", "\u30f4\u3083");     put("vyu", "\u30f4\u3085");
         put("vyo", "\u30f4\u3087"); put("nn", "\u3093");
-    }};
+    }
+
+    private static void put(String romaji, String kana) {
+        final int key = packRomaji(romaji, 0, romaji.length());
+        // Skip the romaji which can't be looked up
+        if (key != -1) {
+            mRomkanTable.put(key, mKanaTable.size());
+            mKanaTable.add(kana);
+        }
+    }
+
+    /**
+     * Packs up to 3 latin letters in an int, or returns -1 if the text can't be in the table.
+     */
+    private static int packRomaji(CharSequence text, int start, int end) {
+        if (end <= start || end - start > 3) {
+            return -1;
+        }
+        int key = 0;
+        for (int i = end - 1; i >= start; i--) {
+            final char c = text.charAt(i);
+            if (c == 0 || c > 0xff) {
+                return -1;
+            }
+            key = (key << 8) | c;
+        }
+        return key;
+    }
 
     /**
      * Default constructor
@@ -127,17 +156,28 @@ public class RomajiKana implements Converter {
     public RomajiKana() {
     }
 
-    public void convert(CharSequence text, StringBuilder output) {
+    @Override
+    public void resume(CharSequence text, StringBuilder output, ConversionState state) {
     	final int len = text.length();
-    	int i = 0;
+    	int i = state.restore(output);
+    	// Length of text the conversion depends on so far
+    	int depends = 0;
+    	if (i < 0) {
+    		i = 0;
+    	} else {
+    		depends = state.getRestoredDepends();
+    	}
     	while (i<len) {
+    		state.checkpoint(i, depends, output);
     		final int lookupLen = Math.min(len - i, 3);
+    		// A shorter lookup may find a longer match once more letters are typed
+    		depends = Math.max(depends, lookupLen == 3 ? i + 3 : len + 1);
     		String kana = null;
     		int j = lookupLen;
     		while (j > 0) {
-    			final CharSequence key = text.subSequence(i, i+j);
-    			kana = mRomkanTable.get(key);
-    			if (kana != null) {
+    			final int index = mRomkanTable.get(packRomaji(text, i, i+j), -1);
+    			if (index != -1) {
+    				kana = mKanaTable.get(index);
     				break;
     			}
     			j--;
@@ -1,14 +1,24 @@
 package com.dexilog.smartkeyboard.lang;
 
-public class Tamil implements Converter {
+public class Tamil extends IncrementalConverter {
 
     public static final int COMPOUND_VOWEL_OFFSET = 56;
 
+    private static final int DATA_PREV_IS_CONSONANT = 0;
+
     @Override
-    public void convert(CharSequence text, StringBuilder output) {
+    public void resume(CharSequence text, StringBuilder output, ConversionState state) {
         final int len = text.length();
         boolean prevIsConsonant = false;
-        for (int i = 0; i < len; i++) {
+        int i = state.restore(output);
+        if (i < 0) {
+            i = 0;
+        } else {
+            prevIsConsonant = state.get(DATA_PREV_IS_CONSONANT) != 0;
+        }
+        for (; i < len; i++) {
+            state.checkpoint(i, i, output);
+            state.put(DATA_PREV_IS_CONSONANT, prevIsConsonant ? 1 : 0);
             char c = text.charAt(i);
             char newChar = c;
             if (prevIsConsonant && isVowel(c)) {
@@ -16,9 +16,7 @@
 
 package com.dexilog.smartkeyboard.lang;
 
-import java.util.HashMap;
-
-public class Telex implements Converter {
+public class Telex extends IncrementalConverter {
 	
 	// Tones: z(0) f(1) r(2) x(3) s(4) j(5)
 	
@@ -53,8 +51,14 @@ public class Telex implements Converter {
 		{121, 7923, 7927, 7929, 253, 7925},   // y
 	};
 	
-	private HashMap<Character, Integer> mBaseVowels = new HashMap<Character, Integer>();
-	private HashMap<Integer, Character> mPairMap = new HashMap<Integer, Character>();
+	// Values saved with each checkpoint of the conversion
+	private static final int DATA_TONE = 0;
+	private static final int DATA_TONE_INDEX = 1;
+	private static final int DATA_PREV_VOWEL_INDEX = 2;
+	private static final int DATA_DIACRITIC_VOWEL = 3;
+
+	private CodeMap mBaseVowels = new CodeMap(144);
+	private CodeMap mPairMap = new CodeMap(PAIR_KEYS.length);
 	
 	public Telex() {
 		for (int i=0; i<PAIR_KEYS.length; i++) {
@@ -73,35 +77,51 @@ public class Telex implements Converter {
 	}
 	
 	@Override
-	public void convert(CharSequence text, StringBuilder output) {
-		int len = text.length();
-		if (len == 0) return;
-		char cur = text.charAt(0);
-		StringBuilder word = new StringBuilder();
+	public void resume(CharSequence text, StringBuilder output, ConversionState state) {
+		final int len = text.length();
 		int tone = 0;
-		int curIndex = 0;
 		int toneIndex = -1;
 		int prevVowelIndex = -1;
 		int diactriticVowel = -1;
+		int i = state.restore(output);
+		// Length of text the conversion depends on so far
+		int depends = 0;
+		if (i < 0) {
+			i = 0;
+		} else {
+			depends = state.getRestoredDepends();
+			tone = state.get(DATA_TONE);
+			toneIndex = state.get(DATA_TONE_INDEX);
+			prevVowelIndex = state.get(DATA_PREV_VOWEL_INDEX);
+			diactriticVowel = state.get(DATA_DIACRITIC_VOWEL);
+		}
 		// First pass: convert pairs and detect tones
-		for (int i = 0; i < len; i++) {
-			char next = 0;
+		for (; i < len; i++) {
+			state.checkpoint(i, depends, output);
+			state.put(DATA_TONE, tone);
+			state.put(DATA_TONE_INDEX, toneIndex);
+			state.put(DATA_PREV_VOWEL_INDEX, prevVowelIndex);
+			state.put(DATA_DIACRITIC_VOWEL, diactriticVowel);
+
+			char cur = text.charAt(i);
 			if (i+1 < len) {
 				// Get the next character to detect pairs
-				next = text.charAt(i+1);
+				final char next = text.charAt(i+1);
+				depends = Math.max(depends, i + 2);
 				int pairKey = (int)cur * 65536 + next;
-				Character pairValue = mPairMap.get(pairKey);
-				if (pairValue != null) {
-					cur = pairValue;
+				final int pairValue = mPairMap.get(pairKey, -1);
+				if (pairValue != -1) {
+					cur = (char) pairValue;
 					i++;
-					if (i+1 < len) {
-						next = text.charAt(i+1);
-					}
 				}
+			} else {
+				// The next letter typed may make a pair
+				depends = len + 1;
 			}
+			final int curIndex = output.length();
 			int curTone = -1;
-			Integer baseVowel = mBaseVowels.get(cur);
-			if (baseVowel != null) {
+			final int baseVowel = mBaseVowels.get(cur, -1);
+			if (baseVowel != -1) {
 				prevVowelIndex = toneIndex;
 				toneIndex = curIndex;
 				// Check if the vowel has a diacritic
@@ -116,29 +136,22 @@ public class Telex implements Converter {
 			if (curTone != -1) {
 				tone = curTone;
 			} else {
-				word.append(cur);
-				curIndex++;
+				output.append(cur);
 			}
-			cur = next;
 		}
-		len = word.length();
+		final int wordLen = output.length();
 		// Put the tone on vowel with a diacritic
 		if (diactriticVowel != -1) {
 			toneIndex = diactriticVowel;
 		} 
 		// If the last letter is a vowel, put the tone mark on the previous vowel if any
-		else if (toneIndex == len-1 && prevVowelIndex != -1) {
+		else if (toneIndex == wordLen-1 && prevVowelIndex != -1) {
 			toneIndex = prevVowelIndex;
 		}
-		// Second pass, output the word with tones
-		for (int i=0; i<len; i++) {
-			cur = word.charAt(i);
-			if (i == toneIndex) {
-				// Get the vowel with the correct tone
-				Integer baseVowel = mBaseVowels.get(cur);
-				cur = VOWELS[baseVowel][tone];
-			}
-			output.append(cur);
+		// Second pass: put the correct tone on the vowel, until the word changes
+		if (toneIndex != -1) {
+			final int baseVowel = mBaseVowels.get(output.charAt(toneIndex), -1);
+			state.patch(output, toneIndex, VOWELS[baseVowel][tone]);
 		}
 	}
 
@@ -115,6 +115,27 @@ public class AutoText {
 
         mText = right.toString();
     }
+
+    /**
+     * Builds the dictionary from parallel arrays of misspellings and their corrections,
+     * for use outside of an Android context.
+     */
+    public AutoText(String[] sources, String[] corrections) {
+        StringBuilder right = new StringBuilder(RIGHT);
+        mTrie = new char[DEFAULT];
+        mTrie[TRIE_ROOT] = TRIE_NULL;
+        mTrieUsed = TRIE_ROOT + 1;
+
+        for (int i = 0; i < sources.length; i++) {
+            final String dest = corrections[i];
+            char off = (char) right.length();
+            right.append((char) dest.length());
+            right.append(dest);
+            add(sources[i], off);
+        }
+
+        mText = right.toString();
+    }
     
  
     /**
@@ -90,7 +90,11 @@ public abstract class Dictionary {
         return true;
     }
 
-    //public abstract void close();
+    /**
+     * Releases the native resources of the dictionary, if any. It can't be used afterwards.
+     */
+    public void close() {
+    }
     
    // public abstract void loadDictionary() throws Exception; 
 }
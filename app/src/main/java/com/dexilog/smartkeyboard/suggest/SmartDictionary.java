@@ -22,4 +22,16 @@ public interface SmartDictionary {
     void increaseWordCount(String word);
 
     int getWordCount(CharSequence word);
+
+    int getWordCount(char[] word, int length);
+
+    /**
+     * Writes the pending word counts to the database, in the background.
+     */
+    void flush();
+
+    /**
+     * Writes the pending word counts and releases the dictionary.
+     */
+    void close();
 }
@@ -31,13 +31,16 @@ import android.graphics.Paint.Align;
 import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.os.Message;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
+import android.util.LruCache;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup.LayoutParams;
 import android.widget.PopupWindow;
+import android.widget.Scroller;
 import android.widget.TextView;
 
 import com.dexilog.smartkeyboard.R;
@@ -71,13 +74,17 @@ public class CandidateView extends View {
     private Drawable mDivider;
     
     private static final int MAX_SUGGESTIONS = 510;
-    private static final int SCROLL_PIXELS = 20;
+    private static final int SCROLL_DURATION = 200;
+    // Enough to keep the widths of several screens of suggestions between updates
+    private static final int WIDTH_CACHE_SIZE = 512;
     
     private static final int MSG_REMOVE_PREVIEW = 1;
     private static final int MSG_REMOVE_THROUGH_PREVIEW = 2;
     
     private int[] mWordWidth = new int[MAX_SUGGESTIONS];
     private int[] mWordX = new int[MAX_SUGGESTIONS];
+    private String[] mWordStrings = new String[MAX_SUGGESTIONS];
+    private boolean mLayoutDone;
     private int mPopupPreviewX;
     private int mPopupPreviewY;
 
@@ -91,12 +98,19 @@ public class CandidateView extends View {
     private Paint mPaint;
     private int mDescent;
     private boolean mScrolled;
-    private int mTargetScrollX;
+    private Scroller mScroller;
     private boolean mRTLSuggestions;
     
     private int mMinTouchableWidth;
     
     private int mTotalWidth;
+
+    // Text widths by typeface, valid for mWidthCacheTextSize only
+    private final LruCache<String, Integer> mWidthCache =
+            new LruCache<String, Integer>(WIDTH_CACHE_SIZE);
+    private final LruCache<String, Integer> mBoldWidthCache =
+            new LruCache<String, Integer>(WIDTH_CACHE_SIZE);
+    private float mWidthCacheTextSize;
     
     private GestureDetector mGestureDetector;
 
@@ -152,6 +166,7 @@ public class CandidateView extends View {
         mDescent = (int) mPaint.descent();
         // 80 pixels for a 160dpi device would mean half an inch
         mMinTouchableWidth = (int) (getResources().getDisplayMetrics().density * 50);
+        mScroller = new Scroller(context);
         
         mGestureDetector = new GestureDetector(context, 
         		new CandidateStripGestureListener(mMinTouchableWidth));
@@ -202,6 +217,7 @@ public class CandidateView extends View {
 
             final int width = getWidth();
             mScrolled = true;
+            mScroller.forceFinished(true);
             scrollBy((int) distanceX, 0);
             if (getScrollX() < 0) {
                 scrollTo(0, getScrollY());
@@ -209,7 +225,6 @@ public class CandidateView extends View {
             if (distanceX > 0 && getScrollX() + width > mTotalWidth) {                    
                 scrollBy(-(int) distanceX, 0);
             }
-            mTargetScrollX = getScrollX();
             hidePreview();
             invalidate();
             return true;
@@ -282,8 +297,10 @@ public class CandidateView extends View {
             super.onDraw(canvas);
         }
         final int barWidth = getMeasuredWidth();
-        mTotalWidth = 0;
-        if (mSuggestions == null) return;
+        if (mSuggestions == null) {
+            mTotalWidth = 0;
+            return;
+        }
         
         final int height = getHeight();
         if (mBgPadding == null) {
@@ -294,7 +311,6 @@ public class CandidateView extends View {
             mDivider.setBounds(0, 0, mDivider.getIntrinsicWidth(),
                     mDivider.getIntrinsicHeight());
         }
-        int x = 0;
         final int count = mSuggestions.size(); 
         //final int width = getWidth();
         final Rect bgPadding = mBgPadding;
@@ -302,6 +318,10 @@ public class CandidateView extends View {
         final int touchX = mTouchX;
         final int scrollX = getScrollX();
         final boolean scrolled = mScrolled;
+        // Once all the words have been measured, only walk the visible ones
+        final boolean visibleOnly = canvas != null && mLayoutDone;
+        final int first = visibleOnly ? getFirstVisibleIndex(scrollX, count) : 0;
+        int x = first < count ? mWordX[first] : 0;
         int highlightIndex = 0;
         if (mCurrentIndex == -1) {
         	// Initially highlighted word
@@ -311,13 +331,11 @@ public class CandidateView extends View {
         }
         final int y = (int) (height + mPaint.getTextSize() - mDescent) / 2;
 
-        for (int i = 0; i < count; i++) {
-            CharSequence suggestion = mSuggestions.get(i);
+        for (int i = first; i < count; i++) {
+            if (visibleOnly && x >= scrollX + barWidth) break;
+            final String suggestion = getWordString(i);
             if (suggestion == null) continue;
             final int wordLength = suggestion.length();
-            
-        	// toString should be useless, but it seems needed to make bidi work with CM
-            suggestion = suggestion.toString();
             paint.setColor(mColorNormal);
             if (mHaveMinimalSuggestion && highlightIndex == i) {
                 paint.setTypeface(Typeface.DEFAULT_BOLD);
@@ -331,8 +349,7 @@ public class CandidateView extends View {
             if (mWordWidth[i] != 0) {
                 wordWidth = mWordWidth[i];
             } else {
-                float textWidth =  paint.measureText(suggestion, 0, wordLength);
-                wordWidth = Math.max(mMinTouchableWidth, (int) textWidth + X_GAP * 2);
+                wordWidth = Math.max(mMinTouchableWidth, getTextWidth(suggestion) + X_GAP * 2);
                 mWordWidth[i] = wordWidth;
             }
 
@@ -356,7 +373,7 @@ public class CandidateView extends View {
 
             if (canvas != null) {
             	// Check if it's worth displaying this word
-            	if (x >= scrollX - barWidth && x < scrollX + 2 * barWidth) {
+            	if (x + wordWidth > scrollX && x < scrollX + barWidth) {
             		// Don't reverse the text if the option is set (for arabic)
             		CharSequence directionCorrectedSuggestion = mRTLSuggestions ?
             				Workarounds.workaroundCorrectStringDirection(suggestion) : suggestion;
@@ -371,27 +388,73 @@ public class CandidateView extends View {
             paint.setTypeface(Typeface.DEFAULT);
             x += wordWidth;
         }
-        mTotalWidth = x;
-        if (mTargetScrollX != getScrollX()) {
-            scrollToTarget();
+        if (!visibleOnly) {
+            mTotalWidth = x;
+            mLayoutDone = true;
         }
     }
-    
-    private void scrollToTarget() {
-        if (mTargetScrollX > getScrollX()) {
-            scrollBy(SCROLL_PIXELS, 0);
-            if (getScrollX() >= mTargetScrollX) {
-                scrollTo(mTargetScrollX, getScrollY());
-                requestLayout();
+
+    /**
+     * Returns the index of the first word overlapping the strip at the given scroll
+     * position. Only valid once all the words have been laid out.
+     */
+    private int getFirstVisibleIndex(int scrollX, int count) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (mWordX[mid] <= scrollX) {
+                low = mid;
+            } else {
+                high = mid - 1;
             }
-        } else {
-        	scrollBy(-SCROLL_PIXELS, 0);
-            if (getScrollX() <= mTargetScrollX) {
-                scrollTo(mTargetScrollX, getScrollY());
+        }
+        return low;
+    }
+
+    private String getWordString(int index) {
+        String word = mWordStrings[index];
+        if (word == null) {
+            final CharSequence suggestion = mSuggestions.get(index);
+            if (suggestion == null) return null;
+            // toString should be useless, but it seems needed to make bidi work with CM
+            word = suggestion.toString();
+            mWordStrings[index] = word;
+        }
+        return word;
+    }
+
+    /**
+     * Measures a word with the current typeface of the paint. The widths are kept
+     * across suggestion updates, as the same words tend to come back while typing.
+     */
+    private int getTextWidth(String word) {
+        final Paint paint = mPaint;
+        if (paint.getTextSize() != mWidthCacheTextSize) {
+            mWidthCache.evictAll();
+            mBoldWidthCache.evictAll();
+            mWidthCacheTextSize = paint.getTextSize();
+        }
+        final LruCache<String, Integer> cache = paint.getTypeface() == Typeface.DEFAULT_BOLD ?
+                mBoldWidthCache : mWidthCache;
+        Integer width = cache.get(word);
+        if (width == null) {
+            width = (int) paint.measureText(word);
+            cache.put(word, width);
+        }
+        return width;
+    }
+
+    @Override
+    public void computeScroll() {
+        if (mScroller.computeScrollOffset()) {
+            scrollTo(mScroller.getCurrX(), getScrollY());
+            if (mScroller.isFinished()) {
                 requestLayout();
+            } else {
+                ViewCompat.postInvalidateOnAnimation(this);
             }
         }
-        invalidate();
     }
     
     public void setSuggestions(List<CharSequence> suggestions, boolean completions,
@@ -402,8 +465,8 @@ public class CandidateView extends View {
         }
         mShowingCompletions = completions;
         mTypedWordValid = typedWordValid;
+        mScroller.forceFinished(true);
         scrollTo(0, getScrollY());
-        mTargetScrollX = 0;
         mHaveMinimalSuggestion = haveMinimalSuggestion;
         // Compute the total width
         onDraw(null);
@@ -474,10 +537,10 @@ public class CandidateView extends View {
 
     private void updateScrollPosition(int targetX) {
         if (targetX != getScrollX()) {
-            // TODO: Animate
-            mTargetScrollX = targetX;
+            final int scrollX = getScrollX();
+            mScroller.startScroll(scrollX, getScrollY(), targetX - scrollX, 0, SCROLL_DURATION);
             requestLayout();
-            invalidate();
+            ViewCompat.postInvalidateOnAnimation(this);
             mScrolled = true;
         }
     }
@@ -491,6 +554,8 @@ public class CandidateView extends View {
         invalidate();
         Arrays.fill(mWordWidth, 0);
         Arrays.fill(mWordX, 0);
+        Arrays.fill(mWordStrings, null);
+        mLayoutDone = false;
         if (mPreviewPopup.isShowing()) {
             mPreviewPopup.dismiss();
         }
@@ -592,7 +657,7 @@ public class CandidateView extends View {
                 mPreviewText.setText(word);
                 mPreviewText.measure(MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED),
                         MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
-                int wordWidth = (int) (mPaint.measureText(word, 0, word.length()) + X_GAP * 2);
+                int wordWidth = getTextWidth(word.toString()) + X_GAP * 2;
                 final int popupWidth = wordWidth
                         + mPreviewText.getPaddingLeft() + mPreviewText.getPaddingRight();
                 final int popupHeight = mPreviewText.getMeasuredHeight();
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+
+import com.dexilog.smartkeyboard.keyboard.Keyboard.Key;
+
+/**
+ * Rasterized images of the keys of the current keyboard, for a few states of each key
+ * (pressed, on, shifted...), so that redrawing a key is a single bitmap copy. The images are
+ * drawn on demand by the keyboard view, and must be cleared when the skin changes.
+ */
+class KeyImageCache {
+
+	// Normal and pressed, shifted or not
+	private static final int IMAGES_PER_KEY = 4;
+
+	static class Image {
+		Bitmap bitmap;
+		Canvas canvas;
+		int[] drawableState;
+		boolean upperCase;
+		long lastUse;
+		// What the image was drawn from, the keyboard may change a key at any time
+		CharSequence label;
+		String altLabel;
+		Drawable icon;
+		int iconID;
+		int altIconID;
+		int code;
+		int textSize;
+
+		boolean isDrawnFrom(Key key) {
+			return label == key.label && altLabel == key.altLabel && icon == key.icon
+					&& iconID == key.iconID && altIconID == key.altIconID
+					&& code == key.codes[0] && textSize == key.textSize
+					&& bitmap.getWidth() == key.width && bitmap.getHeight() == key.height;
+		}
+	}
+
+	private final long mMaxBytes;
+	private long mBytes;
+	private long mUseCount;
+	private Image[][] mImages = new Image[0][];
+
+	KeyImageCache(long maxBytes) {
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Drops all the images, and gets ready for a keyboard with the given number of keys.
+	 */
+	void reset(int keyCount) {
+		clear();
+		if (mImages.length != keyCount) {
+			mImages = new Image[keyCount][];
+		}
+	}
+
+	/**
+	 * Drops all the images, after a change of skin or settings.
+	 */
+	void clear() {
+		for (Image[] images : mImages) {
+			if (images == null) continue;
+			for (int i = 0; i < images.length; i++) {
+				if (images[i] != null) {
+					images[i].bitmap.recycle();
+					images[i] = null;
+				}
+			}
+		}
+		mBytes = 0;
+	}
+
+	/**
+	 * Returns the image of the key in the given state, or null if it must be drawn.
+	 */
+	Image find(int keyIndex, Key key, int[] drawableState, boolean upperCase) {
+		if (keyIndex >= mImages.length || mImages[keyIndex] == null) return null;
+		for (Image image : mImages[keyIndex]) {
+			if (image != null && image.drawableState == drawableState
+					&& image.upperCase == upperCase && image.isDrawnFrom(key)) {
+				image.lastUse = ++mUseCount;
+				return image;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a cleared image to draw the key in the given state into, or null if the cache
+	 * is full.
+	 */
+	Image obtain(int keyIndex, Key key, int[] drawableState, boolean upperCase) {
+		if (keyIndex >= mImages.length || key.width <= 0 || key.height <= 0) return null;
+		Image[] images = mImages[keyIndex];
+		if (images == null) {
+			images = mImages[keyIndex] = new Image[IMAGES_PER_KEY];
+		}
+		// Replace the outdated image of the same state, or take a free slot, or the oldest image
+		int slot = findSlot(images, drawableState, upperCase);
+		if (slot == -1) {
+			for (int i = 0; i < images.length; i++) {
+				if (images[i] == null) {
+					slot = i;
+					break;
+				}
+			}
+		}
+		if (slot == -1) {
+			slot = 0;
+			for (int i = 1; i < images.length; i++) {
+				if (images[i].lastUse < images[slot].lastUse) slot = i;
+			}
+		}
+		Image image = images[slot];
+		if (image != null && (image.bitmap.getWidth() != key.width
+				|| image.bitmap.getHeight() != key.height)) {
+			mBytes -= getBytes(image.bitmap);
+			image.bitmap.recycle();
+			image = images[slot] = null;
+		}
+		if (image == null) {
+			final long bytes = 4L * key.width * key.height; // ARGB_8888
+			if (mBytes + bytes > mMaxBytes) return null;
+			image = new Image();
+			image.bitmap = Bitmap.createBitmap(key.width, key.height, Bitmap.Config.ARGB_8888);
+			image.canvas = new Canvas(image.bitmap);
+			mBytes += bytes;
+			images[slot] = image;
+		} else {
+			image.bitmap.eraseColor(0);
+		}
+		image.drawableState = drawableState;
+		image.upperCase = upperCase;
+		image.lastUse = ++mUseCount;
+		image.label = key.label;
+		image.altLabel = key.altLabel;
+		image.icon = key.icon;
+		image.iconID = key.iconID;
+		image.altIconID = key.altIconID;
+		image.code = key.codes[0];
+		image.textSize = key.textSize;
+		return image;
+	}
+
+	private static int findSlot(Image[] images, int[] drawableState, boolean upperCase) {
+		for (int i = 0; i < images.length; i++) {
+			final Image image = images[i];
+			if (image != null && image.drawableState == drawableState
+					&& image.upperCase == upperCase) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static long getBytes(Bitmap bitmap) {
+		return 4L * bitmap.getWidth() * bitmap.getHeight();
+	}
+}
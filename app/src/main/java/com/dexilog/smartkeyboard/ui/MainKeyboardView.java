@@ -181,8 +181,8 @@ public class MainKeyboardView extends View implements View.OnClickListener, Keyb
 	private int mPopupLayout;
 	private boolean popupKeyboardDisabled = false;
 	private boolean mAbortKey;
-	private Key mInvalidatedKey;
-	private Rect mClipRegion = new Rect(0, 0, 0, 0);
+	// Images of the keys, at most an eighth of the heap
+	private KeyImageCache mKeyImages = new KeyImageCache(Runtime.getRuntime().maxMemory() / 8);
 	private boolean mPossiblePoly;
 	private SwipeTracker mSwipeTracker = new SwipeTracker();
 	private int mSwipeThreshold;
@@ -221,7 +221,11 @@ public class MainKeyboardView extends View implements View.OnClickListener, Keyb
 	private int mSwipeFactor = 30;
 
 	protected static int MAX_NEARBY_KEYS = 12;
-	private int[] mDistances = new int[MAX_NEARBY_KEYS];
+	// Reused for each touch: nearby keys sorted by distance, and the codes sent for a key
+	private int[] mNearbyKeys = new int[MAX_NEARBY_KEYS];
+	private int[] mNearbyDistances = new int[MAX_NEARBY_KEYS];
+	private int[] mKeyCodes = new int[MAX_NEARBY_KEYS];
+	private int[] mSingleCode = new int[1];
 
 	// For multi-tap
 	private int mLastSentIndex;
@@ -455,6 +459,7 @@ public class MainKeyboardView extends View implements View.OnClickListener, Keyb
 	
 	public void setCustomKeys(CustomKeys customKeys) {
 		mCustomKeys = customKeys;
+		mKeyImages.clear();
 	}
 	
 	public void setNoAltPreview(boolean noAltPreview) {
@@ -511,12 +516,16 @@ public class MainKeyboardView extends View implements View.OnClickListener, Keyb
 		
 		// Redraw the keyboard
 		mKeyBackground.getPadding(mPadding);
+		mKeyImages.clear();
 		mKeyboardChanged = true;
 		mOffsetInWindow = null;
 		invalidateAllKeys();
 	}
 
 	public void setDisplayAlt(boolean displayAlt) {
+		if (displayAlt != mDisplayAltLabels) {
+			mKeyImages.clear();
+		}
 		mDisplayAltLabels = displayAlt;
 	}
 	
@@ -632,6 +641,7 @@ public class MainKeyboardView extends View implements View.OnClickListener, Keyb
 		removeMessages();
 		mKeyboard = keyboard;
 		mKeys =  mKeyboard.getKeys();
+		mKeyImages.reset(mKeys.length);
 		requestLayout();
 		// Hint to reallocate the buffer if the size changed
 		mKeyboardChanged = true;
@@ -871,23 +881,12 @@ public class MainKeyboardView extends View implements View.OnClickListener, Keyb
 		final int kbdPaddingLeft = getPaddingLeft();
 		final int kbdPaddingTop = getPaddingTop();
 
-		boolean drawSingleKey = false;
-		if (mInvalidatedKey != null && canvas.getClipBounds(mClipRegion)) {
-			// Is clipRegion completely contained within the invalidated key?
-			if (mInvalidatedKey.x + kbdPaddingLeft - 1 <= mClipRegion.left &&
-					mInvalidatedKey.y + kbdPaddingTop - 1 <= mClipRegion.top &&
-					mInvalidatedKey.x + mInvalidatedKey.width + kbdPaddingLeft + 1 >= mClipRegion.right &&
-					mInvalidatedKey.y + mInvalidatedKey.height + kbdPaddingTop + 1 >= mClipRegion.bottom) {
-				drawSingleKey = true;
-			}
-		}
-
 		canvas.drawColor(0x00000000, PorterDuff.Mode.CLEAR);
 		mBackground.draw(canvas);
-		for (final Key key: mKeys) {
-			drawKey(key, canvas, kbdPaddingLeft, kbdPaddingTop, drawSingleKey);
+		final Key[] keys = mKeys;
+		for (int i = 0; i < keys.length; i++) {
+			drawKeyImage(i, canvas, kbdPaddingLeft, kbdPaddingTop);
 		}
-		mInvalidatedKey = null;
 
 		if (mShowTouchPoints) {
 			drawTouchPoints(canvas);
@@ -897,6 +896,44 @@ public class MainKeyboardView extends View implements View.OnClickListener, Keyb
 		mDirtyRect.setEmpty();
 	}
 
+	/**
+	 * Redraws a single key in the buffer, over the background.
+	 */
+	private void onBufferDrawKey(int keyIndex) {
+		final Key key = mKeys[keyIndex];
+		final Canvas canvas = mCanvas;
+		final int kbdPaddingLeft = getPaddingLeft();
+		final int kbdPaddingTop = getPaddingTop();
+		final int left = key.x + kbdPaddingLeft;
+		final int top = key.y + kbdPaddingTop;
+		canvas.save();
+		canvas.clipRect(left, top, left + key.width, top + key.height);
+		canvas.drawColor(0x00000000, PorterDuff.Mode.CLEAR);
+		mBackground.draw(canvas);
+		drawKeyImage(keyIndex, canvas, kbdPaddingLeft, kbdPaddingTop);
+		canvas.restore();
+	}
+
+	private void drawKeyImage(int keyIndex, Canvas canvas, int kbdPaddingLeft, int kbdPaddingTop) {
+		final Key key = mKeys[keyIndex];
+		if (key.disabled) {
+			return;
+		}
+		final int[] drawableState = key.getCurrentDrawableState();
+		final boolean upperCase = mKeyboard.isShifted() || mAlwaysCaps;
+		KeyImageCache.Image image = mKeyImages.find(keyIndex, key, drawableState, upperCase);
+		if (image == null) {
+			image = mKeyImages.obtain(keyIndex, key, drawableState, upperCase);
+			if (image == null) {
+				// No room left for the image
+				drawKey(key, canvas, kbdPaddingLeft, kbdPaddingTop);
+				return;
+			}
+			drawKey(key, image.canvas, -key.x, -key.y);
+		}
+		canvas.drawBitmap(image.bitmap, key.x + kbdPaddingLeft, key.y + kbdPaddingTop, null);
+	}
+
 	private void drawTouchPoints(Canvas canvas) {
 		mPaint.setAlpha(128);
 		mPaint.setColor(0xFFFF0000);
@@ -908,12 +945,9 @@ public class MainKeyboardView extends View implements View.OnClickListener, Keyb
 		canvas.drawCircle((mStartX + mLastX) / 2, (mStartY + mLastY) / 2, 2, mPaint);
 	}
 
-	private void drawKey(Key key, Canvas canvas, int kbdPaddingLeft, int kbdPaddingTop, boolean drawSingleKey) {
+	private void drawKey(Key key, Canvas canvas, int kbdPaddingLeft, int kbdPaddingTop) {
 		if (key.disabled) {
 			return;
-        }
-		if (drawSingleKey && mInvalidatedKey != key) {
-			return;
         }
 		int[] drawableState = key.getCurrentDrawableState();
 		// Check if alt key
@@ -1090,13 +1124,11 @@ public class MainKeyboardView extends View implements View.OnClickListener, Keyb
 
 	private int getKeyIndices(int x, int y, int[] allKeys) {
 		final Key[] keys = mKeys;
-		final boolean proximityCorrectOn = mProximityCorrectOn;
 		final int proximityThreshold = mProximityThreshold;
-		int[] distances = mDistances;
+		final int[] nearbyKeys = mNearbyKeys;
+		final int[] distances = mNearbyDistances;
 		int primaryIndex = NOT_A_KEY;
-		int closestKey = NOT_A_KEY;
-		int closestKeyDist = mProximityThreshold + 1;
-		java.util.Arrays.fill(mDistances, Integer.MAX_VALUE);
+		int nearbyCount = 0;
 		
 		// Detect keypress outside the keyboard
 		if (x < 0) {
@@ -1116,52 +1148,82 @@ public class MainKeyboardView extends View implements View.OnClickListener, Keyb
 			}
 		}
 		
-		int [] nearestKeyIndices = mKeyboard.getNearestKeys(x, y);
+		// Hit test, the result of isInside depends on the previous letters
+		final int [] nearestKeyIndices = mKeyboard.getNearestKeys(x, y);
 		final int keyCount = nearestKeyIndices.length;
 		for (int i = 0; i < keyCount; i++) {
 			final Key key = keys[nearestKeyIndices[i]];
 			// Ignore disabled keys
-			if (key.disabled)
-				continue;
-			int dist = 0;
-			boolean isInside = key.isInside(x,y);
-			if (isInside) {
+			if (!key.disabled && key.isInside(x,y)) {
 				primaryIndex = nearestKeyIndices[i];
 			}
-			if (((proximityCorrectOn 
-					&& (dist = key.squaredDistanceFrom(x, y)) < proximityThreshold) 
-					|| isInside)
-					&& key.codes[0] > 32) {
-				// Find insertion point
-				final int nCodes = key.codes.length;
-				if (dist < closestKeyDist) {
-					closestKeyDist = dist;
-					closestKey = nearestKeyIndices[i];
-				}
+		}
 
-				if (allKeys == null) continue;
-
-				for (int j = 0; j < distances.length; j++) {
-					if (distances[j] > dist) {
-						// Make space for nCodes codes
-						System.arraycopy(distances, j, distances, j + nCodes,
-								distances.length - j - nCodes);
-						System.arraycopy(allKeys, j, allKeys, j + nCodes,
-								allKeys.length - j - nCodes);
-						System.arraycopy(key.codes, 0, allKeys, j, nCodes);
-                        Arrays.fill(distances, j, j + nCodes, dist);
-						break;
-					}
+		if (mProximityCorrectOn) {
+			// The grid keys are already sorted for the center of the cell, so the
+			// insertion sort below hardly moves anything
+			final int[] gridKeys = mKeyboard.getProximityGrid(proximityThreshold)
+					.getNearbyKeys(x, y);
+			final int gridCount = gridKeys.length;
+			boolean primaryFound = false;
+			for (int i = 0; i < gridCount; i++) {
+				final int index = gridKeys[i];
+				final Key key = keys[index];
+				if (key.disabled || key.codes[0] <= 32) continue;
+				final int dist = key.squaredDistanceFrom(x, y);
+				if (index == primaryIndex) {
+					primaryFound = true;
+				} else if (dist >= proximityThreshold) {
+					continue;
 				}
+				nearbyCount = insertNearbyKey(index, dist, nearbyCount);
+			}
+			if (primaryIndex != NOT_A_KEY && !primaryFound && keys[primaryIndex].codes[0] > 32) {
+				nearbyCount = insertNearbyKey(primaryIndex,
+						keys[primaryIndex].squaredDistanceFrom(x, y), nearbyCount);
 			}
+		} else if (primaryIndex != NOT_A_KEY && keys[primaryIndex].codes[0] > 32) {
+			nearbyKeys[0] = primaryIndex;
+			distances[0] = 0;
+			nearbyCount = 1;
+		}
 
+		if (primaryIndex == NOT_A_KEY && nearbyCount > 0) {
+			primaryIndex = nearbyKeys[0];
 		}
-		if (primaryIndex == NOT_A_KEY) {
-			primaryIndex = closestKey;
+		
+		if (allKeys != null) {
+			// Codes of the nearby keys, closest first
+			int pos = 0;
+			for (int i = 0; i < nearbyCount && pos < allKeys.length; i++) {
+				final int[] codes = keys[nearbyKeys[i]].codes;
+				final int nCodes = Math.min(codes.length, allKeys.length - pos);
+				System.arraycopy(codes, 0, allKeys, pos, nCodes);
+				pos += nCodes;
+			}
 		}
 		return primaryIndex;
 	}
 
+	private int insertNearbyKey(int index, int dist, int count) {
+		final int[] nearbyKeys = mNearbyKeys;
+		final int[] distances = mNearbyDistances;
+		if (count == nearbyKeys.length) {
+			if (distances[count - 1] <= dist) return count;
+			count--;
+		}
+		// Keep the arrival order for equal distances
+		int j = count;
+		while (j > 0 && distances[j - 1] > dist) {
+			nearbyKeys[j] = nearbyKeys[j - 1];
+			distances[j] = distances[j - 1];
+			j--;
+		}
+		nearbyKeys[j] = index;
+		distances[j] = dist;
+		return count + 1;
+	}
+
 	protected void detectAndSendKey(int index, int x, int y, long eventTime, int pointerCount) {
 		if (DEBUG) Log.d(TAG, "detectAndSendKey " + Integer.toString(index) + " x=" +
 				Integer.toString(x) + " y=" + Integer.toString(y));
@@ -1172,7 +1234,7 @@ public class MainKeyboardView extends View implements View.OnClickListener, Keyb
 				int len = key.text.length();
 				for (int i = 0; i < len; i++) {
 					int code = key.text.charAt(i);
-					int[] codes = new int[1];
+					final int[] codes = mSingleCode;
 					codes[0] = code;
 					mKeyboardActionListener.onKey(code, codes, false, false);
 					mKeyboardActionListener.onRelease(code);
@@ -1184,7 +1246,8 @@ public class MainKeyboardView extends View implements View.OnClickListener, Keyb
 				int code = key.codes[0];
 				if (DEBUG) Log.d(TAG, "detectAndSendKey " + Character.toString((char)code));
 				//TextEntryState.keyPressedAt(key, x, y);
-				int[] codes = new int[MAX_NEARBY_KEYS];
+				// Listeners copy the codes if they need to keep them
+				int[] codes = mKeyCodes;
 				Arrays.fill(codes, NOT_A_KEY);
 				
 				// Multi-tap
@@ -1388,10 +1451,13 @@ public class MainKeyboardView extends View implements View.OnClickListener, Keyb
 			return;
 		
 		final Key key = mKeys[keyIndex];
-		mInvalidatedKey = key;
 		mDirtyRect.union(key.x + getPaddingLeft(), key.y + getPaddingTop(), 
 				key.x + key.width + getPaddingLeft(), key.y + key.height + getPaddingTop());
-		onBufferDraw();
+		if (mDrawPending || mBuffer == null || mKeyboardChanged || mShowTouchPoints) {
+			onBufferDraw();
+		} else {
+			onBufferDrawKey(keyIndex);
+		}
 		invalidate(key.x + getPaddingLeft(), key.y + getPaddingTop(), 
 				key.x + key.width + getPaddingLeft(), key.y + key.height + getPaddingTop());
 	}
@@ -2085,6 +2151,7 @@ MotionEvent.ACTION_DOWN, me.getX(), me.getY() , me.getMetaState());
 	public void onDetachedFromWindow() {
 		super.onDetachedFromWindow();
 		closing();
+		mKeyImages.clear();
 	}
 
 	private void dismissPopupKeyboardAsync() {
@@ -16,6 +16,7 @@
 
 package com.dexilog.smartkeyboard.ui;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -39,6 +40,8 @@ public class SkinLoader {
 	
 	static final String TAG = "SmartKeyboard";
 	static final String SKIN_CACHE = "curskin.zip";
+	// Decoded images and colors of the current skin, in the cache directory
+	static final String COMPILED_SKIN = "curskin.bin";
 	static final int BUFFER_SIZE = 2048;
 	final boolean DEBUG = false;
 	Context mContext;
@@ -346,7 +349,8 @@ public class SkinLoader {
 		Log.i(TAG, "Trying to load open skin: " + path);
 		// just in case something goes wrong
 		SkinInfo skin = loadBuiltinSkin(R.style.Black); 
-		OpenSkin openSkin = new OpenSkin(mContext, path);
+		OpenSkin openSkin = new OpenSkin(mContext, path,
+				new File(mContext.getCacheDir(), COMPILED_SKIN));
 		if (openSkin.isValid()) {
 			skin.background = openSkin.getBackground();
 			skin.keyBackground = openSkin.getKeyBackground();
@@ -39,6 +39,15 @@ public class OpenWnnClauseConverterJAJP {
     private HashMap<String, ArrayList<WnnWord>> mAllIndepWordBag;
     /** search cache for ancillary words (fuzokugo) */
     private HashMap<String, ArrayList<WnnWord>> mFzkPatterns;
+    /** cache of the best clause of a substring which ends the sentence */
+    private HashMap<String, WnnClause> mLastClauseCache;
+    /** cache of the best clause of a substring inside the sentence */
+    private HashMap<String, WnnClause> mInnerClauseCache;
+    /** cache of all the clauses of an input (single clause conversion) */
+    private HashMap<String, ArrayList<WnnClause>> mAllClausesCache;
+
+    /** Maximum number of entries of a clause cache (it is cleared when full) */
+    private static final int MAX_CACHED_CLAUSES = 2000;
 
     /** connect matrix for generating a clause */
     private byte[][] mConnectMatrix;
@@ -47,7 +56,7 @@ public class OpenWnnClauseConverterJAJP {
     private WnnDictionary mDictionary;
 
     /** candidates of conversion */
-    private LinkedList mConvertResult;
+    private LinkedList<WnnClause> mConvertResult;
 
     /** work area for consecutive clause conversion */
     private WnnSentence[] mSentenceBuffer;
@@ -74,7 +83,10 @@ public class OpenWnnClauseConverterJAJP {
         mIndepWordBag  = new HashMap<String, ArrayList<WnnWord>>();
         mAllIndepWordBag  = new HashMap<String, ArrayList<WnnWord>>();
         mFzkPatterns   = new HashMap();
-        mConvertResult = new LinkedList();
+        mLastClauseCache  = new HashMap<String, WnnClause>();
+        mInnerClauseCache = new HashMap<String, WnnClause>();
+        mAllClausesCache  = new HashMap<String, ArrayList<WnnClause>>();
+        mConvertResult = new LinkedList<WnnClause>();
 
         mSentenceBuffer = new WnnSentence[MAX_INPUT_LENGTH];
     }
@@ -97,6 +109,7 @@ public class OpenWnnClauseConverterJAJP {
         mIndepWordBag.clear();
         mAllIndepWordBag.clear();
         mFzkPatterns.clear();
+        clearClauseCache();
         
         /* get part of speech tags */
         mPosDefault      = dict.getPOS(WnnDictionary.POS_TYPE_MEISI);
@@ -112,6 +125,16 @@ public class OpenWnnClauseConverterJAJP {
      */
     public void setFilter(CandidateFilter filter) {
     	mFilter = filter;
+    	clearClauseCache();
+    }
+
+    /**
+     * Clear the caches of clauses, which depend on the dictionary and the filter.
+     */
+    private void clearClauseCache() {
+        mLastClauseCache.clear();
+        mInnerClauseCache.clear();
+        mAllClausesCache.clear();
     }
 
     /**
@@ -135,8 +158,22 @@ public class OpenWnnClauseConverterJAJP {
         /* clear the candidates list */
         mConvertResult.clear();
 
-        /* try single clause conversion */
-        if (!singleClauseConvert(mConvertResult, input, mPosEndOfClause2, true)) {
+        /* the clauses of the same input are the same until the dictionary changes */
+        ArrayList<WnnClause> clauses = mAllClausesCache.get(input);
+        if (clauses == null) {
+            /* try single clause conversion */
+            if (!singleClauseConvert(mConvertResult, input, mPosEndOfClause2, true)) {
+                mConvertResult.clear();
+            }
+            if (mAllClausesCache.size() >= MAX_CACHED_CLAUSES) {
+                mAllClausesCache.clear();
+            }
+            clauses = new ArrayList<WnnClause>(mConvertResult);
+            mAllClausesCache.put(input, clauses);
+        } else {
+            mConvertResult.addAll(clauses);
+        }
+        if (clauses.isEmpty()) {
             return null;
         }
         return mConvertResult.iterator();
@@ -149,8 +186,6 @@ public class OpenWnnClauseConverterJAJP {
      * @return			The result of consecutive clause conversion; {@code null} if fail.
      */
     public WnnSentence consecutiveClauseConvert(String input) {
-        LinkedList clauses = new LinkedList();
-
         /* clear the cache which is not matched */
         for (int i = 0; i < input.length(); i++) {
             mSentenceBuffer[i] = null;
@@ -188,32 +223,23 @@ public class OpenWnnClauseConverterJAJP {
                 }
 
                 String key = input.substring(start, end);
-                clauses.clear();
-                WnnClause bestClause = null;
-                if (end == input.length()) {
-                    /* get the clause which can be the end of the sentence */
-                    singleClauseConvert(clauses, key, mPosEndOfClause1, false);
-                } else {
-                    /* get the clause which is not the end of the sentence */
-                    singleClauseConvert(clauses, key, mPosEndOfClause3, false);
-                }
-                if (clauses.isEmpty()) {
-                    bestClause = defaultClause(key);
-                } else {
-                    bestClause = (WnnClause)clauses.get(0);
-                }
+                WnnClause bestClause = getBestClause(key, end == input.length());
 
-                /* make a sub-sentence */
-                WnnSentence ws;
-                if (start == 0) {
-                    ws = new WnnSentence(key, bestClause);
-                } else {
-                    ws = new WnnSentence(sentence[start-1], bestClause);
+                /* make a sub-sentence if it is the best one */
+                int frequency = bestClause.frequency + CLAUSE_COST;
+                if (start != 0) {
+                    frequency += sentence[start-1].frequency;
                 }
-                ws.frequency += CLAUSE_COST;
+                if (sentence[idx] == null || (sentence[idx].frequency < frequency)) {
+                    WnnSentence ws;
+                    if (start == 0) {
+                        ws = new WnnSentence(key, bestClause);
+                    } else {
+                        ws = new WnnSentence(sentence[start-1], bestClause);
+                    }
+                    ws.frequency += CLAUSE_COST;
 
-                /* update the best sub-sentence on the cache buffer */
-                if (sentence[idx] == null || (sentence[idx].frequency < ws.frequency)) {
+                    /* update the best sub-sentence on the cache buffer */
                     sentence[idx] = ws;
                 }
             }
@@ -226,6 +252,43 @@ public class OpenWnnClauseConverterJAJP {
         return null;
     }
 
+    /**
+     * Get the best clause of a substring, from the cache if it was already converted.
+     * <br>
+     * When a kana is added to the input, only the substrings which contain it are converted.
+     *
+     * @param key		The substring
+     * @param last		{@code true} if the clause ends the sentence
+     * @return			The best clause; the default clause if none is found
+     */
+    private WnnClause getBestClause(String key, boolean last) {
+        HashMap<String, WnnClause> cache = (last) ? mLastClauseCache : mInnerClauseCache;
+        WnnClause bestClause = cache.get(key);
+        if (bestClause != null) {
+            return bestClause;
+        }
+
+        LinkedList<WnnClause> clauses = new LinkedList<WnnClause>();
+        if (last) {
+            /* get the clause which can be the end of the sentence */
+            singleClauseConvert(clauses, key, mPosEndOfClause1, false);
+        } else {
+            /* get the clause which is not the end of the sentence */
+            singleClauseConvert(clauses, key, mPosEndOfClause3, false);
+        }
+        if (clauses.isEmpty()) {
+            bestClause = defaultClause(key);
+        } else {
+            bestClause = clauses.get(0);
+        }
+
+        if (cache.size() >= MAX_CACHED_CLAUSES) {
+            cache.clear();
+        }
+        cache.put(key, bestClause);
+        return bestClause;
+    }
+
     /**
      * Consecutive clause conversion.
      *
@@ -253,7 +316,7 @@ public class OpenWnnClauseConverterJAJP {
      * @param all			Get all candidates or not
      * @return				{@code true} if success; {@code false} if fail.
      */
-    private boolean singleClauseConvert(LinkedList clauseList, String input, WnnPOS terminal, boolean all) {
+    private boolean singleClauseConvert(LinkedList<WnnClause> clauseList, String input, WnnPOS terminal, boolean all) {
         boolean ret = false;
 
         /* get clauses without ancillary word */
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContactNameIndexTest {
+
+    private ContactNameIndex index = new ContactNameIndex(32);
+    private List<String> added = new ArrayList<String>();
+    private List<String> removed = new ArrayList<String>();
+
+    private ContactNameIndex.Listener listener = new ContactNameIndex.Listener() {
+        @Override
+        public void onWordAdded(String word) {
+            added.add(word);
+        }
+
+        @Override
+        public void onWordRemoved(String word) {
+            removed.add(word);
+        }
+    };
+
+    @Test
+    public void namesAreSplitIntoWords() {
+        List<String> words = new ArrayList<String>();
+        ContactNameIndex.splitName("Jean-Luc O'Neill (work) J.", 32, words);
+        assertEquals(Arrays.asList("Jean-Luc", "O'Neill", "work"), words);
+    }
+
+    @Test
+    public void sharedWordsAreAddedOnce() {
+        index.putContact(1, "Anna Smith", listener);
+        index.putContact(2, "John Smith", listener);
+        assertEquals(Arrays.asList("Anna", "Smith", "John"), added);
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void sharedWordsStayUntilTheLastContactIsRemoved() {
+        index.putContact(1, "Anna Smith", listener);
+        index.putContact(2, "John Smith", listener);
+        index.removeContact(1, listener);
+        assertEquals(Arrays.asList("Anna"), removed);
+        index.removeContact(2, listener);
+        assertEquals(Arrays.asList("Anna", "John", "Smith"), removed);
+    }
+
+    @Test
+    public void renameOnlyUpdatesChangedWords() {
+        index.putContact(1, "Anna Smith", listener);
+        added.clear();
+        index.putContact(1, "Anna Jones", listener);
+        assertEquals(Arrays.asList("Jones"), added);
+        assertEquals(Arrays.asList("Smith"), removed);
+    }
+
+    @Test
+    public void unchangedContactIsIgnored() {
+        index.putContact(1, "Anna Smith", listener);
+        added.clear();
+        index.putContact(1, "Anna Smith", listener);
+        assertTrue(added.isEmpty());
+        assertTrue(removed.isEmpty());
+    }
+
+    @Test
+    public void contactWithoutNameIsRemoved() {
+        index.putContact(1, "Anna", listener);
+        index.putContact(1, null, listener);
+        assertEquals(Arrays.asList("Anna"), removed);
+        assertEquals(0, index.size());
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard;
+
+import android.content.Context;
+
+import com.dexilog.smartkeyboard.suggest.AutoText;
+import com.dexilog.smartkeyboard.suggest.Dictionary;
+import com.dexilog.smartkeyboard.suggest.SmartDictionary;
+import com.dexilog.smartkeyboard.suggest.UserDictionary;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class DictionaryFactoryImplTest {
+
+    private TestableDictionaryFactory factory = new TestableDictionaryFactory();
+
+    @Test
+    public void leastRecentlyUsedLanguageIsClosed() throws Exception {
+        switchTo("EN");
+        switchTo("FR");
+        switchTo("DE");
+        switchTo("EN");
+        switchTo("IT");
+        assertClosed("FR");
+        assertNotClosed("EN");
+        assertNotClosed("DE");
+        assertNotClosed("IT");
+    }
+
+    @Test
+    public void currentLanguageIsNeverEvicted() throws Exception {
+        switchTo("EN");
+        factory.loadLanguage("FR");
+        factory.loadLanguage("DE");
+        factory.loadLanguage("IT");
+        assertNotClosed("EN");
+        assertClosed("FR");
+        assertNotClosed("DE");
+        assertNotClosed("IT");
+    }
+
+    @Test
+    public void trimMemoryKeepsOnlyCurrentLanguage() throws Exception {
+        switchTo("EN");
+        factory.loadLanguage("FR");
+        factory.trimMemory();
+        assertNotClosed("EN");
+        assertClosed("FR");
+    }
+
+    @Test
+    public void preloadedLanguageIsReused() throws Exception {
+        switchTo("EN");
+        factory.loadLanguage("FR");
+        final Dictionary dic = factory.langDicts.get("FR");
+        switchTo("FR");
+        assertSame(dic, factory.getLangDictionary("FR"));
+        assertSame(dic, factory.langDicts.get("FR"));
+    }
+
+    @Test
+    public void evictedLanguageIsLoadedAgain() throws Exception {
+        switchTo("EN");
+        switchTo("FR");
+        switchTo("DE");
+        switchTo("IT");
+        final Dictionary dic = factory.langDicts.get("EN");
+        switchTo("EN");
+        verify(dic).close();
+        assertNotClosed("EN");
+    }
+
+    @Test
+    public void preloadedLanguageIsOpenedWithoutLock() throws Exception {
+        switchTo("EN");
+        factory.openedWithLock = false;
+        factory.loadLanguage("FR");
+        assertFalse(factory.openedWithLock);
+    }
+
+    @Test
+    public void preloadedDictionaryLosingRaceIsClosed() throws Exception {
+        switchTo("EN");
+        factory.whileOpening = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    switchTo("FR");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        factory.loadLanguage("FR");
+        final Dictionary preloaded = factory.langDicts.get("FR");
+        verify(preloaded).close();
+        assertNotSame(preloaded, factory.getLangDictionary("FR"));
+    }
+
+    // Same as Suggest.loadDict()
+    private void switchTo(String lang) throws IOException {
+        factory.getLangDictionary(lang);
+        factory.getUserDictionary(lang);
+        factory.getAutoText(lang);
+        factory.getSmartDictionary(lang);
+    }
+
+    private void assertClosed(String lang) {
+        verify(factory.langDicts.get(lang)).close();
+        verify(factory.userDicts.get(lang)).close();
+        verify(factory.smartDicts.get(lang)).close();
+    }
+
+    private void assertNotClosed(String lang) {
+        verify(factory.langDicts.get(lang), never()).close();
+        verify(factory.userDicts.get(lang), never()).close();
+        verify(factory.smartDicts.get(lang), never()).close();
+    }
+
+    private static class TestableDictionaryFactory extends DictionaryFactoryImpl {
+        // Latest dictionaries opened for each language
+        final Map<String, Dictionary> langDicts = new HashMap<String, Dictionary>();
+        final Map<String, UserDictionary> userDicts = new HashMap<String, UserDictionary>();
+        final Map<String, SmartDictionary> smartDicts = new HashMap<String, SmartDictionary>();
+        // Whether a dictionary was opened with the factory lock held
+        boolean openedWithLock;
+        // Run once while opening the next dictionary, e.g. to race with a language switch
+        Runnable whileOpening;
+
+        TestableDictionaryFactory() {
+            super(mock(Context.class));
+        }
+
+        @Override
+        Dictionary openLangDictionary(String lang) {
+            opening();
+            final Dictionary dic = mock(Dictionary.class);
+            langDicts.put(lang, dic);
+            return dic;
+        }
+
+        @Override
+        AutoText openAutoText(String lang) {
+            return null;
+        }
+
+        @Override
+        UserDictionary openUserDictionary(String lang) {
+            opening();
+            final UserDictionary dic = mock(UserDictionary.class);
+            userDicts.put(lang, dic);
+            return dic;
+        }
+
+        @Override
+        SmartDictionary openSmartDictionary(String lang) {
+            opening();
+            final SmartDictionary dic = mock(SmartDictionary.class);
+            smartDicts.put(lang, dic);
+            return dic;
+        }
+
+        private void opening() {
+            openedWithLock |= Thread.holdsLock(this);
+            final Runnable runnable = whileOpening;
+            whileOpening = null;
+            if (runnable != null) {
+                runnable.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class FrequencyJournalTest {
+
+    private Map<String, Integer> written = new TreeMap<String, Integer>();
+
+    private FrequencyJournal.Writer writer = new FrequencyJournal.Writer() {
+        @Override
+        public boolean write(Map<String, Integer> counts) {
+            written.putAll(counts);
+            return true;
+        }
+    };
+
+    private FrequencyJournal.Writer failingWriter = new FrequencyJournal.Writer() {
+        @Override
+        public boolean write(Map<String, Integer> counts) {
+            return false;
+        }
+    };
+
+    @Test
+    public void countsOfTheSameWordAreCoalesced() throws Exception {
+        File file = newLogFile();
+        FrequencyJournal journal = new FrequencyJournal(file);
+        journal.record("hello", 1);
+        journal.record("world", 3);
+        journal.record("hello", 2);
+        assertEquals(2, journal.size());
+        assertTrue(journal.flush(writer));
+        assertEquals("{hello=2, world=3}", written.toString());
+        assertEquals(0, journal.size());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void countsAreReplayedAfterProcessDeath() throws Exception {
+        File file = newLogFile();
+        FrequencyJournal journal = new FrequencyJournal(file);
+        journal.record("hello", 1);
+        journal.record("hello", 2);
+        journal.close();
+
+        FrequencyJournal restarted = new FrequencyJournal(file);
+        assertEquals("{hello=2}", new TreeMap<String, Integer>(restarted.replay()).toString());
+        assertTrue(restarted.flush(writer));
+        assertEquals("{hello=2}", written.toString());
+    }
+
+    @Test
+    public void lineCutByProcessDeathIsIgnored() throws Exception {
+        File file = newLogFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("3 hello\n5 wor".getBytes("UTF-8"));
+        out.close();
+
+        FrequencyJournal journal = new FrequencyJournal(file);
+        journal.record("café", 1);
+        journal.close();
+
+        FrequencyJournal restarted = new FrequencyJournal(file);
+        assertEquals("{café=1, hello=3}",
+                new TreeMap<String, Integer>(restarted.replay()).toString());
+    }
+
+    @Test
+    public void failedFlushKeepsTheCounts() throws Exception {
+        File file = newLogFile();
+        FrequencyJournal journal = new FrequencyJournal(file);
+        journal.record("hello", 4);
+        assertFalse(journal.flush(failingWriter));
+        assertEquals(1, journal.size());
+        assertTrue(file.exists());
+        assertTrue(journal.flush(writer));
+        assertEquals("{hello=4}", written.toString());
+    }
+
+    private File newLogFile() throws IOException {
+        File file = File.createTempFile("freqs", ".log");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard;
+
+import com.dexilog.smartkeyboard.input.WordComposer;
+import com.dexilog.smartkeyboard.suggest.DictionaryFactory;
+import com.dexilog.smartkeyboard.suggest.SmartDictionary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SuggestTest {
+
+    private Locale defaultLocale;
+    private FakeDictionary mainDictionary;
+    private Suggest suggest;
+
+    @Mock
+    DictionaryFactory dictionaryFactory;
+
+    @Mock
+    SmartDictionary smartDictionary;
+
+    @Mock
+    WordComposer wordComposer;
+
+    @Rule
+    public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Before
+    public void setUp() throws Exception {
+        defaultLocale = Locale.getDefault();
+        mainDictionary = new FakeDictionary();
+        when(dictionaryFactory.getLangDictionary("TR")).thenReturn(mainDictionary);
+        when(dictionaryFactory.getSmartDictionary("TR")).thenReturn(smartDictionary);
+        suggest = new Suggest(dictionaryFactory);
+        suggest.loadDict("TR");
+        suggest.useSmartDictionary(true);
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(defaultLocale);
+    }
+
+    @Test
+    public void testAllUpperCaseSuggestionUsesTurkishDottedI() {
+        Locale.setDefault(new Locale("tr"));
+        mainDictionary.addWord("iki");
+        when(wordComposer.isAllUpperCase()).thenReturn(true);
+        List<CharSequence> suggestions = getSuggestions("İK", 'i', 'k');
+        assertThat(toStrings(suggestions), hasItem("İKİ"));
+    }
+
+    @Test
+    public void testSmartWordCountUsesTurkishDotlessI() {
+        Locale.setDefault(new Locale("tr"));
+        mainDictionary.addWord("Irmak");
+        getSuggestions("Ir", 'I', 'r');
+        verify(smartDictionary).getWordCount("ırmak");
+    }
+
+    @Test
+    public void testParallelLookupsOfSomeDictionaries() {
+        mainDictionary.addWord("hello");
+        FakeDictionary contactsDictionary = new FakeDictionary();
+        contactsDictionary.addWord("helen");
+        suggest.setContactsDictionary(contactsDictionary);
+        suggest.setParallelLookups(true);
+        List<String> suggestions = toStrings(getSuggestions("he", 'h', 'e'));
+        assertThat(suggestions, hasItem("hello"));
+        assertThat(suggestions, hasItem("helen"));
+        suggest.setParallelLookups(false);
+    }
+
+    @Test
+    public void testParallelLookupsOfOneDictionary() {
+        mainDictionary.addWord("hello");
+        suggest.setParallelLookups(true);
+        assertThat(toStrings(getSuggestions("he", 'h', 'e')), hasItem("hello"));
+        suggest.setParallelLookups(false);
+    }
+
+    private List<CharSequence> getSuggestions(String typedWord, char... codes) {
+        when(wordComposer.size()).thenReturn(codes.length);
+        for (int i = 0; i < codes.length; i++) {
+            when(wordComposer.getCodesAt(i)).thenReturn(new int[] { codes[i] });
+        }
+        when(wordComposer.getConvertedWord()).thenReturn(typedWord);
+        return suggest.getSuggestions(wordComposer, false, false, null);
+    }
+
+    private static List<String> toStrings(List<CharSequence> suggestions) {
+        final List<String> strings = new ArrayList<String>();
+        for (CharSequence suggestion : suggestions) {
+            strings.add(suggestion.toString());
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SuggestionSchedulerTest {
+
+    private SuggestionScheduler scheduler = new SuggestionScheduler(0, 100, 250);
+
+    @Test
+    public void defaultDelayUntilMeasured() {
+        assertEquals(100, scheduler.onRequest(1000));
+        assertEquals(100, scheduler.onRequest(1200));
+    }
+
+    @Test
+    public void fastSuggestionsAreNotDelayed() {
+        scheduler.onRequest(1000);
+        scheduler.onComputed(10);
+        assertEquals(0, scheduler.onRequest(1200));
+    }
+
+    @Test
+    public void slowSuggestionsWaitForAPause() {
+        scheduler.onRequest(1000);
+        scheduler.onComputed(80);
+        assertEquals(150, scheduler.onRequest(1100));
+    }
+
+    @Test
+    public void delayIsCapped() {
+        scheduler.onRequest(1000);
+        scheduler.onComputed(500);
+        assertEquals(250, scheduler.onRequest(1900));
+    }
+
+    @Test
+    public void pausesAreNotTypingSpeed() {
+        scheduler.onRequest(1000);
+        scheduler.onComputed(80);
+        assertEquals(100, scheduler.onRequest(5000));
+    }
+}
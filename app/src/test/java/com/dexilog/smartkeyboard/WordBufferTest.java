@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard;
+
+import com.dexilog.smartkeyboard.suggest.Dictionary;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WordBufferTest {
+
+    private List<String> replayed = new ArrayList<String>();
+
+    private Dictionary.WordCallback callback = new Dictionary.WordCallback() {
+        @Override
+        public boolean addWord(char[] word, int wordOffset, int wordLength, int frequency) {
+            replayed.add(new String(word, wordOffset, wordLength) + ":" + frequency);
+            return true;
+        }
+    };
+
+    @Test
+    public void wordsAreReplayedInArrivalOrder() throws Exception {
+        WordBuffer buffer = new WordBuffer(4);
+        addWord(buffer, "hello", 10);
+        addWord(buffer, "help", 30);
+        addWord(buffer, "hell", 20);
+        buffer.replay(callback);
+        assertEquals("[hello:10, help:30, hell:20]", replayed.toString());
+    }
+
+    @Test
+    public void leastFrequentWordIsDroppedWhenFull() throws Exception {
+        WordBuffer buffer = new WordBuffer(3);
+        addWord(buffer, "hello", 10);
+        addWord(buffer, "help", 5);
+        addWord(buffer, "hell", 20);
+        addWord(buffer, "helmet", 15);
+        addWord(buffer, "helm", 1);
+        buffer.replay(callback);
+        assertEquals("[hello:10, hell:20, helmet:15]", replayed.toString());
+    }
+
+    @Test
+    public void clearEmptiesTheBuffer() throws Exception {
+        WordBuffer buffer = new WordBuffer(2);
+        addWord(buffer, "hello", 10);
+        buffer.clear();
+        addWord(buffer, "a much longer word than the default", 1);
+        buffer.replay(callback);
+        assertEquals("[a much longer word than the default:1]", replayed.toString());
+    }
+
+    private void addWord(WordBuffer buffer, String word, int frequency) {
+        // Use an offset to make sure only the word itself is copied
+        char[] chars = ("**" + word).toCharArray();
+        buffer.addWord(chars, 2, word.length(), frequency);
+    }
+}
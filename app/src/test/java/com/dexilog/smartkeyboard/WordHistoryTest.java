@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard;
+
+import com.dexilog.smartkeyboard.input.WordComposer;
+import com.dexilog.smartkeyboard.input.WordComposerImpl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WordHistoryTest {
+
+    private WordHistory history = new WordHistory();
+
+    @Test
+    public void typedKeysAreRestored() {
+        WordComposerImpl typed = new WordComposerImpl();
+        typed.add('H', new int[] {'H', 'J', 'G'});
+        typed.add('e', new int[] {'e', 'r'});
+        typed.add('y', new int[] {'y'});
+        typed.setCapitalized(true);
+        history.add("Hey", typed);
+
+        WordComposer found = history.find(new StringBuilder("Hey"));
+        assertEquals("Hey", found.getTypedWord().toString());
+        assertEquals(3, found.size());
+        assertEquals('J', found.getCodesAt(0)[1]);
+        assertEquals(2, found.getCodesAt(1).length);
+        assertTrue(found.isCapitalized());
+    }
+
+    @Test
+    public void lastEntryOfAWordIsFound() {
+        history.add("the", typed("teh"));
+        history.add("the", typed("thw"));
+        assertEquals("thw", history.find("the").getTypedWord().toString());
+    }
+
+    @Test
+    public void oldestWordsAreDropped() {
+        history.add("first", typed("firdt"));
+        for (int i = 0; i < WordHistory.CAPACITY; i++) {
+            history.add("word" + i, typed("wprd" + i));
+        }
+        assertEquals(null, history.find("first"));
+        assertEquals("wprd0", history.find("word0").getTypedWord().toString());
+    }
+
+    @Test
+    public void wordAddedAgainIsNotDroppedWithItsOldEntry() {
+        history.add("again", typed("agian"));
+        history.add("again", typed("agan"));
+        for (int i = 0; i < WordHistory.CAPACITY - 2; i++) {
+            history.add("word" + i, typed("wprd" + i));
+        }
+        // Overwrites the first entry only
+        history.add("other", typed("otjer"));
+        assertEquals("agan", history.find("again").getTypedWord().toString());
+    }
+
+    private WordComposer typed(String word) {
+        WordComposerImpl composer = new WordComposerImpl();
+        for (int i = 0; i < word.length(); i++) {
+            composer.add(word.charAt(i), new int[] {word.charAt(i)});
+        }
+        return composer;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard.benchmark;
+
+import com.dexilog.smartkeyboard.input.WordComposerImpl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recorded typing session replayed by the benchmarks. Each line of the trace is typed on a
+ * QWERTY layout, and every keystroke becomes the composing word as it is after that key,
+ * with the neighbouring keys as alternatives like the keyboard view reports them.
+ */
+public class KeystrokeTrace {
+
+    private static final String[] QWERTY_ROWS = { "qwertyuiop", "asdfghjkl", "zxcvbnm" };
+
+    private final List<String> mLines = new ArrayList<String>();
+
+    public static KeystrokeTrace load(String resource) throws IOException {
+        InputStream in = KeystrokeTrace.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("Missing resource " + resource);
+        }
+        KeystrokeTrace trace = new KeystrokeTrace();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    trace.mLines.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return trace;
+    }
+
+    public List<String> getLines() {
+        return mLines;
+    }
+
+    /**
+     * Returns the composing word after each keystroke, words being separated by spaces.
+     */
+    public List<WordComposerImpl> getComposers() {
+        List<WordComposerImpl> composers = new ArrayList<WordComposerImpl>();
+        for (String line : mLines) {
+            for (String word : line.split(" +")) {
+                for (int i = 1; i <= word.length(); i++) {
+                    WordComposerImpl composer = new WordComposerImpl();
+                    for (int j = 0; j < i; j++) {
+                        final char c = word.charAt(j);
+                        composer.add(c, getProximityCodes(c));
+                    }
+                    composers.add(composer);
+                }
+            }
+        }
+        return composers;
+    }
+
+    /**
+     * Returns the words of the trace, one entry per word.
+     */
+    public List<String> getWords() {
+        List<String> words = new ArrayList<String>();
+        for (String line : mLines) {
+            for (String word : line.split(" +")) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    static int[] getProximityCodes(char c) {
+        final char lower = Character.toLowerCase(c);
+        for (int row = 0; row < QWERTY_ROWS.length; row++) {
+            final int col = QWERTY_ROWS[row].indexOf(lower);
+            if (col < 0) continue;
+            int[] codes = new int[7];
+            int count = 0;
+            codes[count++] = c;
+            for (int r = row - 1; r <= row + 1; r++) {
+                if (r < 0 || r >= QWERTY_ROWS.length) continue;
+                final String keys = QWERTY_ROWS[r];
+                for (int k = col - 1; k <= col + 1; k++) {
+                    if (k < 0 || k >= keys.length() || count == codes.length) continue;
+                    final char key = keys.charAt(k);
+                    if (key != lower) {
+                        codes[count++] = key;
+                    }
+                }
+            }
+            int[] result = new int[count];
+            System.arraycopy(codes, 0, result, 0, count);
+            return result;
+        }
+        return new int[] { c };
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard.benchmark;
+
+import com.dexilog.smartkeyboard.Suggest;
+import com.dexilog.smartkeyboard.input.WordComposerImpl;
+import com.dexilog.smartkeyboard.lang.Korean;
+import com.dexilog.smartkeyboard.suggest.AutoText;
+import com.dexilog.smartkeyboard.suggest.Dictionary;
+import com.dexilog.smartkeyboard.suggest.DictionaryFactory;
+import com.dexilog.smartkeyboard.suggest.SmartDictionary;
+import com.dexilog.smartkeyboard.suggest.UserDictionary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Latency of the typing hot path, one benchmark operation per keystroke of a recorded
+ * session. Sample time mode reports the p50/p99 per keystroke, and the "gc" profiler
+ * (enabled by the jmh task) the allocation rate.
+ *
+ * Run with: ./gradlew :app:jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SuggestBenchmark {
+
+    private static final String AUTOTEXT_XML = "src/main/res/xml/autotext.xml";
+    private static final String[] KOREAN_WORDS = {
+            "자모한글", "서울평양", "안녕하세요", "감사합니다", "키보드", "대한민국", "사랑해요"
+    };
+
+    private Suggest mSuggest;
+    private TrieDictionary mMainDictionary;
+    private AutoText mAutoText;
+    private Korean mKorean;
+
+    private WordComposerImpl[] mComposers;
+    private String[] mAutoTextWords;
+    private String[] mJamoPrefixes;
+    private int[] mNextLetters = new int[1280];
+    private StringBuilder mKoreanOutput = new StringBuilder(32);
+    private int mComposerIndex;
+    private int mAutoTextIndex;
+    private int mKoreanIndex;
+    private int mFrequencySum;
+
+    private final Dictionary.WordCallback mSumCallback = new Dictionary.WordCallback() {
+        @Override
+        public boolean addWord(char[] word, int wordOffset, int wordLength, int frequency) {
+            mFrequencySum += frequency;
+            return true;
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        final KeystrokeTrace trace = KeystrokeTrace.load("/benchmark/keystrokes.txt");
+        mMainDictionary = TrieDictionary.load("/benchmark/words.txt");
+        mAutoText = loadAutoText();
+        mSuggest = new Suggest(new BenchmarkDictionaryFactory());
+        mSuggest.loadDict("EN");
+        mSuggest.setCorrectionMode(Suggest.CORRECTION_FULL);
+
+        final List<WordComposerImpl> composers = trace.getComposers();
+        mComposers = composers.toArray(new WordComposerImpl[composers.size()]);
+        final List<String> words = trace.getWords();
+        mAutoTextWords = words.toArray(new String[words.size()]);
+
+        mKorean = new Korean(new WordComposerImpl());
+        final List<String> prefixes = new ArrayList<String>();
+        final StringBuilder jamo = new StringBuilder();
+        for (String word : KOREAN_WORDS) {
+            jamo.setLength(0);
+            mKorean.reverse(word, jamo);
+            for (int i = 1; i <= jamo.length(); i++) {
+                prefixes.add(jamo.substring(0, i));
+            }
+        }
+        mJamoPrefixes = prefixes.toArray(new String[prefixes.size()]);
+    }
+
+    @Benchmark
+    public List<CharSequence> suggest() {
+        return mSuggest.getSuggestions(nextComposer(), false, false, null);
+    }
+
+    @Benchmark
+    public int dictionaryGetWords() {
+        mFrequencySum = 0;
+        mMainDictionary.getWords(nextComposer(), mSumCallback, false, mNextLetters);
+        return mFrequencySum;
+    }
+
+    @Benchmark
+    public String autoTextLookup() {
+        final String word = mAutoTextWords[mAutoTextIndex];
+        mAutoTextIndex = (mAutoTextIndex + 1) % mAutoTextWords.length;
+        return mAutoText.lookup(word, 0, word.length());
+    }
+
+    @Benchmark
+    public StringBuilder koreanConvert() {
+        final String jamo = mJamoPrefixes[mKoreanIndex];
+        mKoreanIndex = (mKoreanIndex + 1) % mJamoPrefixes.length;
+        mKorean.convert(jamo, mKoreanOutput);
+        return mKoreanOutput;
+    }
+
+    private WordComposerImpl nextComposer() {
+        final WordComposerImpl composer = mComposers[mComposerIndex];
+        mComposerIndex = (mComposerIndex + 1) % mComposers.length;
+        return composer;
+    }
+
+    private static AutoText loadAutoText() throws IOException {
+        final String xml = new String(Files.readAllBytes(new File(AUTOTEXT_XML).toPath()),
+                Charset.forName("UTF-8"));
+        final Matcher matcher = Pattern.compile("<word src=\"([^\"]*)\">([^<]*)</word>").matcher(xml);
+        final List<String> sources = new ArrayList<String>();
+        final List<String> corrections = new ArrayList<String>();
+        while (matcher.find()) {
+            sources.add(matcher.group(1));
+            corrections.add(matcher.group(2));
+        }
+        return new AutoText(sources.toArray(new String[sources.size()]),
+                corrections.toArray(new String[corrections.size()]));
+    }
+
+    private class BenchmarkDictionaryFactory implements DictionaryFactory {
+        @Override
+        public Dictionary getLangDictionary(String lang) {
+            return mMainDictionary;
+        }
+
+        @Override
+        public AutoText getAutoText(String lang) {
+            return mAutoText;
+        }
+
+        @Override
+        public UserDictionary getUserDictionary(String lang) {
+            return new TrieDictionary();
+        }
+
+        @Override
+        public SmartDictionary getSmartDictionary(String lang) {
+            return null;
+        }
+    }
+}
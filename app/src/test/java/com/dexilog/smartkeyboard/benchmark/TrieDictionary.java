@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard.benchmark;
+
+import com.dexilog.smartkeyboard.input.WordComposer;
+import com.dexilog.smartkeyboard.suggest.Dictionary;
+import com.dexilog.smartkeyboard.suggest.UserDictionary;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Pure Java stand-in for the native expandable dictionary, since the JNI library cannot be
+ * loaded on the host. Proximity matching and completion work like the native trie: typed
+ * letters weigh twice as much as their neighbours, and only the best words are returned.
+ */
+public class TrieDictionary extends Dictionary implements UserDictionary {
+
+    private static final int MAX_WORD_LENGTH = 32;
+    private static final int MAX_WORDS = 16;
+    private static final int TYPED_LETTER_MULTIPLIER = 2;
+    private static final int FULL_WORD_FREQ_MULTIPLIER = 2;
+
+    static class Node {
+        char code;
+        int frequency;
+        boolean terminal;
+        Node[] children;
+        int length;
+
+        Node child(char c, boolean create) {
+            for (int i = 0; i < length; i++) {
+                if (children[i].code == c) return children[i];
+            }
+            if (!create) return null;
+            if (children == null) {
+                children = new Node[2];
+            } else if (length == children.length) {
+                Node[] grown = new Node[length * 2];
+                System.arraycopy(children, 0, grown, 0, length);
+                children = grown;
+            }
+            Node node = new Node();
+            node.code = c;
+            children[length++] = node;
+            return node;
+        }
+    }
+
+    private final Node mRoot = new Node();
+    private final char[] mWord = new char[MAX_WORD_LENGTH];
+    private final char[] mOutputChars = new char[MAX_WORD_LENGTH * MAX_WORDS];
+    private final int[] mOutputLengths = new int[MAX_WORDS];
+    private final int[] mFrequencies = new int[MAX_WORDS];
+    private int mCount;
+    private WordComposer mCodes;
+    private int mInputLength;
+    private int mMaxDepth;
+    private int[] mNextLetters;
+
+    /**
+     * Loads a word list resource with a word and its frequency per line.
+     */
+    public static TrieDictionary load(String resource) throws IOException {
+        InputStream in = TrieDictionary.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("Missing resource " + resource);
+        }
+        TrieDictionary dictionary = new TrieDictionary();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.startsWith("#")) continue;
+                final String[] fields = line.split(" ");
+                dictionary.addWord(fields[0], Integer.parseInt(fields[1]));
+            }
+        } finally {
+            reader.close();
+        }
+        return dictionary;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void loadDictionaryAsync() {
+    }
+
+    @Override
+    public void addWord(String word, int frequency) {
+        Node node = mRoot;
+        for (int i = 0; i < word.length(); i++) {
+            node = node.child(word.charAt(i), true);
+        }
+        node.terminal = true;
+        node.frequency = Math.max(node.frequency, frequency);
+    }
+
+    @Override
+    public void getWords(WordComposer composer, WordCallback callback, boolean modeT9,
+                         int[] nextLettersFrequencies) {
+        mInputLength = composer.size();
+        if (mInputLength >= MAX_WORD_LENGTH) return;
+        mCodes = composer;
+        mMaxDepth = Math.min(mInputLength * 3, MAX_WORD_LENGTH);
+        mNextLetters = nextLettersFrequencies;
+        mCount = 0;
+        getWordsRec(mRoot, 0, 1, false);
+        for (int i = 0; i < mCount; i++) {
+            callback.addWord(mOutputChars, i * MAX_WORD_LENGTH, mOutputLengths[i], mFrequencies[i]);
+        }
+    }
+
+    private void getWordsRec(Node parent, int depth, int snr, boolean completion) {
+        if (depth >= mMaxDepth) return;
+        for (int i = 0; i < parent.length; i++) {
+            final Node node = parent.children[i];
+            final char c = node.code;
+            if (completion) {
+                mWord[depth] = c;
+                if (node.terminal) {
+                    addResult(depth + 1, node.frequency * snr);
+                }
+                getWordsRec(node, depth + 1, snr, true);
+                continue;
+            }
+            final int[] codes = mCodes.getCodesAt(depth);
+            final char lower = Character.toLowerCase(c);
+            for (int j = 0; j < codes.length && codes[j] > 0; j++) {
+                if (codes[j] != lower && codes[j] != c) continue;
+                final int addedWeight = j == 0 ? TYPED_LETTER_MULTIPLIER : 1;
+                mWord[depth] = c;
+                if (depth == mInputLength - 1) {
+                    if (node.terminal) {
+                        addResult(depth + 1,
+                                node.frequency * snr * addedWeight * FULL_WORD_FREQ_MULTIPLIER);
+                    }
+                    if (mNextLetters != null && node.length > 0) {
+                        countNextLetters(node);
+                    }
+                    getWordsRec(node, depth + 1, snr * addedWeight, true);
+                } else {
+                    getWordsRec(node, depth + 1, snr * addedWeight, false);
+                }
+                break;
+            }
+        }
+    }
+
+    private void countNextLetters(Node node) {
+        for (int i = 0; i < node.length; i++) {
+            final char c = node.children[i].code;
+            if (c < mNextLetters.length) {
+                mNextLetters[c]++;
+            }
+        }
+    }
+
+    private void addResult(int length, int frequency) {
+        // Keep the results sorted by decreasing frequency
+        int pos = 0;
+        while (pos < mCount && mFrequencies[pos] >= frequency) {
+            pos++;
+        }
+        if (pos >= MAX_WORDS) return;
+        final int moved = Math.min(mCount, MAX_WORDS - 1) - pos;
+        if (moved > 0) {
+            System.arraycopy(mFrequencies, pos, mFrequencies, pos + 1, moved);
+            System.arraycopy(mOutputLengths, pos, mOutputLengths, pos + 1, moved);
+            System.arraycopy(mOutputChars, pos * MAX_WORD_LENGTH, mOutputChars,
+                    (pos + 1) * MAX_WORD_LENGTH, moved * MAX_WORD_LENGTH);
+        }
+        mFrequencies[pos] = frequency;
+        mOutputLengths[pos] = length;
+        System.arraycopy(mWord, 0, mOutputChars, pos * MAX_WORD_LENGTH, length);
+        if (mCount < MAX_WORDS) mCount++;
+    }
+
+    @Override
+    public boolean isValidWord(CharSequence word) {
+        Node node = mRoot;
+        for (int i = 0; i < word.length() && node != null; i++) {
+            node = node.child(word.charAt(i), false);
+        }
+        return node != null && node.terminal;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2010-2017 Cyril Deguet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dexilog.smartkeyboard.input;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class EditorTextCacheTest {
+
+    private EditorTextCache cache = new EditorTextCache();
+
+    @Test
+    public void textIsReadOnce() {
+        cache.reset(5, 5, false);
+        assertEquals(null, cache.getTextBeforeCursor(3));
+        cache.setTextBeforeCursor(1000, "Hello");
+        assertEquals("llo", cache.getTextBeforeCursor(3));
+        // The whole field is known
+        assertEquals("Hello", cache.getTextBeforeCursor(1000));
+    }
+
+    @Test
+    public void composingAndCommitsAreFollowed() {
+        cache.reset(6, 6, false);
+        cache.setTextBeforeCursor(10, "Hello ");
+        cache.setTextAfterCursor(10, "");
+        cache.onSetComposingText("w", 1);
+        cache.onSetComposingText("wo", 1);
+        cache.onCommitText("world", 1);
+        cache.onCommitText(" ", 1);
+        assertEquals("Hello world ", cache.getTextBeforeCursor(100));
+        cache.onDeleteSurroundingText(2, 0);
+        assertEquals("Hello worl", cache.getTextBeforeCursor(100));
+        assertEquals("", cache.getTextAfterCursor(1));
+    }
+
+    @Test
+    public void lateReportsOfOwnEditsKeepTheText() {
+        cache.reset(0, 0, false);
+        cache.setTextBeforeCursor(10, "");
+        cache.onCommitText("a", 1);
+        cache.onCommitText("b", 1);
+        cache.onCommitText("c", 1);
+        cache.onUpdateSelection(1, 1, -1, -1);
+        cache.onUpdateSelection(3, 3, -1, -1);
+        assertEquals("abc", cache.getTextBeforeCursor(3));
+    }
+
+    @Test
+    public void unexpectedSelectionDropsTheText() {
+        cache.reset(0, 0, false);
+        cache.setTextBeforeCursor(10, "");
+        cache.onCommitText("abc", 1);
+        // The application cleared the field
+        cache.onUpdateSelection(0, 0, -1, -1);
+        assertEquals(null, cache.getTextBeforeCursor(1));
+    }
+
+    @Test
+    public void keyEventsDropTheText() {
+        cache.reset(3, 3, false);
+        cache.setTextBeforeCursor(10, "abc");
+        cache.loseTrack();
+        assertEquals(null, cache.getTextBeforeCursor(1));
+        // Edits are not followed until the editor reports the cursor
+        cache.onCommitText("d", 1);
+        assertEquals(null, cache.getTextBeforeCursor(1));
+        cache.onUpdateSelection(2, 2, -1, -1);
+        cache.setTextBeforeCursor(10, "ab");
+        cache.onCommitText("d", 1);
+        assertEquals("abd", cache.getTextBeforeCursor(10));
+    }
+}
@@ -16,6 +16,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 import java.util.Arrays;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
@@ -111,6 +112,39 @@ public class KeyboardSwitcherTest {
         assertThat(keyboardSwitcher.getCurLang(), is("EN"));
     }
 
+    @Test
+    public void testLikelyNextLanguageIsPreviousLanguage() throws Exception {
+        keyboardSwitcher.setAvailLang(Arrays.asList("EN", "FR", "DE"));
+        keyboardSwitcher.setCurLang("EN");
+        keyboardSwitcher.changeLang(2);
+        assertThat(keyboardSwitcher.getLikelyNextLangCode(), is("EN"));
+    }
+
+    @Test
+    public void testLikelyNextLanguageIsNextEnabledLanguageAtStartup() throws Exception {
+        keyboardSwitcher.setAvailLang(Arrays.asList("EN", "FR", "DE"));
+        keyboardSwitcher.setCurLang("FR");
+        assertThat(keyboardSwitcher.getLikelyNextLangCode(), is("DE"));
+        keyboardSwitcher.setAvailLang(Arrays.asList("EN", "FR"));
+        assertThat(keyboardSwitcher.getLikelyNextLangCode(), is("EN"));
+    }
+
+    @Test
+    public void testLikelyNextLanguageIsNeverEmoji() throws Exception {
+        keyboardSwitcher.setAvailLang(Arrays.asList("EN", "EM"));
+        keyboardSwitcher.setCurLang("EN");
+        assertThat(keyboardSwitcher.getLikelyNextLangCode(), is(nullValue()));
+        keyboardSwitcher.switchToEmoji();
+        assertThat(keyboardSwitcher.getLikelyNextLangCode(), is("EN"));
+    }
+
+    @Test
+    public void testNoLikelyNextLanguageGivenOneLanguage() throws Exception {
+        keyboardSwitcher.setAvailLang(Arrays.asList("EN"));
+        keyboardSwitcher.setCurLang("EN");
+        assertThat(keyboardSwitcher.getLikelyNextLangCode(), is(nullValue()));
+    }
+
     private KeyboardView getSymbolsView() {
         Keyboard keyboard = mock(Keyboard.class);
         KeyboardView view = mock(KeyboardView.class);
@@ -0,0 +1,86 @@
+package com.dexilog.smartkeyboard.lang;
+
+import com.dexilog.smartkeyboard.input.WordComposerImpl;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class IncrementalConverterTest {
+
+    private static final int STEPS = 3000;
+
+    @Test
+    public void korean() {
+        // Jamos, T9 vowel strokes and a few other characters
+        assertIncremental(new Korean(new WordComposerImpl()),
+                "ㄱㄲㄴㄷㄹㅁㅂㅅㅇㅈㅎㅏㅓㅗㅜㅡㅣㅐㅔㆍㅣㅡ a1");
+    }
+
+    @Test
+    public void telex() {
+        assertIncremental(new Telex(), "aAdDeEoOuUwWyYiIfrxsjzntg ");
+    }
+
+    @Test
+    public void romajiKana() {
+        assertIncremental(new RomajiKana(), "aiueokstnhmyrwgzdbpjfcvqlx-");
+    }
+
+    @Test
+    public void pinyin() {
+        assertIncremental(new Pinyin(), "aeiouAEnghzrüˉˊˇˋ ");
+    }
+
+    @Test
+    public void tamil() {
+        assertIncremental(new Tamil(), "அஇஈஊகசதமழ்஄஘");
+    }
+
+    @Test
+    public void snapshotCanBeResumedSeparately() {
+        Telex telex = new Telex();
+        StringBuilder text = new StringBuilder("vieet");
+        StringBuilder output = new StringBuilder();
+        ConversionState state = new ConversionState();
+        telex.resume(text, output, state);
+        assertEquals("viêt", output.toString());
+
+        StringBuilder copiedText = new StringBuilder(text);
+        StringBuilder copiedOutput = new StringBuilder(output);
+        ConversionState copiedState = new ConversionState(state);
+
+        text.append('s');
+        telex.append(text, output, state);
+        assertEquals("viết", output.toString());
+
+        copiedText.append('j');
+        telex.append(copiedText, copiedOutput, copiedState);
+        assertEquals("việt", copiedOutput.toString());
+    }
+
+    /**
+     * Types and deletes random letters, and checks the output is always the one of a
+     * conversion of the whole text.
+     */
+    private void assertIncremental(IncrementalConverter converter, String letters) {
+        final Random random = new Random(42);
+        final StringBuilder text = new StringBuilder();
+        final StringBuilder output = new StringBuilder();
+        final StringBuilder expected = new StringBuilder();
+        final ConversionState state = new ConversionState();
+        for (int step = 0; step < STEPS; step++) {
+            if (text.length() > 0 && (random.nextInt(4) == 0 || text.length() > 12)) {
+                text.setLength(text.length() - 1);
+                converter.deleteLast(text, output, state);
+            } else {
+                text.append(letters.charAt(random.nextInt(letters.length())));
+                converter.append(text, output, state);
+            }
+            converter.convert(text, expected);
+            assertEquals(text.toString(), expected.toString(), output.toString());
+        }
+    }
+}